@@ -1,17 +1,53 @@
 package ar.com.caputo.drones;
 
+import java.io.IOException;
 import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonParser;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 
+import ar.com.caputo.drones.admission.AdmissionControl;
+import ar.com.caputo.drones.admission.AdmissionControl.RouteClass;
+import ar.com.caputo.drones.database.engine.InMemoryStorageEngine;
+import ar.com.caputo.drones.database.engine.InMemoryStore;
+import ar.com.caputo.drones.database.engine.OrmLiteStorageEngine;
+import ar.com.caputo.drones.database.engine.SnapshotStorageEngine;
+import ar.com.caputo.drones.database.engine.SnapshotStore;
+import ar.com.caputo.drones.database.engine.StorageEngine;
+import ar.com.caputo.drones.database.event.EventLog;
+import ar.com.caputo.drones.database.event.EventSourcedStorageEngine;
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.query.HotQueries;
+import ar.com.caputo.drones.database.repo.ChangeLogRepository;
+import ar.com.caputo.drones.database.search.SearchIndex;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot;
+import ar.com.caputo.drones.database.timing.StatementTimings;
+import ar.com.caputo.drones.database.timing.TimedConnectionSource;
+import ar.com.caputo.drones.rest.AdminEndpoint;
+import ar.com.caputo.drones.rest.BatchEndpoint;
+import ar.com.caputo.drones.rest.ChangeFeedEndpoint;
 import ar.com.caputo.drones.rest.DroneEndpoint;
+import ar.com.caputo.drones.rest.FleetEndpoint;
+import ar.com.caputo.drones.rest.IdempotencyStore;
 import ar.com.caputo.drones.rest.MedicationEndpoint;
+import ar.com.caputo.drones.rest.SearchEndpoint;
 import ar.com.caputo.drones.task.BatteryLevelLogTask;
+import ar.com.caputo.drones.tracing.RequestTiming;
+import ar.com.caputo.drones.tracing.RequestTiming.Span;
+import ar.com.caputo.drones.tracing.RequestTiming.Stage;
+import ar.com.caputo.drones.tracing.RequestTracing;
 import spark.Spark;
 
 public class DroneService {
@@ -20,12 +56,49 @@ public class DroneService {
     private final String FALLBACK_API_ADDRESS = "0.0.0.0";
     private String DB_NAME = "drones";
     private final String DB_URL = "jdbc:h2:file://" + System.getProperty("user.dir") + "/";
+    private final String MEMORY_DB_URL = "jdbc:h2:mem:";
+    private final String WAL_EXTENSION = ".wal";
+    private final String EVENTS_EXTENSION = ".events";
+
+    public static final String STORAGE_H2 = "h2";
+    public static final String STORAGE_H2_MEMORY = "h2mem";
+    public static final String STORAGE_MEMORY = "memory";
+
+    public static final String EVENT_LOG_OFF = "off";
+    public static final String EVENT_LOG_ON = "on";
+    public static final String EVENT_LOG_REPLAY = "replay";
 
     private final String API_VERSION = "v1";
     public final String API_URL = String.format("/api/%s", API_VERSION);
 
     public static final Gson GSON = new Gson(); 
     private ConnectionSource source;
+    /**
+     * Storage engine backing every repository, either
+     * {@link #STORAGE_H2}, {@link #STORAGE_H2_MEMORY}
+     * or {@link #STORAGE_MEMORY}
+     */
+    private String storage = STORAGE_H2;
+    private InMemoryStore memoryStore;
+    private SnapshotStore snapshotStore;
+    /**
+     * 60 seconds default interval between snapshots
+     * of the {@link #STORAGE_H2_MEMORY} database
+     */
+    private long snapshotInterval = 60L;
+    /**
+     * 1 hour default interval between reconciliations of the
+     * {@link FleetSnapshot} against the database, 0 to disable them
+     */
+    private long reconcileInterval = 3600L;
+    /**
+     * Whether drone and medication writes are recorded on the
+     * {@link EventLog}: {@link #EVENT_LOG_OFF}, {@link #EVENT_LOG_ON},
+     * or {@link #EVENT_LOG_REPLAY} to also rebuild their tables
+     * from the log on startup
+     */
+    private String eventLog = EVENT_LOG_OFF;
+    private EventLog events;
 
     private ScheduledExecutorService scheduler;
     
@@ -33,11 +106,81 @@ public class DroneService {
      * 4 minutes default logInterval for {@link BatteryLevelLogTask}
      */
     private long logInterval = 240L;
+    /**
+     * Amount of rows fetched per round trip (and held in
+     * memory at once) when streaming whole tables
+     */
+    private int fetchSize = 500;
+    /**
+     * Amount of shards the fleet is split in by
+     * {@link BatteryLevelLogTask}, one per core by default
+     */
+    private int auditShards = Runtime.getRuntime().availableProcessors();
+    /**
+     * Battery level points a drone has to move before
+     * {@link BatteryLevelLogTask} logs it again, negative
+     * to log every drone on every tick
+     */
+    private int auditDelta = -1;
+    /**
+     * Ticks after which a drone is logged even if its battery
+     * level did not move more than {@link #auditDelta}
+     */
+    private int auditHeartbeat = 15;
+    /**
+     * Time (in seconds) the response of a request sent with an
+     * {@value IdempotencyStore#HEADER} header is kept for its retries
+     */
+    private long idempotencyTtl = 86400L;
+    /**
+     * Maximum amount of responses held by the {@link IdempotencyStore}
+     */
+    private int idempotencyCapacity = 10000;
+    /**
+     * Requests per second each client can send to every
+     * {@link RouteClass}, {@code 0} meaning there's no limit
+     */
+    private final Map<RouteClass, Double> clientRates = new EnumMap<>(Map.of(
+        RouteClass.READ, 200d,
+        RouteClass.WRITE, 50d,
+        RouteClass.BULK, 2d
+    ));
+    /**
+     * Requests served at a time by {@link AdmissionControl},
+     * {@code 0} meaning there's no limit
+     */
+    private int maxConcurrent = 64;
+    /**
+     * Time (in milliseconds) above which SQL statements are
+     * logged by {@link StatementTimings}, negative to log none
+     */
+    private long slowStatementThreshold = 200L;
+    /**
+     * Share of the requests logged by {@link RequestTracing},
+     * from {@code 0} to {@code 1}
+     */
+    private double requestLogSampling = 0.01d;
     private final Logger BATTERY_AUDIT_LOGGER = System.getLogger("BATTERY AUDIT LOG");
+    private final Logger FLEET_SNAPSHOT_LOGGER = System.getLogger("FLEET SNAPSHOT");
+    private final Logger CHANGE_LOG_LOGGER = System.getLogger("CHANGE LOG");
+    private final Logger STORAGE_LOGGER = System.getLogger("STORAGE");
     
     private static DroneService instance;
     private DroneEndpoint droneEnpoint;
     private MedicationEndpoint medicationEndpoint;
+    private ChangeFeedEndpoint changeFeedEndpoint;
+    private FleetSnapshot fleetSnapshot;
+    private BatteryLevelLogTask batteryTask;
+    private AdminEndpoint adminEndpoint;
+    private FleetEndpoint fleetEndpoint;
+    private BatchEndpoint batchEndpoint;
+    private SearchIndex searchIndex;
+    private SearchEndpoint searchEndpoint;
+    private IdempotencyStore idempotencyStore;
+    private AdmissionControl admissionControl;
+    private RequestTracing requestTracing;
+    private final HotQueries hotQueries = new HotQueries();
+    private final StatementTimings statementTimings = new StatementTimings();
     private DroneService() {}
 
     public static DroneService getInstance() {
@@ -77,6 +220,70 @@ public class DroneService {
                     case "-li"          :
                         logInterval = Integer.parseInt(argData[1]);
                         break;
+                    case "--fetchSize":
+                    case "-fs"        :
+                        DroneService.getInstance().fetchSize = Integer.parseInt(argData[1]);
+                        break;
+                    case "--auditShards":
+                    case "-as"          :
+                        DroneService.getInstance().auditShards = Math.max(1, Integer.parseInt(argData[1]));
+                        break;
+                    case "--auditDelta":
+                    case "-ad"         :
+                        DroneService.getInstance().auditDelta = Integer.parseInt(argData[1]);
+                        break;
+                    case "--auditHeartbeat":
+                    case "-ah"             :
+                        DroneService.getInstance().auditHeartbeat = Math.max(1, Integer.parseInt(argData[1]));
+                        break;
+                    case "--storage":
+                    case "-st"      :
+                        DroneService.getInstance().storage = argData[1].strip().toLowerCase();
+                        break;
+                    case "--snapshotInterval":
+                    case "-si"               :
+                        DroneService.getInstance().snapshotInterval = Long.parseLong(argData[1]);
+                        break;
+                    case "--reconcileInterval":
+                    case "-ri"                :
+                        DroneService.getInstance().reconcileInterval = Long.parseLong(argData[1]);
+                        break;
+                    case "--idempotencyTtl":
+                    case "-it"             :
+                        DroneService.getInstance().idempotencyTtl = Long.parseLong(argData[1]);
+                        break;
+                    case "--idempotencyCapacity":
+                    case "-ic"                  :
+                        DroneService.getInstance().idempotencyCapacity = Math.max(0, Integer.parseInt(argData[1]));
+                        break;
+                    case "--readRate":
+                    case "-rr"       :
+                        DroneService.getInstance().clientRates.put(RouteClass.READ, Double.parseDouble(argData[1]));
+                        break;
+                    case "--writeRate":
+                    case "-wr"        :
+                        DroneService.getInstance().clientRates.put(RouteClass.WRITE, Double.parseDouble(argData[1]));
+                        break;
+                    case "--bulkRate":
+                    case "-br"       :
+                        DroneService.getInstance().clientRates.put(RouteClass.BULK, Double.parseDouble(argData[1]));
+                        break;
+                    case "--maxConcurrent":
+                    case "-mc"            :
+                        DroneService.getInstance().maxConcurrent = Math.max(0, Integer.parseInt(argData[1]));
+                        break;
+                    case "--slowStatementThreshold":
+                    case "-ss"                     :
+                        DroneService.getInstance().slowStatementThreshold = Long.parseLong(argData[1]);
+                        break;
+                    case "--requestLogSampling":
+                    case "-rl"                 :
+                        DroneService.getInstance().requestLogSampling = Math.min(1d, Math.max(0d, Double.parseDouble(argData[1])));
+                        break;
+                    case "--eventLog":
+                    case "-el"       :
+                        DroneService.getInstance().eventLog = argData[1].strip().toLowerCase();
+                        break;
                 }
             }
             
@@ -89,6 +296,7 @@ public class DroneService {
     private void configure(final String API_ADDRESS, final int API_PORT, final String USER_PROVIDED_DB_NAME, final long LOG_INTERVAL) {
 
         this.logInterval = LOG_INTERVAL != -1 ? LOG_INTERVAL : this.logInterval;
+        this.statementTimings.setSlowThresholdMillis(slowStatementThreshold);
 
         String dbName = null; 
         if(USER_PROVIDED_DB_NAME != null) dbName = USER_PROVIDED_DB_NAME.strip();
@@ -109,28 +317,71 @@ public class DroneService {
          */
         Spark.defaultResponseTransformer((response) -> {
             if(response == null) return "{}";
-            return GSON.toJson(JsonParser.parseString(response.toString()));
+            try(Span serialization = RequestTiming.enter(Stage.SERIALIZE)) {
+                return GSON.toJson(JsonParser.parseString(response.toString()));
+            }
         });
 
+        this.requestTracing = new RequestTracing(requestLogSampling);
+        Spark.before(requestTracing::begin);
+        Spark.afterAfter(requestTracing::finish);
+
         Spark.before((req, resp) -> { 
             resp.type("application/json");
         });
 
+        this.admissionControl = new AdmissionControl(clientRates, maxConcurrent);
+        Spark.before(admissionControl::admit);
+        Spark.afterAfter(admissionControl::release);
+
         /*
          * Endpoint registration
          */
 
+        this.idempotencyStore = new IdempotencyStore(TimeUnit.SECONDS.toMillis(idempotencyTtl), idempotencyCapacity);
+
         this.droneEnpoint = new DroneEndpoint();
         this.medicationEndpoint = new MedicationEndpoint();
+
+        ChangeLogRepository changeLog = new ChangeLogRepository();
+        droneEnpoint.getRepository().addTransactionalListener(changeLog.recorder("drone"));
+        medicationEndpoint.getRepository().addTransactionalListener(changeLog.recorder("medication"));
+        this.changeFeedEndpoint = new ChangeFeedEndpoint(changeLog);
+        this.adminEndpoint = new AdminEndpoint();
+
+        /*
+         * In-memory structures kept in sync with the repositories
+         */
+
+        this.fleetSnapshot = new FleetSnapshot();
+        droneEnpoint.getRepository().addListener(fleetSnapshot.droneListener());
+        medicationEndpoint.getRepository().addListener(fleetSnapshot.medicationListener());
+        fleetSnapshot.rebuild(droneEnpoint.getRepository(), medicationEndpoint.getRepository());
+        this.searchIndex = new SearchIndex();
+        droneEnpoint.getRepository().addListener(searchIndex.droneListener());
+        medicationEndpoint.getRepository().addListener(searchIndex.medicationListener());
+        searchIndex.rebuild(droneEnpoint.getRepository(), medicationEndpoint.getRepository());
+        this.fleetEndpoint = new FleetEndpoint();
+        this.searchEndpoint = new SearchEndpoint();
+        this.batchEndpoint = new BatchEndpoint();
         
 
         /*
          * Init tasks
          */
         
-        BatteryLevelLogTask batteryTask = new BatteryLevelLogTask();
+        this.batteryTask = new BatteryLevelLogTask();
         batteryTask.init();
 
+        if(snapshotStore != null)
+            getScheduler().scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+
+        getScheduler().scheduleWithFixedDelay(admissionControl::evictIdleBuckets, 
+                                              AdmissionControl.BURST_SECONDS, AdmissionControl.BURST_SECONDS, TimeUnit.SECONDS);
+
+        if(reconcileInterval > 0)
+            getScheduler().scheduleWithFixedDelay(this::reconcileFleet, reconcileInterval, reconcileInterval, TimeUnit.SECONDS);
+
         // Ensures Spark shuts down properly
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             
@@ -140,6 +391,31 @@ public class DroneService {
             
             Spark.stop();
 
+            if(events != null) {
+                try {
+                    events.close();
+                } catch (IOException ex) {
+                    STORAGE_LOGGER.log(Level.ERROR, "Could not close the event log: " + ex.getMessage());
+                }
+            }
+
+            if(snapshotStore != null) {
+                snapshot();
+                try {
+                    snapshotStore.close();
+                } catch (IOException ex) {
+                    STORAGE_LOGGER.log(Level.ERROR, "Could not close the snapshot store: " + ex.getMessage());
+                }
+            }
+
+            if(memoryStore != null) {
+                try {
+                    memoryStore.close();
+                } catch (IOException ex) {
+                    STORAGE_LOGGER.log(Level.ERROR, "Could not close the in-memory store: " + ex.getMessage());
+                }
+            }
+
         }));
     
     }
@@ -147,20 +423,142 @@ public class DroneService {
     public ConnectionSource getDataSource() {
         if(this.source == null) {
 
-            try(ConnectionSource source = new JdbcConnectionSource(DB_URL + DB_NAME)) {
+            try(ConnectionSource source = new TimedConnectionSource(getDbUrl(), statementTimings)) {
 
                 ((JdbcConnectionSource) source).setUsername("sa");
                 ((JdbcConnectionSource) source).setPassword("");
     
                 this.source = source;
             } catch (Exception ex) {
-                ex.printStackTrace();
+                STORAGE_LOGGER.log(Level.ERROR, "Could not open the database connection: " + ex.getMessage());
             }
         }
         return this.source;
     }
 
 
+    /**
+     * Opens a database connection of its own for whoever needs
+     * to write without contending for {@link #getDataSource()}
+     * @return the new connection or {@code null} if the
+     *         storage engine does not use connections
+     */
+    public ConnectionSource openConnection() throws SQLException {
+
+        if(STORAGE_MEMORY.equals(storage)) return null;
+
+        JdbcConnectionSource connection = new TimedConnectionSource(getDbUrl(), statementTimings);
+        connection.setUsername("sa");
+        connection.setPassword("");
+        return connection;
+
+    }
+
+    private String getDbUrl() {
+        return STORAGE_H2_MEMORY.equals(storage) ? getMemoryDbUrl() : DB_URL + DB_NAME;
+    }
+
+    /**
+     * @see #createStorageEngine(Class, ConnectionSource)
+     */
+    public <T extends BaseEntityModel, ID> StorageEngine<T, ID> createStorageEngine(Class<T> model) throws SQLException {
+        return createStorageEngine(model, null);
+    }
+
+    /**
+     * Creates the storage engine for the given model according
+     * to the {@code --storage} startup flag, recording drone and
+     * medication writes on the event log if {@code --eventLog}
+     * is enabled
+     * @param connection the engine's database connection, if {@code null}
+     *                   the one from {@link #getDataSource()} is used
+     * @throws SQLException if the storage can't be opened
+     */
+    public <T extends BaseEntityModel, ID> StorageEngine<T, ID> createStorageEngine(Class<T> model, ConnectionSource connection) throws SQLException {
+
+        StorageEngine<T, ID> engine;
+
+        switch (storage) {
+            case STORAGE_H2:
+                engine = new OrmLiteStorageEngine<>(connection == null ? getDataSource() : connection, model);
+                break;
+            case STORAGE_H2_MEMORY:
+                SnapshotStore snapshots = getSnapshotStore();
+                engine = new SnapshotStorageEngine<>(connection == null ? getDataSource() : connection, snapshots, model);
+                break;
+            case STORAGE_MEMORY:
+                engine = new InMemoryStorageEngine<>(getMemoryStore(), model);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage engine '" + storage + "'");
+        }
+
+        if(EVENT_LOG_OFF.equals(eventLog) || !(model == Drone.class || model == Medication.class))
+            return engine;
+
+        EventSourcedStorageEngine<T, ID> eventSourced = new EventSourcedStorageEngine<>(engine, getEventLog(), model);
+        if(EVENT_LOG_REPLAY.equals(eventLog)) eventSourced.rebuild();
+        return eventSourced;
+
+    }
+
+    private synchronized EventLog getEventLog() throws SQLException {
+        if(this.events == null) {
+            try {
+                this.events = new EventLog(Path.of(System.getProperty("user.dir"), DB_NAME + EVENTS_EXTENSION));
+            } catch (IOException ex) {
+                throw new SQLException("Could not open the event log: " + ex.getMessage(), ex);
+            }
+        }
+        return this.events;
+    }
+
+    private synchronized InMemoryStore getMemoryStore() throws SQLException {
+        if(this.memoryStore == null) {
+            try {
+                this.memoryStore = new InMemoryStore(Path.of(System.getProperty("user.dir"), DB_NAME + WAL_EXTENSION));
+            } catch (IOException ex) {
+                throw new SQLException("Could not open the write-ahead log: " + ex.getMessage(), ex);
+            }
+        }
+        return this.memoryStore;
+    }
+
+    /**
+     * Restores the in-memory H2 database on first use, so it
+     * must be called before any table is created
+     */
+    private synchronized SnapshotStore getSnapshotStore() throws SQLException {
+        if(this.snapshotStore == null) {
+            try {
+                this.snapshotStore = new SnapshotStore(getMemoryDbUrl(), Path.of(System.getProperty("user.dir")), DB_NAME);
+            } catch (IOException ex) {
+                throw new SQLException("Could not read the database snapshot: " + ex.getMessage(), ex);
+            }
+        }
+        return this.snapshotStore;
+    }
+
+    /**
+     * @return URL of the in-memory H2 database, kept alive
+     *         while the JVM runs instead of while connected
+     */
+    private String getMemoryDbUrl() {
+        return MEMORY_DB_URL + DB_NAME + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+    }
+
+    private void snapshot() {
+        try {
+            snapshotStore.snapshot();
+        } catch (Exception ex) {
+            STORAGE_LOGGER.log(Level.ERROR, "Could not snapshot the in-memory database: " + ex.getMessage());
+        }
+    }
+
+    public String getStorage() {
+        return storage;
+    }
+
     /**
      * Sanitises a String to be JSON-format-parsable
      * @param string
@@ -189,13 +587,107 @@ public class DroneService {
         return medicationEndpoint;
     }
 
+    public ChangeFeedEndpoint getChangeFeedEndpoint() {
+        return changeFeedEndpoint;
+    }
+
+    public FleetSnapshot getFleetSnapshot() {
+        return fleetSnapshot;
+    }
+
+    public FleetEndpoint getFleetEndpoint() {
+        return fleetEndpoint;
+    }
+
+    public BatchEndpoint getBatchEndpoint() {
+        return batchEndpoint;
+    }
+
+    public IdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public RequestTracing getRequestTracing() {
+        return requestTracing;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public SearchEndpoint getSearchEndpoint() {
+        return searchEndpoint;
+    }
+
+    public HotQueries getHotQueries() {
+        return hotQueries;
+    }
+
+    public StatementTimings getStatementTimings() {
+        return statementTimings;
+    }
+
+    /**
+     * Rebuilds the {@link FleetSnapshot} and the {@link SearchIndex}
+     * from the database, warning if the summary had drifted
+     */
+    private void reconcileFleet() {
+
+        try {
+            if(fleetSnapshot.reconcile(droneEnpoint.getRepository(), medicationEndpoint.getRepository()))
+                FLEET_SNAPSHOT_LOGGER.log(Level.WARNING,
+                    "Fleet snapshot drifted from the database, rebuilt to " + fleetSnapshot.summary());
+            searchIndex.rebuild(droneEnpoint.getRepository(), medicationEndpoint.getRepository());
+        } catch (RuntimeException ex) {
+            // Keeps the task scheduled
+            FLEET_SNAPSHOT_LOGGER.log(Level.ERROR, "Could not reconcile the fleet snapshot: " + ex.getMessage());
+        }
+
+    }
+
     public long getLogInterval() {
         return logInterval;
     }
 
+    public int getAuditShards() {
+        return auditShards;
+    }
+
+    public int getAuditDelta() {
+        return auditDelta;
+    }
+
+    public int getAuditHeartbeat() {
+        return auditHeartbeat;
+    }
+
+    public BatteryLevelLogTask getBatteryLevelLogTask() {
+        return batteryTask;
+    }
+
+    public AdminEndpoint getAdminEndpoint() {
+        return adminEndpoint;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
     public Logger getBatteryAuditLogger() {
         return this.BATTERY_AUDIT_LOGGER;
     }
+
+    public Logger getChangeLogLogger() {
+        return this.CHANGE_LOG_LOGGER;
+    }
+
+    public Logger getStorageLogger() {
+        return this.STORAGE_LOGGER;
+    }
     
     
 
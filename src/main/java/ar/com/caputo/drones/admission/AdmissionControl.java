@@ -0,0 +1,192 @@
+package ar.com.caputo.drones.admission;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ar.com.caputo.drones.DroneService;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+/**
+ * Decides whether a request is served before it reaches its route,
+ * so a single client can't starve the rest of them.
+ * <p>
+ * Every client, identified by its {@value #API_KEY_HEADER} header
+ * or else its address, gets a {@link TokenBucket} per
+ * {@link RouteClass}, requests finding theirs empty being answered
+ * with {@code 429}. On top of that, at most {@code maxConcurrent}
+ * requests are served at a time, the rest being answered with
+ * {@code 503}. Both answers carry a {@code Retry-After} header.
+ */
+public class AdmissionControl {
+
+    public static final String API_KEY_HEADER = "X-Api-Key";
+
+    /**
+     * Seconds worth of tokens a bucket holds, which
+     * is the burst a client can send on top of its rate
+     */
+    public static final int BURST_SECONDS = 10;
+
+    /**
+     * Request attribute set on the admitted requests,
+     * which are the only ones to be released
+     */
+    private static final String ADMITTED_ATTRIBUTE = AdmissionControl.class.getName() + ".admitted";
+
+    public enum RouteClass {
+        /**
+         * Requests only reading, {@code GET} ones and lookups
+         */
+        READ,
+        /**
+         * Requests writing a single entity
+         */
+        WRITE,
+        /**
+         * Requests writing several entities at once, such
+         * as bulks, batches and state transitions
+         */
+        BULK;
+
+        public static RouteClass of(String method, String path) {
+
+            if(method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("HEAD") || path.endsWith("/lookup/")) return READ;
+            if(path.contains("/bulk/") || path.contains("/transitions/") || path.endsWith("/batch")) return BULK;
+            return WRITE;
+
+        }
+
+    }
+
+    /**
+     * Tokens per second each client gets for every route
+     * class, classes with none not being limited
+     */
+    private final Map<RouteClass, Double> rates;
+    private final int maxConcurrent;
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Map<RouteClass, AtomicLong> admitted = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, AtomicLong> rateLimited = new EnumMap<>(RouteClass.class);
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * @param rates         tokens per second each client gets for
+     *                      every route class, {@code 0} or none
+     *                      meaning the class is not limited
+     * @param maxConcurrent requests served at a time, {@code 0}
+     *                      meaning there's no limit
+     */
+    public AdmissionControl(Map<RouteClass, Double> rates, int maxConcurrent) {
+
+        this.rates = new EnumMap<>(RouteClass.class);
+        rates.forEach((routeClass, rate) -> { if(rate > 0) this.rates.put(routeClass, rate); });
+        this.maxConcurrent = maxConcurrent;
+
+        for(RouteClass routeClass : RouteClass.values()) {
+            admitted.put(routeClass, new AtomicLong());
+            rateLimited.put(routeClass, new AtomicLong());
+        }
+
+    }
+
+    /**
+     * {@code before} filter admitting the request or halting it
+     */
+    public void admit(Request req, Response resp) {
+
+        // Operators must be able to look into an overloaded service
+        if(req.pathInfo().startsWith(DroneService.getInstance().API_URL + "/admin")) return;
+
+        RouteClass routeClass = RouteClass.of(req.requestMethod(), req.pathInfo());
+        Double rate = rates.get(routeClass);
+
+        if(rate != null) {
+
+            String apiKey = req.headers(API_KEY_HEADER);
+            String client = apiKey == null ? "ip:" + req.ip() : "key:" + apiKey;
+            long wait = buckets
+                .computeIfAbsent(client + "|" + routeClass, bucket -> new TokenBucket(rate, (int) Math.max(1, Math.ceil(rate * BURST_SECONDS))))
+                .tryAcquire();
+
+            if(wait > 0) {
+                rateLimited.get(routeClass).incrementAndGet();
+                resp.header("Retry-After", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999L))));
+                Spark.halt(429, DroneService.GSON.toJson(Map.of("data", "Too many " + routeClass.name().toLowerCase() + " requests, slow down")));
+            }
+
+        }
+
+        if(maxConcurrent > 0) {
+
+            int current;
+            do {
+                current = inFlight.get();
+                if(current >= maxConcurrent) {
+                    overloaded.incrementAndGet();
+                    resp.header("Retry-After", "1");
+                    Spark.halt(503, DroneService.GSON.toJson(Map.of("data", "The service is overloaded, try again later")));
+                }
+            } while(!inFlight.compareAndSet(current, current + 1));
+
+            maxInFlight.accumulateAndGet(current + 1, Math::max);
+            req.attribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+
+        }
+
+        admitted.get(routeClass).incrementAndGet();
+
+    }
+
+    /**
+     * {@code afterAfter} filter releasing the
+     * concurrency slot of admitted requests
+     */
+    public void release(Request req, Response resp) {
+        if(req.attribute(ADMITTED_ATTRIBUTE) != null) inFlight.decrementAndGet();
+    }
+
+    /**
+     * Drops the buckets of the clients that have been idle
+     * long enough for their buckets to be full again
+     */
+    public void evictIdleBuckets() {
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    /**
+     * @return admitted and shed requests, per route class
+     *         when rate limited, and the concurrency reached
+     */
+    public Map<String, Object> getMetrics() {
+
+        Map<String, Long> admittedCounts = new LinkedHashMap<>();
+        Map<String, Long> rateLimitedCounts = new LinkedHashMap<>();
+        for(RouteClass routeClass : RouteClass.values()) {
+            admittedCounts.put(routeClass.name(), admitted.get(routeClass).get());
+            rateLimitedCounts.put(routeClass.name(), rateLimited.get(routeClass).get());
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("admitted", admittedCounts);
+        metrics.put("rateLimited", rateLimitedCounts);
+        metrics.put("overloaded", overloaded.get());
+        metrics.put("inFlight", inFlight.get());
+        metrics.put("maxInFlight", maxInFlight.get());
+        metrics.put("maxConcurrent", maxConcurrent);
+        metrics.put("clientBuckets", buckets.size());
+        return metrics;
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package ar.com.caputo.drones.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket refilled at {@code rate} tokens per second
+ * and holding up to {@code burst} of them.
+ * <p>
+ * Rather than counting tokens, the bucket keeps the instant it will
+ * be full again, so taking a token is a single compare-and-set
+ * pushing that instant one refill interval forward.
+ */
+class TokenBucket {
+
+    /**
+     * Nanoseconds it takes to refill a single token
+     */
+    private final long interval;
+
+    /**
+     * Nanoseconds it takes to refill the whole bucket
+     */
+    private final long capacity;
+
+    /**
+     * {@link System#nanoTime()} at which the bucket is full,
+     * any instant in the past meaning it already is
+     */
+    private final AtomicLong fullAt;
+
+    TokenBucket(double rate, int burst) {
+        this.interval = (long) (1_000_000_000L / rate);
+        this.capacity = interval * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if there's any left
+     * @return {@code 0} if a token was taken, otherwise the
+     *         nanoseconds until the next one is refilled
+     */
+    long tryAcquire() {
+
+        while(true) {
+
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + interval;
+
+            if(next - now > capacity) return next - now - capacity;
+            if(fullAt.compareAndSet(current, next)) return 0;
+
+        }
+
+    }
+
+    /**
+     * @return whether the bucket is full, so dropping
+     *         it is the same as keeping it
+     */
+    boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+
+}
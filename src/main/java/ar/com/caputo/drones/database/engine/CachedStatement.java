@@ -0,0 +1,169 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.j256.ormlite.dao.DatabaseResultsMapper;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcDatabaseResults;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+
+/**
+ * JDBC statement prepared once on the connection of a source and
+ * reused afterwards, binding new arguments on every run, instead of
+ * being built and prepared again on every call as ORMLite does.
+ * <p>
+ * Runs are serialized, as they already are on the single connection
+ * of the source, and the statement is prepared again whenever the
+ * source hands out a different connection, closing the previous one.
+ */
+public final class CachedStatement {
+
+    /**
+     * Work done on the statement once its arguments are cleared
+     */
+    @FunctionalInterface
+    public interface StatementCall<R> {
+        R call(PreparedStatement statement) throws SQLException;
+    }
+
+    private final ConnectionSource source;
+    private final String table;
+    private final String sql;
+    private final boolean returnsGeneratedKeys;
+
+    private PreparedStatement statement;
+
+    /**
+     * @param source               whose connection the statement is prepared on
+     * @param table                the statement is run on
+     * @param sql                  the statement, its parameters as {@code ?}
+     * @param returnsGeneratedKeys whether the keys generated by inserts
+     *                             can be read after every run
+     */
+    public CachedStatement(ConnectionSource source, String table, String sql, boolean returnsGeneratedKeys) {
+        this.source = source;
+        this.table = table;
+        this.sql = sql;
+        this.returnsGeneratedKeys = returnsGeneratedKeys;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Runs {@code call} on the statement, preparing it first if it's
+     * the first run on the current connection of the source
+     */
+    public synchronized <R> R run(StatementCall<R> call) throws SQLException {
+
+        DatabaseConnection connection = source.getReadWriteConnection(table);
+        try {
+
+            Connection jdbcConnection = ((JdbcDatabaseConnection) connection).getUnderlyingConnection();
+            if(statement == null || statement.isClosed() || statement.getConnection() != jdbcConnection) {
+                closeStatement();
+                statement = returnsGeneratedKeys
+                            ? jdbcConnection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                            : jdbcConnection.prepareStatement(sql);
+            }
+
+            statement.clearParameters();
+            return call.call(statement);
+
+        } finally {
+            source.releaseConnection(connection);
+        }
+
+    }
+
+    /**
+     * Quietly closes the statement prepared on a previous
+     * connection, which may be closed already
+     */
+    private void closeStatement() {
+
+        if(statement == null) return;
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            // Released along with its connection otherwise
+        }
+        statement = null;
+
+    }
+
+    /**
+     * @return the rows read with the given arguments,
+     *         each of them mapped by {@code mapper}
+     */
+    public <R> List<R> query(DatabaseResultsMapper<R> mapper, Object... arguments) throws SQLException {
+
+        return run(statement -> {
+            bind(statement, arguments);
+            List<R> rows = new ArrayList<>();
+            try(ResultSet resultSet = statement.executeQuery()) {
+                DatabaseResults results = new JdbcDatabaseResults(statement, resultSet, null, false);
+                while(results.next()) rows.add(mapper.mapRow(results));
+            }
+            return rows;
+        });
+
+    }
+
+    /**
+     * @return the first row read with the given arguments
+     *         mapped by {@code mapper}, {@code null} if there's none
+     */
+    public <R> R queryForFirst(DatabaseResultsMapper<R> mapper, Object... arguments) throws SQLException {
+
+        return run(statement -> {
+            bind(statement, arguments);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                DatabaseResults results = new JdbcDatabaseResults(statement, resultSet, null, false);
+                return results.next() ? mapper.mapRow(results) : null;
+            }
+        });
+
+    }
+
+    /**
+     * @return the first column of the first row read with the
+     *         given arguments, {@code 0} if it's {@code null}
+     */
+    public long queryForLong(Object... arguments) throws SQLException {
+
+        return run(statement -> {
+            bind(statement, arguments);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        });
+
+    }
+
+    /**
+     * @return the amount of rows written with the given arguments
+     */
+    public int update(Object... arguments) throws SQLException {
+
+        return run(statement -> {
+            bind(statement, arguments);
+            return statement.executeUpdate();
+        });
+
+    }
+
+    private static void bind(PreparedStatement statement, Object[] arguments) throws SQLException {
+        for(int i = 0; i < arguments.length; i++) statement.setObject(i + 1, arguments[i]);
+    }
+
+}
@@ -0,0 +1,238 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Converts entities from and to JSON rows using the same
+ * {@link DatabaseField} metadata ORMLite maps them with, so
+ * models don't need any extra annotation to be stored by
+ * engines which aren't backed by an SQL database.
+ * <p>
+ * Foreign fields are stored as the ID of the referenced entity
+ * and read back as an unrefreshed instance only holding that ID,
+ * just like ORMLite does when {@code foreignAutoRefresh} is off.
+ * Fields are always accessed directly, setters are not called.
+ */
+public class EntityCodec<T> {
+
+    private final Class<T> type;
+    private final Constructor<T> constructor;
+    private final String tableName;
+    private final List<Column> columns = new ArrayList<>();
+    private Column idColumn;
+
+    public EntityCodec(Class<T> type) {
+
+        this.type = type;
+
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(type.getSimpleName() + " has no no-args constructor");
+        }
+
+        DatabaseTable table = type.getAnnotation(DatabaseTable.class);
+        this.tableName = table != null && !table.tableName().isEmpty()
+                         ? table.tableName()
+                         : type.getSimpleName().toLowerCase(Locale.ROOT);
+
+        for(Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for(Field field : current.getDeclaredFields()) {
+
+                DatabaseField annotation = field.getAnnotation(DatabaseField.class);
+                if(annotation == null) continue;
+
+                Column column = new Column(field, annotation);
+                if(column.id) this.idColumn = column;
+                columns.add(column);
+
+            }
+        }
+
+        if(idColumn == null)
+            throw new IllegalArgumentException(type.getSimpleName() + " has no ID field");
+
+    }
+
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    public boolean hasGeneratedId() {
+        return idColumn.generatedId;
+    }
+
+    public Object id(T entity) {
+        return idColumn.get(entity);
+    }
+
+    public void setId(T entity, Object id) {
+        idColumn.set(entity, id);
+    }
+
+    /**
+     * Sets the value of a column that is not a
+     * foreign reference on the given entity
+     */
+    public void setColumn(T entity, String column, Object value) {
+
+        for(Column current : columns) {
+            if(current.name.equals(column) && current.foreignIdField == null) {
+                current.set(entity, value);
+                return;
+            }
+        }
+        throw new IllegalArgumentException(type.getSimpleName() + " has no column " + column);
+
+    }
+
+    /**
+     * Converts an ID read from its string form (as keys
+     * are stored on the write-ahead log) to the ID type
+     */
+    public Object parseId(String id) {
+        Class<?> idType = idColumn.field.getType();
+        if(idType == int.class || idType == Integer.class) return Integer.valueOf(id);
+        if(idType == long.class || idType == Long.class) return Long.valueOf(id);
+        return id;
+    }
+
+    public JsonObject encode(T entity) {
+
+        JsonObject row = new JsonObject();
+        for(Column column : columns) {
+            JsonElement value = column.encode(entity);
+            if(value != null) row.add(column.name, value);
+        }
+        return row;
+
+    }
+
+    public T decode(JsonObject row) throws SQLException {
+
+        try {
+
+            T entity = constructor.newInstance();
+            for(Column column : columns) {
+                JsonElement value = row.get(column.name);
+                if(value != null && !value.isJsonNull()) column.decode(entity, value);
+            }
+            return entity;
+
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            throw new SQLException("Could not read " + type.getSimpleName() + " row: " + ex.getMessage(), ex);
+        }
+
+    }
+
+    private static final class Column {
+
+        private final Field field;
+        private final String name;
+        private final boolean id;
+        private final boolean generatedId;
+        private final Field foreignIdField;
+
+        private Column(Field field, DatabaseField annotation) {
+
+            field.setAccessible(true);
+            this.field = field;
+            this.id = annotation.id() || annotation.generatedId();
+            this.generatedId = annotation.generatedId();
+
+            if(annotation.foreign()) {
+                this.foreignIdField = new EntityCodec<>(field.getType()).idColumn.field;
+                this.name = annotation.columnName().isEmpty()
+                            ? field.getName() + "_id"
+                            : annotation.columnName();
+            } else {
+                this.foreignIdField = null;
+                this.name = annotation.columnName().isEmpty()
+                            ? field.getName()
+                            : annotation.columnName();
+            }
+
+        }
+
+        private Object get(Object entity) {
+            try {
+                return field.get(entity);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private void set(Object entity, Object value) {
+            try {
+                field.set(entity, value);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private JsonElement encode(Object entity) {
+
+            Object value = get(entity);
+            if(value == null) return null;
+
+            if(foreignIdField != null) {
+                try {
+                    value = foreignIdField.get(value);
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                if(value == null) return null;
+            }
+
+            if(value instanceof Number) return new JsonPrimitive((Number) value);
+            if(value instanceof Boolean) return new JsonPrimitive((Boolean) value);
+            if(value instanceof Enum) return new JsonPrimitive(((Enum<?>) value).name());
+            if(value instanceof Date) return new JsonPrimitive(((Date) value).getTime());
+            return new JsonPrimitive(value.toString());
+
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private void decode(Object entity, JsonElement value) throws ReflectiveOperationException {
+
+            Class<?> fieldType = field.getType();
+
+            if(foreignIdField != null) {
+                Constructor<?> foreignConstructor = fieldType.getDeclaredConstructor();
+                foreignConstructor.setAccessible(true);
+                Object foreign = foreignConstructor.newInstance();
+                foreignIdField.set(foreign, read(foreignIdField.getType(), value));
+                field.set(entity, foreign);
+            } else if(fieldType.isEnum()) {
+                field.set(entity, Enum.valueOf((Class) fieldType, value.getAsString()));
+            } else if(Date.class.isAssignableFrom(fieldType)) {
+                field.set(entity, fieldType.getConstructor(long.class).newInstance(value.getAsLong()));
+            } else field.set(entity, read(fieldType, value));
+
+        }
+
+        private static Object read(Class<?> type, JsonElement value) {
+            if(type == int.class || type == Integer.class) return value.getAsInt();
+            if(type == long.class || type == Long.class) return value.getAsLong();
+            if(type == boolean.class || type == Boolean.class) return value.getAsBoolean();
+            if(type == double.class || type == Double.class) return value.getAsDouble();
+            if(type == float.class || type == Float.class) return value.getAsFloat();
+            return value.getAsString();
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * Storage engine forwarding every operation to another one,
+ * meant to be extended by engines adding behaviour on top
+ * of an existing storage
+ */
+public abstract class ForwardingStorageEngine<T extends BaseEntityModel, ID> implements StorageEngine<T, ID> {
+
+    protected final StorageEngine<T, ID> delegate;
+
+    protected ForwardingStorageEngine(StorageEngine<T, ID> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public T get(ID id) throws SQLException {
+        return delegate.get(id);
+    }
+
+    @Override
+    public List<T> getAll(Collection<ID> ids) throws SQLException {
+        return delegate.getAll(ids);
+    }
+
+    @Override
+    public void scan(int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+        delegate.scan(chunkSize, chunkConsumer);
+    }
+
+    @Override
+    public void query(Filter<T> filter, int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+        delegate.query(filter, chunkSize, chunkConsumer);
+    }
+
+    @Override
+    public List<T> listAfter(ID after, long limit) throws SQLException {
+        return delegate.listAfter(after, limit);
+    }
+
+    @Override
+    public int insert(T entity) throws SQLException {
+        return delegate.insert(entity);
+    }
+
+    @Override
+    public int insertBatch(Collection<T> entities) throws SQLException {
+        return delegate.insertBatch(entities);
+    }
+
+    @Override
+    public int update(T entity) throws SQLException {
+        return delegate.update(entity);
+    }
+
+    @Override
+    public int updateBatch(Collection<T> entities) throws SQLException {
+        return delegate.updateBatch(entities);
+    }
+
+    @Override
+    public int updateId(T entity, ID newId) throws SQLException {
+        return delegate.updateId(entity, newId);
+    }
+
+    @Override
+    public int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException {
+        return delegate.updateColumn(ids, condition, column, value);
+    }
+
+    @Override
+    public int delete(ID id) throws SQLException {
+        return delegate.delete(id);
+    }
+
+    @Override
+    public ID extractId(T entity) throws SQLException {
+        return delegate.extractId(entity);
+    }
+
+    @Override
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+        return delegate.callInTransaction(work);
+    }
+
+    public StorageEngine<T, ID> getDelegate() {
+        return this.delegate;
+    }
+
+}
@@ -0,0 +1,241 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * Stores entities as rows of an {@link InMemoryStore} table
+ */
+public class InMemoryStorageEngine<T extends BaseEntityModel, ID> implements StorageEngine<T, ID> {
+
+    private final InMemoryStore store;
+    private final EntityCodec<T> codec;
+    private final String table;
+
+    public InMemoryStorageEngine(InMemoryStore store, Class<T> model) {
+        this.store = store;
+        this.codec = new EntityCodec<>(model);
+        this.table = codec.getTableName();
+        store.table(codec);
+    }
+
+    @Override
+    public T get(ID id) throws SQLException {
+        JsonObject row = store.read(table, id);
+        return row == null ? null : codec.decode(row);
+    }
+
+    @Override
+    public List<T> getAll(Collection<ID> ids) throws SQLException {
+
+        List<T> found = new ArrayList<>(ids.size());
+        for(ID id : ids) {
+            T entity = get(id);
+            if(entity != null) found.add(entity);
+        }
+        return found;
+
+    }
+
+    @Override
+    public void scan(int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+
+        List<T> chunk = new ArrayList<>(chunkSize);
+        for(JsonObject row : store.view(table).values()) {
+
+            chunk.add(codec.decode(row));
+            if(chunk.size() == chunkSize) {
+                chunkConsumer.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+
+        }
+
+        if(!chunk.isEmpty()) chunkConsumer.accept(chunk);
+
+    }
+
+    /**
+     * Filters every row, sorting the matching ones
+     * in memory if the filter has an order
+     */
+    @Override
+    public void query(Filter<T> filter, int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+
+        if(filter.getOrders().isEmpty()) {
+            scan(chunkSize, chunk -> {
+                chunk.removeIf(entity -> !filter.test(entity));
+                if(!chunk.isEmpty()) chunkConsumer.accept(chunk);
+            });
+            return;
+        }
+
+        List<T> matching = new ArrayList<>();
+        scan(chunkSize, chunk -> chunk.stream().filter(filter::test).forEach(matching::add));
+        matching.sort(filter.comparator());
+
+        for(int from = 0; from < matching.size(); from += chunkSize)
+            chunkConsumer.accept(new ArrayList<>(matching.subList(from, Math.min(from + chunkSize, matching.size()))));
+
+    }
+
+    @Override
+    public List<T> listAfter(ID after, long limit) throws SQLException {
+
+        NavigableMap<Object, JsonObject> view = store.view(table);
+        if(after != null) view = view.tailMap(after, false);
+
+        List<T> entities = new ArrayList<>();
+        for(JsonObject row : view.values()) {
+            if(entities.size() >= limit) break;
+            entities.add(codec.decode(row));
+        }
+        return entities;
+
+    }
+
+    @Override
+    public int insert(T entity) throws SQLException {
+
+        return store.callInTransaction(() -> {
+
+            if(codec.hasGeneratedId())
+                codec.setId(entity, codec.parseId(String.valueOf(store.nextId(table))));
+
+            Object id = codec.id(entity);
+            if(id == null)
+                throw violation("ID of " + table + " can't be null");
+            if(store.read(table, id) != null)
+                throw violation("Unique index or primary key violation: " + table + " " + id + " already exists");
+
+            store.write(table, id, codec.encode(entity));
+            return 1;
+
+        });
+
+    }
+
+    @Override
+    public int insertBatch(Collection<T> entities) throws SQLException {
+
+        return store.callInTransaction(() -> {
+            int inserted = 0;
+            for(T entity : entities) inserted += insert(entity);
+            return inserted;
+        });
+
+    }
+
+    @Override
+    public int update(T entity) throws SQLException {
+
+        return store.callInTransaction(() -> {
+
+            Object id = codec.id(entity);
+            if(id == null || store.read(table, id) == null) return 0;
+
+            store.write(table, id, codec.encode(entity));
+            return 1;
+
+        });
+
+    }
+
+    @Override
+    public int updateBatch(Collection<T> entities) throws SQLException {
+
+        return store.callInTransaction(() -> {
+            int updated = 0;
+            for(T entity : entities) updated += update(entity);
+            return updated;
+        });
+
+    }
+
+    @Override
+    public int updateId(T entity, ID newId) throws SQLException {
+
+        return store.callInTransaction(() -> {
+
+            Object id = codec.id(entity);
+            JsonObject row = id == null ? null : store.read(table, id);
+            if(row == null) return 0;
+            if(store.read(table, newId) != null)
+                throw violation("Unique index or primary key violation: " + table + " " + newId + " already exists");
+
+            codec.setId(entity, newId);
+            store.write(table, id, null);
+            store.write(table, newId, codec.encode(entity));
+            return 1;
+
+        });
+
+    }
+
+    @Override
+    public int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException {
+
+        return store.callInTransaction(() -> {
+
+            int updated = 0;
+            for(ID id : ids) {
+                JsonObject row = id == null ? null : store.read(table, id);
+                if(row == null) continue;
+
+                T entity = codec.decode(row);
+                if(!condition.test(entity)) continue;
+                codec.setColumn(entity, column, value);
+                store.write(table, id, codec.encode(entity));
+                updated++;
+            }
+            return updated;
+
+        });
+
+    }
+
+    @Override
+    public int delete(ID id) throws SQLException {
+
+        return store.callInTransaction(() -> {
+
+            if(id == null || store.read(table, id) == null) return 0;
+            store.write(table, id, null);
+            return 1;
+
+        });
+
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ID extractId(T entity) {
+        return (ID) codec.id(entity);
+    }
+
+    @Override
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+        return store.callInTransaction(work);
+    }
+
+    /**
+     * Mirrors the way ORMLite reports constraint violations,
+     * wrapping the actual cause so callers can handle both
+     * engines the same way
+     */
+    private static SQLException violation(String message) {
+        return new SQLException(message, new SQLIntegrityConstraintViolationException(message));
+    }
+
+}
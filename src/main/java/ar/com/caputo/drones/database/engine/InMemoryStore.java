@@ -0,0 +1,237 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Tables of JSON rows held in memory and made durable
+ * through a {@link WriteAheadLog}, shared by every
+ * {@link InMemoryStorageEngine} of the same database.
+ * <p>
+ * Reads never block: they go straight to the committed rows.
+ * Writes are serialised by a store-wide lock and buffered in the
+ * transaction that performs them, which is appended to the log
+ * and only then applied, so other threads never see uncommitted
+ * changes and a failed transaction needs no rollback work.
+ */
+public class InMemoryStore implements Closeable {
+
+    private final WriteAheadLog log;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+    private final Map<String, ConcurrentSkipListMap<Object, JsonObject>> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Last value handed out for the generated IDs of each
+     * table, shared by every engine over the same table
+     */
+    private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+
+    /**
+     * Rows read from the log on startup, keyed by table name
+     * and ID in its string form, until the table is registered
+     */
+    private final Map<String, Map<String, JsonObject>> recovered = new HashMap<>();
+
+    /**
+     * Opens the store replaying the given log, which is
+     * then compacted to hold a single commit per row
+     */
+    public InMemoryStore(Path logFile) throws IOException {
+
+        this.log = new WriteAheadLog(logFile);
+        log.replay(commit -> commit.forEach(element -> {
+
+            JsonObject record = element.getAsJsonObject();
+            Map<String, JsonObject> rows = recovered.computeIfAbsent(record.get("table").getAsString(), name -> new LinkedHashMap<>());
+            String id = record.get("id").getAsString();
+
+            if(WriteAheadLog.OPERATION_DELETE.equals(record.get("op").getAsString())) rows.remove(id);
+            else rows.put(id, record.getAsJsonObject("row"));
+
+        }));
+
+        List<JsonElement> checkpoint = new ArrayList<>();
+        recovered.forEach((table, rows) -> rows.forEach((id, row) -> checkpoint.add(WriteAheadLog.record(table, id, row))));
+        log.rewrite(checkpoint);
+
+    }
+
+    /**
+     * @return the committed rows of the given table, creating it
+     *         (with whatever rows were recovered from the log) if
+     *         it doesn't exist
+     */
+    synchronized NavigableMap<Object, JsonObject> table(EntityCodec<?> codec) {
+
+        return tables.computeIfAbsent(codec.getTableName(), name -> {
+
+            ConcurrentSkipListMap<Object, JsonObject> rows = new ConcurrentSkipListMap<>();
+            Map<String, JsonObject> recoveredRows = recovered.remove(name);
+            if(recoveredRows != null)
+                recoveredRows.forEach((id, row) -> rows.put(codec.parseId(id), row));
+            return rows;
+
+        });
+
+    }
+
+    /**
+     * @return the next generated ID of the given table, which
+     *         must have been created through {@link #table}
+     */
+    long nextId(String table) {
+        return sequences.computeIfAbsent(table, name -> {
+            NavigableMap<Object, JsonObject> rows = tables.get(name);
+            return new AtomicLong(rows.isEmpty() ? 0 : ((Number) rows.lastKey()).longValue());
+        }).incrementAndGet();
+    }
+
+    /**
+     * @return the row as seen by the current thread, which
+     *         includes the changes of its ongoing transaction
+     */
+    JsonObject read(String table, Object id) {
+
+        Transaction current = transaction.get();
+        if(current != null) {
+            Map<Object, JsonObject> changes = current.changes.get(table);
+            if(changes != null && changes.containsKey(id)) return changes.get(id);
+        }
+        return tables.get(table).get(id);
+
+    }
+
+    /**
+     * @return the rows of the table as seen by the current thread,
+     *         which include the changes of its ongoing transaction
+     */
+    NavigableMap<Object, JsonObject> view(String table) {
+
+        NavigableMap<Object, JsonObject> committed = tables.get(table);
+        Transaction current = transaction.get();
+        if(current == null || !current.changes.containsKey(table)) return committed;
+
+        NavigableMap<Object, JsonObject> merged = new TreeMap<>(committed);
+        current.changes.get(table).forEach((id, row) -> {
+            if(row == null) merged.remove(id);
+            else merged.put(id, row);
+        });
+        return merged;
+
+    }
+
+    /**
+     * Writes a row, or deletes it if {@code row} is {@code null},
+     * as part of the current transaction or a transaction of
+     * its own if there's none
+     */
+    void write(String table, Object id, JsonObject row) throws SQLException {
+
+        callInTransaction(() -> {
+            transaction.get().changes
+                .computeIfAbsent(table, name -> new LinkedHashMap<>())
+                .put(id, row);
+            return null;
+        });
+
+    }
+
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+
+        if(transaction.get() != null) {
+            try {
+                return work.call();
+            } catch (SQLException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new SQLException(ex.getMessage(), ex);
+            }
+        }
+
+        writeLock.lock();
+        Transaction current = new Transaction();
+        transaction.set(current);
+
+        try {
+
+            R result = work.call();
+            commit(current);
+            return result;
+
+        } catch (SQLException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            transaction.remove();
+            writeLock.unlock();
+        }
+
+    }
+
+    private void commit(Transaction committed) throws SQLException {
+
+        if(committed.changes.isEmpty()) return;
+
+        JsonArray records = new JsonArray();
+        committed.changes.forEach((table, rows) ->
+            rows.forEach((id, row) -> records.add(WriteAheadLog.record(table, String.valueOf(id), row))));
+
+        try {
+            log.append(records);
+        } catch (IOException ex) {
+            throw new SQLException("Could not write to the write-ahead log: " + ex.getMessage(), ex);
+        }
+
+        committed.changes.forEach((table, rows) -> {
+            ConcurrentSkipListMap<Object, JsonObject> target = tables.get(table);
+            rows.forEach((id, row) -> {
+                if(row == null) target.remove(id);
+                else target.put(id, row);
+            });
+        });
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        writeLock.lock();
+        try {
+            log.close();
+        } finally {
+            writeLock.unlock();
+        }
+
+    }
+
+    private static final class Transaction {
+
+        /**
+         * Rows changed by the transaction keyed by table and ID,
+         * {@code null} rows standing for deletions
+         */
+        private final Map<String, Map<Object, JsonObject>> changes = new LinkedHashMap<>();
+
+    }
+
+}
@@ -0,0 +1,546 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcDatabaseResults;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableUtils;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * Stores entities on an SQL database through ORMLite,
+ * creating the entity's table if it doesn't exist.
+ * <p>
+ * Writes and transactions are serialized by a lock shared by every
+ * engine on the same source, since they all share its connection, so
+ * writes of other threads never fall within a running transaction.
+ */
+public class OrmLiteStorageEngine<T extends BaseEntityModel, ID> implements StorageEngine<T, ID> {
+
+    /**
+     * Maximum amount of IDs bound to a single {@code IN} clause
+     */
+    public static final int MAX_IN_PARAMETERS = 1000;
+
+    /**
+     * Amount of filter shapes whose queries are kept compiled,
+     * queries of any other shape being compiled on every use
+     */
+    public static final int MAX_COMPILED_FILTERS = 256;
+
+    /**
+     * Write locks by source, released along with their sources
+     */
+    private static final Map<ConnectionSource, ReentrantLock> WRITE_LOCKS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ConnectionSource source;
+    private final ReentrantLock writeLock;
+    private final Dao<T, ID> dao;
+
+    /**
+     * {@code UPDATE} of every column but the ID, which is bound
+     * last, run by {@link #update} and {@link #updateBatch}
+     */
+    private final CachedStatement updateStatement;
+    private final List<FieldType> updatedFields = new ArrayList<>();
+
+    /**
+     * {@code INSERT} of every column but generated IDs,
+     * run by {@link #insertBatch}
+     */
+    private final CachedStatement insertStatement;
+    private final List<FieldType> insertedFields = new ArrayList<>();
+
+    /**
+     * Queries compiled by {@link #query}, by filter shape
+     */
+    private final ConcurrentHashMap<String, CompiledFilter<T>> compiledFilters = new ConcurrentHashMap<>();
+
+    /**
+     * Write run while holding the {@link #writeLock}
+     */
+    @FunctionalInterface
+    private interface Write<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * Query compiled for a filter shape along with the
+     * arguments its values are bound to
+     */
+    private static final class CompiledFilter<T> {
+
+        private final PreparedQuery<T> query;
+        private final List<SelectArg> arguments;
+
+        private CompiledFilter(PreparedQuery<T> query, List<SelectArg> arguments) {
+            this.query = query;
+            this.arguments = arguments;
+        }
+
+    }
+
+    public OrmLiteStorageEngine(ConnectionSource source, Class<T> model) throws SQLException {
+        this.source = source;
+        this.writeLock = WRITE_LOCKS.computeIfAbsent(source, key -> new ReentrantLock());
+        this.dao = DaoManager.createDao(source, model);
+        TableUtils.createTableIfNotExists(source, model);
+        createMissingIndexes();
+        this.updateStatement = prepare(updateStatement());
+        this.insertStatement = new CachedStatement(source, dao.getTableName(), insertStatement(),
+                                                   dao.getTableInfo().getIdField() != null
+                                                   && dao.getTableInfo().getIdField().isGeneratedId());
+    }
+
+    /**
+     * @return a statement on the entity's table prepared once
+     *         and reused on every run afterwards
+     * @param sql the statement, its parameters as {@code ?}
+     */
+    public CachedStatement prepare(String sql) {
+        return new CachedStatement(source, dao.getTableName(), sql, false);
+    }
+
+    /**
+     * @return the secondary indexes declared on the model's fields,
+     *         through {@code index} or {@code indexName}, by name
+     *         along with their columns in declaration order
+     */
+    public Map<String, List<String>> getDeclaredIndexes() {
+
+        Map<String, List<String>> declared = new LinkedHashMap<>();
+        for(FieldType field : dao.getTableInfo().getFieldTypes())
+            if(field.getIndexName() != null)
+                declared.computeIfAbsent(field.getIndexName(), index -> new ArrayList<>()).add(field.getColumnName());
+        return declared;
+
+    }
+
+    /**
+     * Checks the table has every declared index, creating the missing
+     * ones, since tables created before an index was declared only
+     * get it from databases supporting {@code CREATE INDEX IF NOT EXISTS}
+     */
+    private void createMissingIndexes() throws SQLException {
+
+        Map<String, List<String>> declared = getDeclaredIndexes();
+        if(declared.isEmpty()) return;
+
+        Set<String> existing = new HashSet<>();
+        DatabaseConnection connection = source.getReadOnlyConnection(dao.getTableName());
+        try {
+            // Unquoted names are stored in upper case
+            for(String table : Set.of(dao.getTableName(), dao.getTableName().toUpperCase()))
+                try(ResultSet indexes = ((JdbcDatabaseConnection) connection).getUnderlyingConnection()
+                                            .getMetaData().getIndexInfo(null, null, table, false, true)) {
+                    while(indexes.next())
+                        if(indexes.getString("INDEX_NAME") != null) existing.add(indexes.getString("INDEX_NAME").toLowerCase());
+                }
+        } finally {
+            source.releaseConnection(connection);
+        }
+
+        DatabaseType databaseType = source.getDatabaseType();
+        for(Map.Entry<String, List<String>> index : declared.entrySet()) {
+
+            if(existing.contains(index.getKey().toLowerCase())) continue;
+
+            StringBuilder sql = new StringBuilder("CREATE INDEX ");
+            databaseType.appendEscapedEntityName(sql, index.getKey());
+            sql.append(" ON ");
+            databaseType.appendEscapedEntityName(sql, dao.getTableName());
+            sql.append(" (");
+            for(int i = 0; i < index.getValue().size(); i++) {
+                if(i > 0) sql.append(", ");
+                databaseType.appendEscapedEntityName(sql, index.getValue().get(i));
+            }
+            dao.executeRawNoArgs(sql.append(')').toString());
+
+        }
+
+    }
+
+    @Override
+    public T get(ID id) throws SQLException {
+        return dao.queryForId(id);
+    }
+
+    /**
+     * Runs a single {@code IN} query for every
+     * {@link #MAX_IN_PARAMETERS} IDs
+     */
+    @Override
+    public List<T> getAll(Collection<ID> ids) throws SQLException {
+
+        String idColumn = dao.getTableInfo().getIdField().getColumnName();
+        List<ID> pending = new ArrayList<>(ids);
+        List<T> found = new ArrayList<>(pending.size());
+
+        for(int from = 0; from < pending.size(); from += MAX_IN_PARAMETERS)
+            found.addAll(dao.queryBuilder().where()
+                .in(idColumn, pending.subList(from, Math.min(from + MAX_IN_PARAMETERS, pending.size())))
+                .query());
+
+        return found;
+
+    }
+
+    @Override
+    public void scan(int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+        scan(dao.iterator(), chunkSize, chunkConsumer);
+    }
+
+    /**
+     * Goes through the given database cursor handing the rows to
+     * {@code chunkConsumer} in chunks of at most {@code chunkSize}
+     * rows, so only one chunk is held in memory at a time instead
+     * of the entire result set. The chunk size is also used as the
+     * JDBC fetch size hint.
+     * The cursor is always closed once the scan finishes.
+     */
+    public static <T> void scan(CloseableIterator<T> cursor, int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+
+        try(cursor) {
+
+            if(cursor.getRawResults() instanceof JdbcDatabaseResults)
+                ((JdbcDatabaseResults) cursor.getRawResults()).getResultSet().setFetchSize(chunkSize);
+
+            List<T> chunk = new ArrayList<>(chunkSize);
+            while(cursor.hasNext()) {
+
+                chunk.add(cursor.next());
+                if(chunk.size() == chunkSize) {
+                    chunkConsumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+
+            }
+
+            if(!chunk.isEmpty()) chunkConsumer.accept(chunk);
+
+        } catch (SQLException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        }
+
+    }
+
+    /**
+     * Runs the query compiled for the filter's shape, compiling it
+     * on its first use, so filters only differing on their values
+     * skip building and preparing the query again
+     */
+    @Override
+    public void query(Filter<T> filter, int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+
+        CompiledFilter<T> compiled = compiledFilters.get(filter.shape());
+        if(compiled == null) {
+            compiled = compile(filter);
+            if(compiledFilters.size() < MAX_COMPILED_FILTERS) {
+                CompiledFilter<T> previous = compiledFilters.putIfAbsent(filter.shape(), compiled);
+                if(previous != null) compiled = previous;
+            }
+        }
+
+        // Arguments are bound as the cursor's statement is created,
+        // so the query is only locked until then
+        CloseableIterator<T> cursor;
+        synchronized(compiled) {
+            List<Object> values = filter.arguments();
+            for(int i = 0; i < values.size(); i++) compiled.arguments.get(i).setValue(values.get(i));
+            cursor = dao.iterator(compiled.query);
+        }
+
+        scan(cursor, chunkSize, chunkConsumer);
+
+    }
+
+    private CompiledFilter<T> compile(Filter<T> filter) throws SQLException {
+
+        QueryBuilder<T, ID> builder = dao.queryBuilder();
+        List<SelectArg> arguments = new ArrayList<>();
+
+        if(!filter.getConditions().isEmpty()) {
+
+            Where<T, ID> where = builder.where();
+            for(Filter.Condition<T> condition : filter.getConditions()) {
+                SelectArg[] placeholders = new SelectArg[condition.getValues().size()];
+                for(int i = 0; i < placeholders.length; i++) arguments.add(placeholders[i] = new SelectArg());
+                appendCondition(where, condition, placeholders);
+            }
+            if(filter.getConditions().size() > 1) where.and(filter.getConditions().size());
+
+        }
+
+        for(Filter.Order<T> order : filter.getOrders())
+            builder.orderBy(order.getField().getColumn(), order.isAscending());
+
+        return new CompiledFilter<>(builder.prepare(), arguments);
+
+    }
+
+    /**
+     * Adds the clause of {@code condition} to {@code where}, comparing
+     * its column to {@code arguments}, either values or placeholders,
+     * a single one unless the operator is {@link Filter.Operator#IN}
+     */
+    private static <T, ID> void appendCondition(Where<T, ID> where, Filter.Condition<T> condition, Object[] arguments) throws SQLException {
+
+        String column = condition.getField().getColumn();
+        switch(condition.getOperator()) {
+            case EQ:  where.eq(column, arguments[0]); break;
+            case NE:  where.ne(column, arguments[0]); break;
+            case GT:  where.gt(column, arguments[0]); break;
+            case GTE: where.ge(column, arguments[0]); break;
+            case LT:  where.lt(column, arguments[0]); break;
+            case LTE: where.le(column, arguments[0]); break;
+            case IN:  where.in(column, arguments); break;
+        }
+
+    }
+
+    @Override
+    public List<T> listAfter(ID after, long limit) throws SQLException {
+
+        String idColumn = dao.getTableInfo().getIdField().getColumnName();
+        QueryBuilder<T, ID> query = dao.queryBuilder().orderBy(idColumn, true).limit(limit);
+        if(after != null) query.where().gt(idColumn, after);
+        return query.query();
+
+    }
+
+    @Override
+    public int insert(T entity) throws SQLException {
+        return locked(() -> dao.create(entity));
+    }
+
+    /**
+     * Sends every row as a single JDBC batch of {@code INSERT}
+     * statements in one transaction, assigning the generated
+     * IDs to the entities as ORMLite does
+     */
+    @Override
+    public int insertBatch(Collection<T> entities) throws SQLException {
+
+        if(entities.isEmpty()) return 0;
+
+        return callInTransaction(() -> insertStatement.run(statement -> {
+
+            for(T entity : entities) {
+                int parameter = 1;
+                for(FieldType field : insertedFields) {
+                    Object value = field.extractJavaFieldToSqlArgValue(entity);
+                    statement.setObject(parameter++, value == null ? field.getDefaultValue() : value);
+                }
+                statement.addBatch();
+            }
+
+            int inserted = 0;
+            for(int rows : statement.executeBatch()) inserted += rows == Statement.SUCCESS_NO_INFO ? 1 : rows;
+
+            FieldType idField = dao.getTableInfo().getIdField();
+            if(idField != null && idField.isGeneratedId())
+                try(ResultSet keys = statement.getGeneratedKeys()) {
+                    for(T entity : entities) {
+                        if(!keys.next()) break;
+                        idField.assignField(source, entity, keys.getObject(1), false, null);
+                    }
+                }
+
+            return inserted;
+
+        }));
+
+    }
+
+    @Override
+    public int update(T entity) throws SQLException {
+        return locked(() -> updateStatement.update(updateArguments(entity)));
+    }
+
+    /**
+     * Sends every row as a single JDBC batch of
+     * {@code UPDATE} statements in one transaction
+     */
+    @Override
+    public int updateBatch(Collection<T> entities) throws SQLException {
+
+        if(entities.isEmpty()) return 0;
+
+        return callInTransaction(() -> updateStatement.run(statement -> {
+
+            for(T entity : entities) {
+                Object[] arguments = updateArguments(entity);
+                for(int i = 0; i < arguments.length; i++) statement.setObject(i + 1, arguments[i]);
+                statement.addBatch();
+            }
+
+            int updated = 0;
+            for(int rows : statement.executeBatch()) updated += rows == Statement.SUCCESS_NO_INFO ? 1 : rows;
+            return updated;
+
+        }));
+
+    }
+
+    /**
+     * @return the values of the updated columns
+     *         followed by the ID of {@code entity}
+     */
+    private Object[] updateArguments(T entity) throws SQLException {
+
+        Object[] arguments = new Object[updatedFields.size() + 1];
+        for(int i = 0; i < updatedFields.size(); i++)
+            arguments[i] = updatedFields.get(i).extractJavaFieldToSqlArgValue(entity);
+        arguments[arguments.length - 1] = dao.getTableInfo().getIdField().extractJavaFieldToSqlArgValue(entity);
+        return arguments;
+
+    }
+
+    /**
+     * {@code UPDATE} statement setting every column
+     * but the ID, which is bound last
+     */
+    private String updateStatement() {
+
+        DatabaseType dbType = source.getDatabaseType();
+        StringBuilder sql = new StringBuilder("UPDATE ");
+        dbType.appendEscapedEntityName(sql, dao.getTableName());
+        sql.append(" SET ");
+
+        for(FieldType field : dao.getTableInfo().getFieldTypes()) {
+            if(field.isId() || field.isForeignCollection()) continue;
+            if(!updatedFields.isEmpty()) sql.append(", ");
+            dbType.appendEscapedEntityName(sql, field.getColumnName());
+            sql.append(" = ?");
+            updatedFields.add(field);
+        }
+
+        sql.append(" WHERE ");
+        dbType.appendEscapedEntityName(sql, dao.getTableInfo().getIdField().getColumnName());
+        sql.append(" = ?");
+
+        return sql.toString();
+
+    }
+
+    /**
+     * {@code INSERT} statement setting every column
+     * but those whose values are generated
+     */
+    private String insertStatement() {
+
+        DatabaseType dbType = source.getDatabaseType();
+        StringBuilder sql = new StringBuilder("INSERT INTO ");
+        dbType.appendEscapedEntityName(sql, dao.getTableName());
+        sql.append(" (");
+
+        for(FieldType field : dao.getTableInfo().getFieldTypes()) {
+            if(field.isForeignCollection() || field.isGeneratedId()) continue;
+            if(!insertedFields.isEmpty()) sql.append(", ");
+            dbType.appendEscapedEntityName(sql, field.getColumnName());
+            insertedFields.add(field);
+        }
+
+        sql.append(") VALUES (");
+        for(int i = 0; i < insertedFields.size(); i++) sql.append(i > 0 ? ", ?" : "?");
+        return sql.append(')').toString();
+
+    }
+
+    @Override
+    public int updateId(T entity, ID newId) throws SQLException {
+        return locked(() -> dao.updateId(entity, newId));
+    }
+
+    /**
+     * Runs a single {@code UPDATE ... WHERE id IN (...) AND ...} for
+     * every {@link #MAX_IN_PARAMETERS} IDs, all of them in one transaction
+     */
+    @Override
+    public int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException {
+
+        if(ids.isEmpty()) return 0;
+
+        String idColumn = dao.getTableInfo().getIdField().getColumnName();
+        List<ID> pending = new ArrayList<>(ids);
+
+        return callInTransaction(() -> {
+            int updated = 0;
+            for(int from = 0; from < pending.size(); from += MAX_IN_PARAMETERS) {
+                UpdateBuilder<T, ID> update = dao.updateBuilder();
+                update.updateColumnValue(column, value);
+                Where<T, ID> where = update.where();
+                where.in(idColumn, pending.subList(from, Math.min(from + MAX_IN_PARAMETERS, pending.size())));
+                for(Filter.Condition<T> clause : condition.getConditions())
+                    appendCondition(where, clause, clause.getValues().toArray());
+                if(!condition.getConditions().isEmpty()) where.and(condition.getConditions().size() + 1);
+                updated += update.update();
+            }
+            return updated;
+        });
+
+    }
+
+    @Override
+    public int delete(ID id) throws SQLException {
+        return locked(() -> dao.deleteById(id));
+    }
+
+    @Override
+    public ID extractId(T entity) throws SQLException {
+        return dao.extractId(entity);
+    }
+
+    @Override
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+        return locked(() -> TransactionManager.callInTransaction(source, work));
+    }
+
+    private <R> R locked(Write<R> write) throws SQLException {
+
+        writeLock.lock();
+        try {
+            return write.run();
+        } finally {
+            writeLock.unlock();
+        }
+
+    }
+
+    public Dao<T, ID> getDao() {
+        return this.dao;
+    }
+
+}
@@ -0,0 +1,123 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+import com.google.gson.JsonObject;
+import com.j256.ormlite.support.ConnectionSource;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * ORMLite engine for an in-memory H2 database which records every
+ * write on the change log of a {@link SnapshotStore}.
+ * <p>
+ * Rows written through {@link #getDao()} directly are not recorded.
+ */
+public class SnapshotStorageEngine<T extends BaseEntityModel, ID> extends OrmLiteStorageEngine<T, ID> {
+
+    private final SnapshotStore store;
+    private final EntityCodec<T> codec;
+    private final String table;
+
+    /**
+     * Creates the engine replaying the changes
+     * recovered by the store for its table
+     */
+    public SnapshotStorageEngine(ConnectionSource source, SnapshotStore store, Class<T> model) throws SQLException {
+        super(source, model);
+        this.store = store;
+        this.codec = new EntityCodec<>(model);
+        this.table = codec.getTableName();
+
+        replay();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay() throws SQLException {
+
+        for(JsonObject record : store.recovered(table)) {
+
+            ID id = (ID) codec.parseId(record.get("id").getAsString());
+
+            if(WriteAheadLog.OPERATION_DELETE.equals(record.get("op").getAsString())) super.delete(id);
+            else {
+                T entity = codec.decode(record.getAsJsonObject("row"));
+                if(super.get(id) != null) super.update(entity);
+                else super.insert(entity);
+            }
+
+        }
+
+    }
+
+    @Override
+    public int insert(T entity) throws SQLException {
+        int inserted = super.insert(entity);
+        if(inserted > 0) store.record(table, codec.id(entity), codec.encode(entity));
+        return inserted;
+    }
+
+    @Override
+    public int insertBatch(Collection<T> entities) throws SQLException {
+        return callInTransaction(() -> {
+            int inserted = super.insertBatch(entities);
+            for(T entity : entities) store.record(table, codec.id(entity), codec.encode(entity));
+            return inserted;
+        });
+    }
+
+    @Override
+    public int update(T entity) throws SQLException {
+        int updated = super.update(entity);
+        if(updated > 0) store.record(table, codec.id(entity), codec.encode(entity));
+        return updated;
+    }
+
+    @Override
+    public int updateBatch(Collection<T> entities) throws SQLException {
+        return callInTransaction(() -> {
+            int updated = super.updateBatch(entities);
+            for(T entity : entities) store.record(table, codec.id(entity), codec.encode(entity));
+            return updated;
+        });
+    }
+
+    @Override
+    public int updateId(T entity, ID newId) throws SQLException {
+        Object previousId = codec.id(entity);
+        int updated = super.updateId(entity, newId);
+        if(updated > 0) {
+            store.record(table, previousId, null);
+            store.record(table, newId, codec.encode(entity));
+        }
+        return updated;
+    }
+
+    @Override
+    public int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException {
+        return callInTransaction(() -> {
+            int updated = super.updateColumn(ids, condition, column, value);
+            for(ID id : ids) {
+                T entity = super.get(id);
+                if(entity != null) store.record(table, id, codec.encode(entity));
+            }
+            return updated;
+        });
+    }
+
+    @Override
+    public int delete(ID id) throws SQLException {
+        int deleted = super.delete(id);
+        if(deleted > 0) store.record(table, id, null);
+        return deleted;
+    }
+
+    @Override
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+        return store.callInTransaction(() -> super.callInTransaction(work));
+    }
+
+}
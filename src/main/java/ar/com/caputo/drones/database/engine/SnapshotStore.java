@@ -0,0 +1,229 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Keeps an in-memory H2 database recoverable through periodic
+ * {@code SCRIPT} snapshots plus incremental change logs holding
+ * whatever was written since the last snapshot.
+ * <p>
+ * Change logs are numbered by generation. Taking a snapshot first
+ * switches writes to a new generation and then scripts the database
+ * through a connection of its own, so writers are never blocked.
+ * Once the snapshot is on disk every older generation is deleted;
+ * changes of the new generation which already made it into the
+ * snapshot are harmless since replaying a record is idempotent.
+ * <p>
+ * Change logs are not forced to disk on every append, trading
+ * durability on host crashes for write latency.
+ */
+public class SnapshotStore implements Closeable {
+
+    private static final String SNAPSHOT_EXTENSION = ".snapshot.sql";
+    private static final String CHANGES_EXTENSION = ".changes.";
+
+    private final String url;
+    private final Path directory;
+    private final String dbName;
+
+    private WriteAheadLog changes;
+    private long generation;
+
+    /**
+     * Records written by the ongoing transaction of each thread,
+     * logged once the transaction commits
+     */
+    private final ThreadLocal<JsonArray> transaction = new ThreadLocal<>();
+
+    /**
+     * Change log records read on startup, keyed by table
+     * name, until the table's engine replays them
+     */
+    private final Map<String, List<JsonObject>> recovered = new HashMap<>();
+
+    /**
+     * Restores the database at {@code url} from the latest snapshot
+     * in {@code directory} (if any) and reads the change logs
+     * written after it, which are replayed by each table's
+     * {@link SnapshotStorageEngine} once created
+     */
+    public SnapshotStore(String url, Path directory, String dbName) throws SQLException, IOException {
+
+        this.url = url;
+        this.directory = directory;
+        this.dbName = dbName;
+
+        Path snapshot = snapshotFile();
+        if(Files.exists(snapshot)) {
+            try(Connection connection = connect(); Statement statement = connection.createStatement()) {
+                statement.execute("RUNSCRIPT FROM " + quote(snapshot));
+            }
+        }
+
+        for(long previous : generations()) {
+            try(WriteAheadLog log = new WriteAheadLog(changesFile(previous), false)) {
+                log.replay(commit -> commit.forEach(element -> {
+                    JsonObject record = element.getAsJsonObject();
+                    recovered.computeIfAbsent(record.get("table").getAsString(), table -> new ArrayList<>()).add(record);
+                }));
+            }
+            this.generation = previous;
+        }
+
+        this.generation++;
+        this.changes = new WriteAheadLog(changesFile(generation), false);
+
+    }
+
+    /**
+     * @return the change log records of {@code table} read on
+     *         startup, in the order they were written
+     */
+    synchronized List<JsonObject> recovered(String table) {
+        List<JsonObject> records = recovered.remove(table);
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    /**
+     * Logs a written row, or a deleted one if {@code row} is
+     * {@code null}, once the current transaction commits or
+     * right away if there's none
+     */
+    void record(String table, Object id, JsonObject row) throws SQLException {
+
+        JsonObject record = WriteAheadLog.record(table, String.valueOf(id), row);
+        JsonArray pending = transaction.get();
+
+        if(pending != null) pending.add(record);
+        else {
+            JsonArray commit = new JsonArray(1);
+            commit.add(record);
+            append(commit);
+        }
+
+    }
+
+    /**
+     * Runs {@code work}, which is expected to run a database
+     * transaction, logging its records only if it succeeds.
+     * Nested calls join the outermost one.
+     */
+    <R> R callInTransaction(Callable<R> work) throws SQLException {
+
+        if(transaction.get() != null) {
+            try {
+                return work.call();
+            } catch (SQLException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new SQLException(ex.getMessage(), ex);
+            }
+        }
+
+        JsonArray pending = new JsonArray();
+        transaction.set(pending);
+
+        try {
+
+            R result = work.call();
+            if(pending.size() > 0) append(pending);
+            return result;
+
+        } catch (SQLException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            transaction.remove();
+        }
+
+    }
+
+    private synchronized void append(JsonArray commit) throws SQLException {
+        try {
+            changes.append(commit);
+        } catch (IOException ex) {
+            throw new SQLException("Could not write to the change log: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the whole database and deletes
+     * the change logs it covers
+     */
+    public void snapshot() throws SQLException, IOException {
+
+        long covered;
+        synchronized(this) {
+            covered = generation;
+            changes.close();
+            changes = new WriteAheadLog(changesFile(++generation), false);
+        }
+
+        Path written = directory.resolve(dbName + SNAPSHOT_EXTENSION + ".tmp");
+        try(Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("SCRIPT TO " + quote(written));
+        }
+        Files.move(written, snapshotFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for(long previous : generations())
+            if(previous <= covered) Files.deleteIfExists(changesFile(previous));
+
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    private Path snapshotFile() {
+        return directory.resolve(dbName + SNAPSHOT_EXTENSION);
+    }
+
+    private Path changesFile(long generation) {
+        return directory.resolve(dbName + CHANGES_EXTENSION + generation);
+    }
+
+    /**
+     * @return generations of the change logs on disk, in ascending order
+     */
+    private List<Long> generations() throws IOException {
+
+        String prefix = dbName + CHANGES_EXTENSION;
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+"))
+                        .map(name -> Long.valueOf(name.substring(prefix.length())))
+                        .sorted()
+                        .toList();
+        }
+
+    }
+
+    private static String quote(Path file) {
+        return "'" + file.toAbsolutePath().toString().replace("'", "''") + "'";
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        changes.close();
+    }
+
+}
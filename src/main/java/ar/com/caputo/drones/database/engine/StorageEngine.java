@@ -0,0 +1,111 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * Storage operations a {@link ar.com.caputo.drones.database.repo.BaseCrudRepository}
+ * relies on to persist a single entity type.
+ * <p>
+ * Write operations return the amount of rows affected, and
+ * errors are reported as {@link SQLException}s regardless of
+ * whether the engine is backed by an SQL database or not, so
+ * repositories handle them the same way.
+ */
+public interface StorageEngine<T extends BaseEntityModel, ID> {
+
+    /**
+     * @return the entity with the given ID or {@code null}
+     *         if there's none
+     */
+    T get(ID id) throws SQLException;
+
+    /**
+     * @return the stored entities among the given IDs,
+     *         in no particular order
+     */
+    List<T> getAll(Collection<ID> ids) throws SQLException;
+
+    /**
+     * Goes through every stored entity handing them to
+     * {@code chunkConsumer} in chunks of at most
+     * {@code chunkSize} entities
+     */
+    void scan(int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException;
+
+    /**
+     * Goes through every stored entity matching {@code filter},
+     * in its order if it has any, handing them to
+     * {@code chunkConsumer} in chunks of at most
+     * {@code chunkSize} entities
+     */
+    void query(Filter<T> filter, int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException;
+
+    /**
+     * @return up to {@code limit} entities whose ID is greater than
+     *         {@code after} (every entity if {@code null}) in
+     *         ascending ID order
+     */
+    List<T> listAfter(ID after, long limit) throws SQLException;
+
+    int insert(T entity) throws SQLException;
+
+    /**
+     * Inserts all the given entities as a single
+     * all-or-nothing operation
+     */
+    int insertBatch(Collection<T> entities) throws SQLException;
+
+    int update(T entity) throws SQLException;
+
+    /**
+     * Updates all the given entities as a single
+     * all-or-nothing operation
+     * @return the amount of entities updated
+     */
+    int updateBatch(Collection<T> entities) throws SQLException;
+
+    /**
+     * Changes the ID of an already stored entity,
+     * also updating the ID on the given object
+     */
+    int updateId(T entity, ID newId) throws SQLException;
+
+    /**
+     * Sets {@code column} to {@code value} on every stored entity
+     * whose ID is in {@code ids} as a single set-based write,
+     * IDs that are not stored being skipped
+     * @return the amount of entities updated
+     */
+    default int updateColumn(Collection<ID> ids, String column, Object value) throws SQLException {
+        return updateColumn(ids, Filter.of(List.of()), column, value);
+    }
+
+    /**
+     * Sets {@code column} to {@code value} on every stored entity
+     * whose ID is in {@code ids} and that meets the conditions of
+     * {@code condition} as a single set-based write, which checks
+     * them itself, IDs that are not stored being skipped
+     * @return the amount of entities updated
+     */
+    int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException;
+
+    int delete(ID id) throws SQLException;
+
+    ID extractId(T entity) throws SQLException;
+
+    /**
+     * Runs {@code work} in a transaction shared by every engine
+     * of the same storage, committing it if {@code work} succeeds
+     * and rolling it back otherwise. Nested calls join the
+     * outermost transaction.
+     */
+    <R> R callInTransaction(Callable<R> work) throws SQLException;
+
+}
@@ -0,0 +1,173 @@
+package ar.com.caputo.drones.database.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Append-only log of committed changes.
+ * <p>
+ * Every commit is written as a single line holding a JSON array
+ * with the records it changed, and unless created otherwise the
+ * file is forced to disk before {@link #append(JsonArray)} returns,
+ * so a commit is either entirely on the log or not at all. A line
+ * that was only partially written when the process died is
+ * discarded on {@link #replay(Consumer)}.
+ */
+public class WriteAheadLog implements Closeable {
+
+    static final String OPERATION_PUT = "put";
+    static final String OPERATION_DELETE = "delete";
+
+    private final Path path;
+    private final boolean forceOnAppend;
+    private FileChannel channel;
+
+    public WriteAheadLog(Path path) throws IOException {
+        this(path, true);
+    }
+
+    /**
+     * @param forceOnAppend whether appends are forced to disk, otherwise
+     *                      they're left to the OS page cache and only
+     *                      survive the process (not the host) crashing
+     */
+    public WriteAheadLog(Path path, boolean forceOnAppend) throws IOException {
+        this.path = path;
+        this.forceOnAppend = forceOnAppend;
+        this.channel = open(path);
+    }
+
+    /**
+     * @return a record putting {@code row} on {@code table},
+     *         or deleting the row if it's {@code null}
+     */
+    static JsonObject record(String table, String id, JsonObject row) {
+
+        JsonObject record = new JsonObject();
+        record.addProperty("table", table);
+        record.addProperty("op", row == null ? OPERATION_DELETE : OPERATION_PUT);
+        record.addProperty("id", id);
+        if(row != null) record.add("row", row);
+        return record;
+
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Hands every committed array of records to {@code commitConsumer}
+     * in the order they were written, truncating a torn last line
+     * @throws IOException if the file can't be read or a line other
+     *                     than the last one is corrupted
+     */
+    public synchronized void replay(Consumer<JsonArray> commitConsumer) throws IOException {
+
+        byte[] content = Files.readAllBytes(path);
+        int lineStart = 0;
+
+        for(int i = 0; i < content.length; i++) {
+
+            if(content[i] != '\n') continue;
+
+            String line = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            lineStart = i + 1;
+            if(line.isBlank()) continue;
+
+            try {
+                commitConsumer.accept(JsonParser.parseString(line).getAsJsonArray());
+            } catch (JsonParseException | IllegalStateException ex) {
+                throw new IOException("Corrupted write-ahead log entry at byte " + (lineStart - line.length() - 1) + " of " + path, ex);
+            }
+
+        }
+
+        // Anything after the last line break was never acknowledged
+        if(lineStart < content.length) channel.truncate(lineStart);
+
+    }
+
+    /**
+     * Durably appends a commit, truncating whatever part of it
+     * was written if it fails so the next one starts on a new line
+     */
+    public synchronized void append(JsonArray records) throws IOException {
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(records.toString() + '\n');
+        long size = channel.size();
+
+        try {
+            while(buffer.hasRemaining()) write(buffer);
+            if(forceOnAppend) channel.force(false);
+        } catch (IOException ex) {
+            try {
+                channel.truncate(size);
+            } catch (IOException truncation) {
+                ex.addSuppressed(truncation);
+            }
+            throw ex;
+        }
+
+    }
+
+    /**
+     * Writes part of an appended commit
+     */
+    protected void write(ByteBuffer buffer) throws IOException {
+        channel.write(buffer);
+    }
+
+    /**
+     * Replaces the whole log with a single commit holding
+     * {@code records}, used to compact it on startup.
+     * The new log is written aside and then moved over the
+     * current one, so a crash halfway leaves the old log intact.
+     */
+    public synchronized void rewrite(Iterable<? extends JsonElement> records) throws IOException {
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        JsonArray commit = new JsonArray();
+        records.forEach(commit::add);
+
+        try(FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if(commit.size() > 0) {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(commit.toString() + '\n');
+                while(buffer.hasRemaining()) out.write(buffer);
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = open(path);
+
+    }
+
+    /**
+     * @return the size of the log in bytes
+     */
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+}
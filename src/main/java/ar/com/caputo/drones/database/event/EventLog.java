@@ -0,0 +1,308 @@
+package ar.com.caputo.drones.database.event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.database.engine.WriteAheadLog;
+
+/**
+ * Sequential log of every change made to event-sourced tables,
+ * split in segment files named after the sequence number of
+ * their first event.
+ * <p>
+ * Events are buffered by the transaction that projects them and
+ * only numbered once it commits, while holding a single lock, so
+ * the log follows the order in which transactions committed and
+ * never holds the events of a rolled back one. Numbered events are
+ * handed to a writer thread, which drains every pending commit
+ * into a single line of the current segment and forces it to disk
+ * once (group commit), releasing all the transactions waiting on
+ * that batch at the same time.
+ */
+public class EventLog implements Closeable {
+
+    /**
+     * Segments are rolled over once they grow past 64 MiB
+     */
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String SEGMENT_EXTENSION = ".log";
+
+    @FunctionalInterface
+    public interface Projection<R> {
+        /**
+         * Applies a change, adding the events recording it to {@code events}
+         */
+        R project(List<JsonObject> events) throws SQLException;
+    }
+
+    private final Path directory;
+    private final ReentrantLock sequencer = new ReentrantLock();
+
+    /**
+     * Events projected by the ongoing transaction of each
+     * thread, appended once the transaction commits
+     */
+    private final ThreadLocal<List<JsonObject>> transaction = new ThreadLocal<>();
+
+    private final BlockingQueue<PendingAppend> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    /**
+     * Marks the end of the appends to write
+     */
+    private static final PendingAppend CLOSE = new PendingAppend(List.of(), null);
+
+    private WriteAheadLog segment;
+    private long lastSequence;
+    private boolean closed;
+
+    public EventLog(Path directory) throws IOException {
+
+        this.directory = Files.createDirectories(directory);
+
+        List<Path> segments = segments();
+        if(segments.isEmpty()) this.segment = new WriteAheadLog(segmentFile(1));
+        else {
+            this.segment = new WriteAheadLog(segments.get(segments.size() - 1));
+            segment.replay(commit -> commit.forEach(event ->
+                lastSequence = Math.max(lastSequence, event.getAsJsonObject().get("seq").getAsLong())));
+            if(lastSequence == 0)
+                lastSequence = firstSequenceOf(segments.get(segments.size() - 1)) - 1;
+        }
+
+        this.writer = new Thread(this::write, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+    }
+
+    /**
+     * Runs {@code projection} and appends the events it adds as
+     * part of the current transaction, or of a transaction of its
+     * own if there's none. Nothing is appended if the projection
+     * fails.
+     * @return the projection's result
+     * @see #callInTransaction(Callable)
+     */
+    public <R> R append(Projection<R> projection) throws SQLException {
+
+        return callInTransaction(() -> {
+            List<JsonObject> events = new ArrayList<>();
+            R result = projection.project(events);
+            transaction.get().addAll(events);
+            return result;
+        });
+
+    }
+
+    /**
+     * Runs {@code work} buffering the events it appends, which are
+     * written as a single commit once it succeeds, waiting until
+     * they're on disk. Nothing is written if {@code work} fails.
+     * Nested calls join the outermost one.
+     * @throws SQLException if {@code work} fails or its
+     *                      events can't be written
+     */
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+
+        if(transaction.get() != null) {
+            try {
+                return work.call();
+            } catch (SQLException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new SQLException(ex.getMessage(), ex);
+            }
+        }
+
+        List<JsonObject> events = new ArrayList<>();
+        transaction.set(events);
+
+        try {
+
+            R result = work.call();
+            if(!events.isEmpty()) commit(events);
+            return result;
+
+        } catch (SQLException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SQLException(ex.getMessage(), ex);
+        } finally {
+            transaction.remove();
+        }
+
+    }
+
+    /**
+     * Numbers the events of a committing transaction
+     * and waits until the writer puts them on disk
+     */
+    private void commit(List<JsonObject> events) throws SQLException {
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+
+        sequencer.lock();
+        try {
+
+            if(closed) throw new SQLException("Event log is closed");
+
+            long timestamp = System.currentTimeMillis();
+            for(JsonObject event : events) {
+                event.addProperty("seq", ++lastSequence);
+                event.addProperty("ts", timestamp);
+            }
+            pending.add(new PendingAppend(events, written));
+
+        } finally {
+            sequencer.unlock();
+        }
+
+        try {
+            written.get();
+        } catch (ExecutionException ex) {
+            throw new SQLException("Could not write to the event log: " + ex.getCause().getMessage(), ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the event log", ex);
+        }
+
+    }
+
+    private void write() {
+
+        List<PendingAppend> batch = new ArrayList<>();
+        boolean stop = false;
+
+        while(!stop) {
+
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            pending.drainTo(batch);
+
+            stop = batch.remove(CLOSE);
+            if(batch.isEmpty()) continue;
+
+            JsonArray commit = new JsonArray();
+            batch.forEach(append -> append.events.forEach(commit::add));
+
+            try {
+
+                segment.append(commit);
+                if(segment.size() >= SEGMENT_SIZE) {
+                    segment.close();
+                    segment = new WriteAheadLog(segmentFile(lastSequenceOf(commit) + 1));
+                }
+
+                batch.forEach(append -> append.written.complete(null));
+
+            } catch (IOException ex) {
+                batch.forEach(append -> append.written.completeExceptionally(ex));
+            }
+
+            batch.clear();
+
+        }
+
+    }
+
+    /**
+     * Hands every event on the log to {@code eventConsumer}
+     * in sequence order
+     */
+    public void replay(Consumer<JsonObject> eventConsumer) throws IOException {
+
+        for(Path file : segments()) {
+            try(WriteAheadLog replayed = new WriteAheadLog(file)) {
+                replayed.replay(commit -> commit.forEach(event -> eventConsumer.accept(event.getAsJsonObject())));
+            }
+        }
+
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    private static long lastSequenceOf(JsonArray commit) {
+        return commit.get(commit.size() - 1).getAsJsonObject().get("seq").getAsLong();
+    }
+
+    private Path segmentFile(long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_EXTENSION));
+    }
+
+    private static long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    /**
+     * @return segment files in sequence order
+     */
+    private List<Path> segments() throws IOException {
+
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches("[0-9]{20}\\" + SEGMENT_EXTENSION))
+                        .sorted()
+                        .toList();
+        }
+
+    }
+
+    /**
+     * Stops accepting appends and waits for
+     * the pending ones to be written
+     */
+    @Override
+    public void close() throws IOException {
+
+        sequencer.lock();
+        try {
+            closed = true;
+            pending.add(CLOSE);
+        } finally {
+            sequencer.unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+
+    }
+
+    private static final class PendingAppend {
+
+        private final List<JsonObject> events;
+        private final CompletableFuture<Void> written;
+
+        private PendingAppend(List<JsonObject> events, CompletableFuture<Void> written) {
+            this.events = events;
+            this.written = written;
+        }
+
+    }
+
+}
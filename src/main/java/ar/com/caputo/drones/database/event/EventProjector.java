@@ -0,0 +1,90 @@
+package ar.com.caputo.drones.database.event;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.database.engine.EntityCodec;
+import ar.com.caputo.drones.database.engine.StorageEngine;
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+
+/**
+ * Applies events to the table of a single entity type.
+ * <p>
+ * Live writes and replays go through the same projection,
+ * so replaying the log rebuilds exactly the rows that
+ * were written while it was being recorded.
+ */
+public class EventProjector<T extends BaseEntityModel, ID> {
+
+    private final StorageEngine<T, ID> target;
+    private final EntityCodec<T> codec;
+
+    public EventProjector(StorageEngine<T, ID> target, EntityCodec<T> codec) {
+        this.target = target;
+        this.codec = codec;
+    }
+
+    /**
+     * @return a new, not yet sequenced, event
+     */
+    public JsonObject event(EventType type, Object id, JsonObject data) {
+
+        JsonObject event = new JsonObject();
+        event.addProperty("entity", codec.getTableName());
+        event.addProperty("type", type.name());
+        event.addProperty("id", String.valueOf(id));
+        event.add("data", data);
+        return event;
+
+    }
+
+    /**
+     * @return whether the event is about this projector's entity
+     */
+    public boolean handles(JsonObject event) {
+        return codec.getTableName().equals(event.get("entity").getAsString());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void apply(JsonObject event) throws SQLException {
+
+        EventType type = EventType.valueOf(event.get("type").getAsString());
+        ID id = (ID) codec.parseId(event.get("id").getAsString());
+        JsonObject data = event.getAsJsonObject("data");
+
+        switch (type) {
+
+            case REGISTERED:
+                target.insert(codec.decode(data));
+                break;
+
+            case REMOVED:
+                target.delete(id);
+                break;
+
+            case RENAMED: {
+                T entity = target.get(id);
+                if(entity != null) target.updateId(entity, (ID) codec.parseId(data.get("id").getAsString()));
+                break;
+            }
+
+            default: {
+                T entity = target.get(id);
+                if(entity == null) break;
+
+                JsonObject row = codec.encode(entity);
+                for(Map.Entry<String, JsonElement> change : data.entrySet()) {
+                    if(change.getValue().isJsonNull()) row.remove(change.getKey());
+                    else row.add(change.getKey(), change.getValue());
+                }
+                target.update(codec.decode(row));
+            }
+
+        }
+
+    }
+
+}
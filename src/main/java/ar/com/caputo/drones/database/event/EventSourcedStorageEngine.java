@@ -0,0 +1,234 @@
+package ar.com.caputo.drones.database.event;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.database.engine.EntityCodec;
+import ar.com.caputo.drones.database.engine.ForwardingStorageEngine;
+import ar.com.caputo.drones.database.engine.StorageEngine;
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+
+/**
+ * Turns every write into events appended to an {@link EventLog},
+ * the rows of the underlying engine being the projection of
+ * those events.
+ * <p>
+ * Updates are recorded as the columns that actually changed,
+ * so overwriting a row keeps the history of how it got there.
+ * <p>
+ * Every write runs in a transaction of the underlying engine,
+ * joining the ongoing one if any, whose events are appended to
+ * the log as a single commit right before it commits. Rolled back
+ * writes never reach the log, and rows are rolled back if their
+ * events can't be written.
+ */
+public class EventSourcedStorageEngine<T extends BaseEntityModel, ID> extends ForwardingStorageEngine<T, ID> {
+
+    private final EventLog log;
+    private final EntityCodec<T> codec;
+    private final EventProjector<T, ID> projector;
+
+    public EventSourcedStorageEngine(StorageEngine<T, ID> delegate, EventLog log, Class<T> model) {
+        super(delegate);
+        this.log = log;
+        this.codec = new EntityCodec<>(model);
+        this.projector = new EventProjector<>(delegate, codec);
+    }
+
+    /**
+     * Replaces every row of the underlying engine with
+     * the projection of the whole event log
+     */
+    @SuppressWarnings("unchecked")
+    public void rebuild() throws SQLException {
+
+        delegate.callInTransaction(() -> {
+
+            List<ID> stale = new ArrayList<>();
+            delegate.scan(1000, chunk -> chunk.forEach(entity -> stale.add((ID) codec.id(entity))));
+            for(ID id : stale) delegate.delete(id);
+
+            List<SQLException> failures = new ArrayList<>(1);
+            log.replay(event -> {
+                if(!failures.isEmpty() || !projector.handles(event)) return;
+                try {
+                    projector.apply(event);
+                } catch (SQLException ex) {
+                    failures.add(ex);
+                }
+            });
+            if(!failures.isEmpty()) throw failures.get(0);
+
+            return null;
+
+        });
+
+    }
+
+    /**
+     * Runs {@code work} in a transaction of the underlying engine,
+     * appending the events of the writes it performs before the
+     * transaction commits
+     * @see EventLog#callInTransaction(Callable)
+     */
+    @Override
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+        return delegate.callInTransaction(() -> log.callInTransaction(work));
+    }
+
+    /**
+     * Appends the events of {@code projection} as part of
+     * the current transaction, or of one of its own
+     */
+    private <R> R record(EventLog.Projection<R> projection) throws SQLException {
+        return callInTransaction(() -> log.append(projection));
+    }
+
+    @Override
+    public int insert(T entity) throws SQLException {
+
+        return record(events -> {
+            events.add(projector.event(EventType.REGISTERED, codec.id(entity), codec.encode(entity)));
+            projector.apply(events.get(0));
+            return 1;
+        });
+
+    }
+
+    @Override
+    public int insertBatch(Collection<T> entities) throws SQLException {
+
+        return record(events -> {
+            for(T entity : entities) {
+                JsonObject event = projector.event(EventType.REGISTERED, codec.id(entity), codec.encode(entity));
+                projector.apply(event);
+                events.add(event);
+            }
+            return entities.size();
+        });
+
+    }
+
+    @Override
+    public int update(T entity) throws SQLException {
+
+        return record(events -> {
+
+            ID id = extractId(entity);
+            T previous = delegate.get(id);
+            if(previous == null) return 0;
+
+            JsonObject before = codec.encode(previous);
+            JsonObject after = codec.encode(entity);
+
+            Set<String> columns = new TreeSet<>(before.keySet());
+            columns.addAll(after.keySet());
+
+            JsonObject updated = new JsonObject();
+            for(String column : columns) {
+
+                if(Objects.equals(before.get(column), after.get(column))) continue;
+                JsonElement value = after.has(column) ? after.get(column) : JsonNull.INSTANCE;
+
+                EventType type = EventType.forColumn(column, after.get(column));
+                if(type == EventType.UPDATED) updated.add(column, value);
+                else {
+                    JsonObject data = new JsonObject();
+                    data.add(column, value);
+                    events.add(projector.event(type, id, data));
+                }
+
+            }
+            if(updated.size() > 0) events.add(0, projector.event(EventType.UPDATED, id, updated));
+
+            for(JsonObject event : events) projector.apply(event);
+            return 1;
+
+        });
+
+    }
+
+    /**
+     * Records the changes of each entity as events of its
+     * own, as in {@link #update}, appended as a single commit
+     */
+    @Override
+    public int updateBatch(Collection<T> entities) throws SQLException {
+
+        return callInTransaction(() -> {
+            int updated = 0;
+            for(T entity : entities) updated += update(entity);
+            return updated;
+        });
+
+    }
+
+    /**
+     * Records the change of each entity meeting the condition as an
+     * event of its own, as in {@link #update}, appended as a single
+     * commit, the condition being checked on each entity as read
+     * within the transaction
+     */
+    @Override
+    public int updateColumn(Collection<ID> ids, Filter<T> condition, String column, Object value) throws SQLException {
+
+        return callInTransaction(() -> {
+            int updated = 0;
+            for(ID id : ids) {
+                T entity = delegate.get(id);
+                if(entity == null || !condition.test(entity)) continue;
+                codec.setColumn(entity, column, value);
+                updated += update(entity);
+            }
+            return updated;
+        });
+
+    }
+
+    @Override
+    public int updateId(T entity, ID newId) throws SQLException {
+
+        return record(events -> {
+
+            ID id = extractId(entity);
+            if(delegate.get(id) == null) return 0;
+
+            JsonObject data = new JsonObject();
+            data.addProperty("id", String.valueOf(newId));
+            events.add(projector.event(EventType.RENAMED, id, data));
+
+            projector.apply(events.get(0));
+            codec.setId(entity, newId);
+            return 1;
+
+        });
+
+    }
+
+    @Override
+    public int delete(ID id) throws SQLException {
+
+        return record(events -> {
+
+            if(delegate.get(id) == null) return 0;
+
+            events.add(projector.event(EventType.REMOVED, id, new JsonObject()));
+            projector.apply(events.get(0));
+            return 1;
+
+        });
+
+    }
+
+}
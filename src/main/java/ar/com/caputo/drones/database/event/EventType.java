@@ -0,0 +1,44 @@
+package ar.com.caputo.drones.database.event;
+
+/**
+ * Kinds of changes recorded on the {@link EventLog}
+ */
+public enum EventType {
+
+    /** Entity created, data holds the whole row */
+    REGISTERED,
+    /** Columns without an event type of their own changed */
+    UPDATED,
+    /** Drone {@code state} changed */
+    STATE_CHANGED,
+    /** Drone {@code batteryLevel} changed */
+    BATTERY_CHANGED,
+    /** Medication loaded into the drone in data */
+    LOADED,
+    /** Medication unloaded from its drone */
+    UNLOADED,
+    /** Entity ID changed to the {@code id} in data */
+    RENAMED,
+    /** Entity deleted */
+    REMOVED;
+
+    /**
+     * @return the type of the event recording that
+     *         {@code column} changed to {@code value}
+     */
+    public static EventType forColumn(String column, Object value) {
+
+        switch (column) {
+            case "state":
+                return STATE_CHANGED;
+            case "batteryLevel":
+                return BATTERY_CHANGED;
+            case "associatedDrone_id":
+                return value == null ? UNLOADED : LOADED;
+            default:
+                return UPDATED;
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+package ar.com.caputo.drones.database.mapper;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import com.j256.ormlite.dao.DatabaseResultsMapper;
+import com.j256.ormlite.support.DatabaseResults;
+
+import ar.com.caputo.drones.database.model.Drone;
+
+/**
+ * Maps the {@link #COLUMNS} of the drone table, starting at
+ * a given column of the row, into a {@link Drone}, reading
+ * each of them by position with its own type instead of
+ * going through ORMLite's reflection-based mapping.
+ */
+public class DroneRowMapper implements DatabaseResultsMapper<Drone> {
+
+    /**
+     * Columns the mapper reads, in the order it reads them
+     */
+    public static final List<String> COLUMNS = List.of("sn", "model", "state", "weightLimit", "batteryLevel");
+
+    private final int firstColumn;
+
+    public DroneRowMapper() {
+        this(0);
+    }
+
+    /**
+     * @param firstColumn index of the serial number within the row
+     */
+    public DroneRowMapper(int firstColumn) {
+        this.firstColumn = firstColumn;
+    }
+
+    @Override
+    public Drone mapRow(DatabaseResults results) throws SQLException {
+
+        return Drone.restore(
+            results.getString(firstColumn),
+            Drone.Model.valueOf(results.getString(firstColumn + 1)),
+            Drone.State.valueOf(results.getString(firstColumn + 2)),
+            results.getInt(firstColumn + 3),
+            results.getInt(firstColumn + 4));
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package ar.com.caputo.drones.database.mapper;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import com.j256.ormlite.dao.DatabaseResultsMapper;
+import com.j256.ormlite.support.DatabaseResults;
+
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+
+/**
+ * Maps a row coming from a {@code medication LEFT JOIN drone}
+ * query into a {@link Medication} with its {@link Drone} already
+ * populated, so the associated drone doesn't need to be refreshed
+ * with a second query per row.
+ * <p>
+ * The row is expected to hold the medication's {@link #COLUMNS}
+ * followed by the drone's {@link DroneRowMapper#COLUMNS}, each of
+ * them read by position with its own type. Medications are rebuilt
+ * without running their setters, which would download their image
+ * again on every row.
+ */
+public class MedicationRowMapper implements DatabaseResultsMapper<Medication> {
+
+    /**
+     * Columns the mapper reads, in the order it reads them
+     */
+    public static final List<String> COLUMNS = List.of("code", "name", "weight", "medicationCaseImageUrl", "associatedDrone_id");
+
+    private static final int DRONE_ID_COLUMN = 4;
+
+    private final DroneRowMapper droneMapper = new DroneRowMapper(COLUMNS.size());
+
+    @Override
+    public Medication mapRow(DatabaseResults results) throws SQLException {
+
+        // A LEFT JOIN with no matching drone yields a null serial number,
+        // in that case only the drone's ID (if any) is known
+        Drone drone = null;
+        if(results.getString(COLUMNS.size()) != null) drone = droneMapper.mapRow(results);
+        else if(results.getString(DRONE_ID_COLUMN) != null)
+            drone = Drone.restore(results.getString(DRONE_ID_COLUMN), Drone.Model.UNKNOWN, Drone.State.UNKNOWN, 0, 0);
+
+        return Medication.restore(
+            results.getString(0),
+            results.getString(1),
+            results.getInt(2),
+            results.getString(3),
+            drone);
+
+    }
+
+}
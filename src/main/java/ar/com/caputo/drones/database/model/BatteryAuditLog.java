@@ -8,10 +8,16 @@ import com.j256.ormlite.field.DatabaseField;
 
 public class BatteryAuditLog extends BaseEntityModel {
 
+    /**
+     * Index on drone and timestamp, so the logs
+     * of a drone are read in order off the index
+     */
+    public static final String DRONE_TIMESTAMP_INDEX = "batteryauditlog_drone_timestamp_idx";
+
     @DatabaseField(generatedId = true)
     private int id;
 
-    @DatabaseField(columnName= "drone_sn", foreign = true, canBeNull = false, foreignAutoRefresh = false)
+    @DatabaseField(columnName= "drone_sn", foreign = true, canBeNull = false, foreignAutoRefresh = false, indexName = DRONE_TIMESTAMP_INDEX)
     private Drone drone;
 
     @DatabaseField(canBeNull = false)
@@ -27,7 +33,7 @@ public class BatteryAuditLog extends BaseEntityModel {
     @DatabaseField(canBeNull = true)
     private boolean shutdownLog;
 
-    @DatabaseField(canBeNull = false, dataType = DataType.TIME_STAMP)
+    @DatabaseField(canBeNull = false, dataType = DataType.TIME_STAMP, indexName = DRONE_TIMESTAMP_INDEX)
     private Timestamp timestamp;
 
     /**
@@ -42,6 +48,21 @@ public class BatteryAuditLog extends BaseEntityModel {
         this.shutdownLog = isShutdownLog;
     }
 
+    /**
+     * Builds a log for the given drone without requiring
+     * the whole drone to be loaded from the database
+     * @param droneSerialNumber
+     * @param batteryLevel
+     * @param isShutdownLog
+     */
+    public BatteryAuditLog(String droneSerialNumber, int batteryLevel, boolean isShutdownLog) {
+        this.drone = new Drone();
+        this.drone.setSerialNumber(droneSerialNumber);
+        this.loggedBatteryLevel = batteryLevel;
+        this.timestamp = Timestamp.valueOf(LocalDateTime.now());
+        this.shutdownLog = isShutdownLog;
+    }
+
     public int getId() {
         return id;
     }
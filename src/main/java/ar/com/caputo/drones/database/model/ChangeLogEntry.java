@@ -0,0 +1,107 @@
+package ar.com.caputo.drones.database.model;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+
+/**
+ * Records that an entity was written, numbered in the
+ * order the writes happened so clients can ask for
+ * every change after the last one they saw
+ */
+public class ChangeLogEntry extends BaseEntityModel {
+
+    public enum Operation {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    @DatabaseField(generatedId = true)
+    private long seq;
+
+    /**
+     * Name of the entity's table, e.g. {@code drone}
+     */
+    @DatabaseField(canBeNull = false)
+    private String entity;
+
+    @DatabaseField(canBeNull = false)
+    private String entityId;
+
+    /**
+     * ID the entity had before an update changed it,
+     * {@code null} if it wasn't changed
+     */
+    @DatabaseField(canBeNull = true)
+    private String previousId;
+
+    @DatabaseField(canBeNull = false, dataType = DataType.ENUM_NAME)
+    private Operation operation;
+
+    /**
+     * Epoch milliseconds of the change
+     */
+    @DatabaseField(canBeNull = false)
+    private long timestamp;
+
+    /**
+     * No-args constructor required for ORMLite reflection-based mapping
+     */
+    public ChangeLogEntry() {}
+
+    public ChangeLogEntry(String entity, String entityId, String previousId, Operation operation) {
+        this.entity = entity;
+        this.entityId = entityId;
+        this.previousId = previousId;
+        this.operation = operation;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public String getPreviousId() {
+        return previousId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String id() {
+        return String.valueOf(getSeq());
+    }
+
+    /**
+     * Forcefully set to false.
+     * Changes should not be deleted.
+     */
+    @Override
+    public boolean canBeDeleted() {
+        return false;
+    }
+
+    /**
+     * Forcefully set to true.
+     * No validation takes place.
+     */
+    @Override
+    public boolean validateId(String id) {
+        return true;
+    }
+
+}
@@ -1,13 +1,10 @@
 package ar.com.caputo.drones.database.model;
 
-import java.sql.SQLException;
 import java.util.Objects;
 import java.util.Set;
 
-import com.j256.ormlite.dao.ForeignCollection;
 import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.field.DatabaseField;
-import com.j256.ormlite.field.ForeignCollectionField;
 
 import ar.com.caputo.drones.exception.InvalidInputFormatException;
 import ar.com.caputo.drones.exception.RequestProcessingException;
@@ -46,24 +43,27 @@ public class Drone extends BaseEntityModel {
         RETURNING;
     }
 
+    /**
+     * Index on state and battery level, the columns
+     * availability and state transitions filter by
+     */
+    public static final String STATE_BATTERY_INDEX = "drone_state_battery_idx";
+
     @DatabaseField(id = true, columnName = "sn", columnDefinition = "VARCHAR(100) NOT NULL", unique = true, uniqueIndex = true, useGetSet = true) 
     private String serialNumber;
 
     @DatabaseField(canBeNull = false, dataType = DataType.ENUM_NAME, defaultValue = "UNKNOWN")
     private Model model = Model.UNKNOWN;
 
-    @DatabaseField(canBeNull = false, dataType = DataType.ENUM_NAME, defaultValue = "UNKNOWN")
+    @DatabaseField(canBeNull = false, dataType = DataType.ENUM_NAME, defaultValue = "UNKNOWN", indexName = STATE_BATTERY_INDEX)
     private State state = State.UNKNOWN; 
 
     @DatabaseField(canBeNull = false, defaultValue = "500", useGetSet = true)
     private int weightLimit;
     
-    @DatabaseField(canBeNull = false, defaultValue = "0", useGetSet = true)
+    @DatabaseField(canBeNull = false, defaultValue = "0", useGetSet = true, indexName = STATE_BATTERY_INDEX)
     private int batteryLevel;
 
-    @ForeignCollectionField(foreignFieldName = "associatedDrone", eager = false)
-    private transient ForeignCollection<Medication> load;
-
     /**
      * No-args constructor required for ORMLite reflection-based mapping
      */
@@ -84,6 +84,23 @@ public class Drone extends BaseEntityModel {
 
     }
 
+    /**
+     * Rebuilds a drone read from the database, skipping
+     * the checks its values already passed when written
+     */
+    public static Drone restore(String serialNumber, Model model, State state,
+                                int weightLimit, int batteryLevel) {
+
+        Drone drone = new Drone();
+        drone.serialNumber = serialNumber;
+        drone.model = model;
+        drone.state = state;
+        drone.weightLimit = weightLimit;
+        drone.batteryLevel = batteryLevel;
+        return drone;
+
+    }
+
 
     public String getSerialNumber() {
         return this.serialNumber;
@@ -184,10 +201,6 @@ public class Drone extends BaseEntityModel {
         return Objects.hash(serialNumber, model, state, weightLimit, batteryLevel);
     }
 
-    public ForeignCollection<Medication> getLoad() throws SQLException {
-        return this.load;
-    }
-    
     /**
      *  If drone is not IDLE it means it's performing some
      *  operation, or that the current state is unknown.
@@ -203,42 +216,20 @@ public class Drone extends BaseEntityModel {
         return true;
     }
 
-    public int getTotalWeight() {
-        return (load.stream().mapToInt(Medication::getWeight)).sum();
-    }
-
     /**
      * Determines if the new weight to be added can
      * be held by the drone.
-     * For calculating if an upda
-     * @param weight
-     * @return
-     */
-    public boolean canHold(int weight) {
-        return getTotalWeight() + weight <= weightLimit;
-    }
-
-    /**
-     * Calculates the weight difference for a medication.
-     * This method is used <b>when updating the weight
-     * of a medication</b> and <b>NOT</b> when calculating
-     * whether a new medication can be added or not. For that
-     * you can use {@link #canHold}
-     * The calculation performed by this method is:
-     * <p>
-     * <math> (Σ(l) - Wo) + Wn <= L </math>
-     * </p>
-     * <p>where: </p>
-     * <p>l = {@link #load} individual weights</p>
-     * <p>Wo = {@param medicationOldWeight}</p>
-     * <p>Wn = {@param medicationNewWeight}</p>
-     * <p>L = {@link #weightLimit}</p>
-     * @param medicationOldWeight
-     * @param medicationNewWeight
-     * @return whether the weight update falls into the {@link #weightLimit} range
+     * The weight of the drone's load is summed by
+     * {@link ar.com.caputo.drones.database.repo.MedicationRepository#getLoadWeight}
+     * instead of loading every medication to do so.
+     * When updating the weight of a loaded medication,
+     * {@code loadWeight} must leave said medication out.
+     * @param loadWeight total weight already loaded
+     * @param weight to be added
+     * @return whether the weight falls into the {@link #weightLimit} range
      */
-    public boolean canHoldWeightDifference(int medicationOldWeight, int medicationNewWeight) {
-        return (getTotalWeight() - medicationOldWeight) + medicationNewWeight <= weightLimit;
+    public boolean canHold(int loadWeight, int weight) {
+        return loadWeight + weight <= weightLimit;
     }
 
     /**
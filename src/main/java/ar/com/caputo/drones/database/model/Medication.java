@@ -15,6 +15,7 @@ import com.j256.ormlite.field.DatabaseField;
 import ar.com.caputo.drones.exception.InvalidInputFormatException;
 import ar.com.caputo.drones.exception.RequestProcessingException;
 import ar.com.caputo.drones.exception.ResourceNotFoundException;
+import ar.com.caputo.drones.jfr.ImageFetchEvent;
 
 public class Medication extends BaseEntityModel {
 
@@ -52,7 +53,13 @@ public class Medication extends BaseEntityModel {
     @DatabaseField(canBeNull = true, useGetSet = true)
     private String medicationCaseImageUrl;
 
-    @DatabaseField(foreign = true, canBeNull = true, foreignAutoRefresh = true)
+    /**
+     * Not automatically refreshed to prevent running an extra
+     * query per loaded medication, repositories fetch the drone
+     * with a join whenever it is needed. Indexed since loads
+     * are looked up by drone.
+     */
+    @DatabaseField(foreign = true, canBeNull = true, foreignAutoRefresh = false, index = true)
     private transient Drone associatedDrone;
 
     
@@ -72,6 +79,24 @@ public class Medication extends BaseEntityModel {
 
     }
 
+    /**
+     * Rebuilds a medication read from the database, skipping the
+     * checks its values already passed when written, which for
+     * its image means downloading it again
+     */
+    public static Medication restore(String code, String name, int weight,
+                                     String medicationCaseImageUrl, Drone associatedDrone) {
+
+        Medication medication = new Medication();
+        medication.code = code;
+        medication.name = name;
+        medication.weight = weight;
+        medication.medicationCaseImageUrl = medicationCaseImageUrl;
+        medication.associatedDrone = associatedDrone;
+        return medication;
+
+    }
+
     public String getCode() {
         return code;
     }
@@ -141,14 +166,19 @@ public class Medication extends BaseEntityModel {
     public void setMedicationCaseImageUrl(String imageUrl) throws InvalidInputFormatException, ResourceNotFoundException {
 
         if(imageUrl == null || imageUrl.strip().isEmpty()) return;
+        ImageFetchEvent fetch = new ImageFetchEvent();
+        fetch.begin();
         try {
             URL url = new URL(imageUrl);
             InputStream in = url.openStream();
-            String imageFormat =  Imaging.getImageInfo(in.readAllBytes()).getFormat().getDefaultExtension().toUpperCase();
+            byte[] image = in.readAllBytes();
+            String imageFormat =  Imaging.getImageInfo(image).getFormat().getDefaultExtension().toUpperCase();
+            fetch.fetched(imageUrl, image.length, imageFormat, imageFormat.matches(FORMAT_REGEX));
             if(imageFormat.matches(FORMAT_REGEX)) 
                 this.medicationCaseImageUrl = imageUrl;
             else throw new InvalidInputFormatException(imageUrl, "JPEG, PNG, GIF");
         } catch (IOException | ImageReadException ex) {
+            fetch.fetched(imageUrl, 0, null, false);
             ex.printStackTrace();
             throw new ResourceNotFoundException(imageUrl);
         }
@@ -160,21 +190,15 @@ public class Medication extends BaseEntityModel {
     }
 
     /**
-     * Will update the medication weight only if
-     * the {@link #associatedDrone} (if it has one)
-     * can support the weight difference, else it
-     * throws a {@link RequestProcessingException}
+     * Whether the {@link #associatedDrone} (if it has one)
+     * can hold the new weight is checked by
+     * {@link ar.com.caputo.drones.database.repo.MedicationRepository#checkUpdate}
+     * before the medication is written, since it
+     * depends on the rest of the drone's load
      * @param weight that the medication should have
      */
     public void setWeight(int weight) {
-
-        if(associatedDrone == null ||
-           associatedDrone.canHoldWeightDifference(this.weight, weight)) {
-            this.weight = weight;
-        } else {
-           throw new RequestProcessingException("The weight difference cannot be held by the associated drone!");
-        }
-
+        this.weight = weight;
     }
 
     public Drone getAssociatedDrone() {
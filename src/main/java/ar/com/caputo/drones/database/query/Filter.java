@@ -0,0 +1,295 @@
+package ar.com.caputo.drones.database.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import ar.com.caputo.drones.exception.InvalidInputFormatException;
+
+/**
+ * Conditions and sort order a listing is narrowed by, parsed
+ * from query parameters. Every parameter named after a
+ * {@link FilterField} holds a condition on it written as
+ * {@code operator:value}, the operator being one of
+ * {@link Operator} in lower case and defaulting to {@code eq},
+ * e.g. {@code batteryLevel=gte:25} or {@code model=in:LIGHTWEIGHT,CRUISERWEIGHT}.
+ * The {@value #SORT_PARAMETER} parameter holds a comma-separated
+ * list of fields to sort by, those preceded by {@code -} in
+ * descending order.
+ * <p>
+ * Filters with the same {@link #shape()} only differ on their
+ * values, so storages can compile them once and reuse them.
+ */
+public final class Filter<T> {
+
+    public static final String SORT_PARAMETER = "sort";
+
+    /**
+     * Amount of values an {@code in} condition can hold
+     */
+    public static final int MAX_IN_VALUES = 100;
+
+    public enum Operator {
+        EQ, NE, GT, GTE, LT, LTE, IN;
+
+        boolean isRange() {
+            return this == GT || this == GTE || this == LT || this == LTE;
+        }
+
+        /**
+         * @return the operator written as {@code prefix},
+         *         {@code null} if there's none
+         */
+        static Operator of(String prefix) {
+            for(Operator operator : values())
+                if(operator.name().equalsIgnoreCase(prefix)) return operator;
+            return null;
+        }
+    }
+
+    public static final class Condition<T> {
+
+        private final FilterField<T> field;
+        private final Operator operator;
+        private final List<Object> values;
+
+        private Condition(FilterField<T> field, Operator operator, List<Object> values) {
+            this.field = field;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        /**
+         * @return the condition comparing {@code field} to a single
+         *         {@code value}, as stored, with {@code operator}
+         */
+        public static <T> Condition<T> of(FilterField<T> field, Operator operator, Object value) {
+            return new Condition<>(field, operator, List.of(value));
+        }
+
+        public FilterField<T> getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return the values the field is compared to, a single
+         *         one unless the operator is {@link Operator#IN}
+         */
+        public List<Object> getValues() {
+            return values;
+        }
+
+        boolean test(T model) {
+
+            Comparable<Object> value = field.valueOf(model);
+            if(value == null) return false;
+
+            if(operator == Operator.IN) {
+                for(Object expected : values)
+                    if(value.compareTo(FilterField.comparable(expected)) == 0) return true;
+                return false;
+            }
+
+            int comparison = value.compareTo(FilterField.comparable(values.get(0)));
+            switch(operator) {
+                case EQ:  return comparison == 0;
+                case NE:  return comparison != 0;
+                case GT:  return comparison > 0;
+                case GTE: return comparison >= 0;
+                case LT:  return comparison < 0;
+                default:  return comparison <= 0;
+            }
+
+        }
+
+    }
+
+    public static final class Order<T> {
+
+        private final FilterField<T> field;
+        private final boolean ascending;
+
+        private Order(FilterField<T> field, boolean ascending) {
+            this.field = field;
+            this.ascending = ascending;
+        }
+
+        public FilterField<T> getField() {
+            return field;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+
+    }
+
+    private final List<Condition<T>> conditions;
+    private final List<Order<T>> orders;
+    private final String shape;
+
+    private Filter(List<Condition<T>> conditions, List<Order<T>> orders) {
+
+        this.conditions = Collections.unmodifiableList(conditions);
+        this.orders = Collections.unmodifiableList(orders);
+
+        StringBuilder shape = new StringBuilder();
+        for(Condition<T> condition : conditions)
+            shape.append(condition.field.getName()).append(' ').append(condition.operator)
+                 .append(' ').append(condition.values.size()).append(';');
+        for(Order<T> order : orders)
+            shape.append(order.ascending ? '+' : '-').append(order.field.getName());
+        this.shape = shape.toString();
+
+    }
+
+    /**
+     * @return a filter holding the given conditions and no sort
+     *         order, as built by repositories instead of parsed
+     */
+    public static <T> Filter<T> of(List<Condition<T>> conditions) {
+        return new Filter<>(new ArrayList<>(conditions), new ArrayList<>());
+    }
+
+    /**
+     * Parses the filter held by the given query parameters
+     * @param parameters query parameters of the listing
+     * @param fields     fields the listing can be filtered by
+     * @param ignored    parameters that are not part of the filter,
+     *                   any other not naming a field being rejected
+     */
+    public static <T> Filter<T> parse(Map<String, String[]> parameters, Collection<FilterField<T>> fields,
+                                      Set<String> ignored) throws InvalidInputFormatException {
+
+        Map<String, FilterField<T>> byName = new LinkedHashMap<>();
+        fields.forEach(field -> byName.put(field.getName(), field));
+
+        List<Condition<T>> conditions = new ArrayList<>();
+        List<Order<T>> orders = new ArrayList<>();
+
+        // Parameters are sorted so the same conditions always make the same shape
+        for(Map.Entry<String, String[]> parameter : new TreeMap<>(parameters).entrySet()) {
+
+            String name = parameter.getKey();
+            if(ignored.contains(name)) continue;
+
+            if(name.equals(SORT_PARAMETER)) {
+                for(String value : parameter.getValue())
+                    for(String sort : value.split(",")) {
+                        boolean descending = sort.startsWith("-");
+                        FilterField<T> field = byName.get(descending ? sort.substring(1) : sort);
+                        if(field == null) throw new InvalidInputFormatException(sort, "[-]" + String.join("|", byName.keySet()));
+                        orders.add(new Order<>(field, !descending));
+                    }
+                continue;
+            }
+
+            FilterField<T> field = byName.get(name);
+            if(field == null)
+                throw new InvalidInputFormatException(name, String.join("|", byName.keySet()) + "|" + SORT_PARAMETER);
+
+            for(String value : parameter.getValue()) conditions.add(parseCondition(field, value));
+
+        }
+
+        return new Filter<>(conditions, orders);
+
+    }
+
+    private static <T> Condition<T> parseCondition(FilterField<T> field, String condition) throws InvalidInputFormatException {
+
+        int separator = condition.indexOf(':');
+        Operator operator = separator < 0 ? null : Operator.of(condition.substring(0, separator));
+        String value = operator == null ? condition : condition.substring(separator + 1);
+        if(operator == null) operator = Operator.EQ;
+
+        if(operator.isRange() && !field.isRanged())
+            throw new InvalidInputFormatException(condition, "[eq|ne|in:]value");
+
+        if(operator != Operator.IN) return new Condition<>(field, operator, List.of(field.parse(value)));
+
+        String[] listed = value.split(",");
+        if(listed.length > MAX_IN_VALUES)
+            throw new InvalidInputFormatException(condition, "in:value[,value] with up to " + MAX_IN_VALUES + " values");
+
+        // Lists are padded to the next power of two repeating their last
+        // value, so filters with lists of similar sizes share their shape
+        List<Object> values = new ArrayList<>(Integer.highestOneBit(listed.length * 2 - 1));
+        for(String listedValue : listed) values.add(field.parse(listedValue));
+        while(Integer.bitCount(values.size()) != 1) values.add(values.get(values.size() - 1));
+
+        return new Condition<>(field, operator, values);
+
+    }
+
+    public List<Condition<T>> getConditions() {
+        return conditions;
+    }
+
+    public List<Order<T>> getOrders() {
+        return orders;
+    }
+
+    /**
+     * @return whether the filter neither narrows
+     *         nor sorts the listing
+     */
+    public boolean isEmpty() {
+        return conditions.isEmpty() && orders.isEmpty();
+    }
+
+    /**
+     * @return the fields, operators and amount of values
+     *         of the conditions along with the sort order,
+     *         that is, everything but the values themselves
+     */
+    public String shape() {
+        return shape;
+    }
+
+    /**
+     * @return the values of every condition, in order
+     */
+    public List<Object> arguments() {
+        List<Object> arguments = new ArrayList<>();
+        conditions.forEach(condition -> arguments.addAll(condition.values));
+        return arguments;
+    }
+
+    /**
+     * @return whether {@code model} meets every condition,
+     *         used by storages not backed by SQL
+     */
+    public boolean test(T model) {
+        for(Condition<T> condition : conditions)
+            if(!condition.test(model)) return false;
+        return true;
+    }
+
+    /**
+     * @return the sort order as a comparator, used by storages
+     *         not backed by SQL, {@code null} if there's none
+     */
+    public Comparator<T> comparator() {
+
+        Comparator<T> comparator = null;
+        for(Order<T> order : orders) {
+            Comparator<T> byField = Comparator.comparing(order.field::valueOf, Comparator.nullsFirst(Comparator.naturalOrder()));
+            if(!order.ascending) byField = byField.reversed();
+            comparator = comparator == null ? byField : comparator.thenComparing(byField);
+        }
+        return comparator;
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package ar.com.caputo.drones.database.query;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import ar.com.caputo.drones.exception.InvalidInputFormatException;
+
+/**
+ * Model attribute a {@link Filter} can filter and sort by,
+ * along with the column storing it and how to read it
+ */
+public final class FilterField<T> {
+
+    private final String name;
+    private final String column;
+    private final String pattern;
+    private final boolean ranged;
+    private final Function<String, Object> parser;
+    private final Function<T, Object> accessor;
+
+    private FilterField(String name, String column, String pattern, boolean ranged,
+                        Function<String, Object> parser, Function<T, Object> accessor) {
+        this.name = name;
+        this.column = column;
+        this.pattern = pattern;
+        this.ranged = ranged;
+        this.parser = parser;
+        this.accessor = accessor;
+    }
+
+    /**
+     * Field holding an integer, which can also
+     * be filtered by ranges
+     */
+    public static <T> FilterField<T> ofInteger(String name, String column, Function<T, Integer> accessor) {
+        return new FilterField<>(name, column, "Integer", true, Integer::valueOf, accessor::apply);
+    }
+
+    /**
+     * Field holding a constant of {@code type}, stored by
+     * its name and given in any case
+     */
+    public static <T, E extends Enum<E>> FilterField<T> ofEnum(String name, String column, Class<E> type, Function<T, E> accessor) {
+        return new FilterField<>(name, column,
+                                 Arrays.stream(type.getEnumConstants()).map(Enum::name).collect(Collectors.joining("|")),
+                                 false, value -> Enum.valueOf(type, value.strip().toUpperCase()), accessor::apply);
+    }
+
+    public static <T> FilterField<T> ofString(String name, String column, Function<T, String> accessor) {
+        return new FilterField<>(name, column, "String", false, value -> value, accessor::apply);
+    }
+
+    /**
+     * @return the name the field is given by on queries
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return whether the field can be filtered by ranges
+     */
+    public boolean isRanged() {
+        return ranged;
+    }
+
+    /**
+     * @return the value of the field as stored
+     */
+    public Object parse(String value) throws InvalidInputFormatException {
+        try {
+            return parser.apply(value);
+        } catch(IllegalArgumentException ex) {
+            throw new InvalidInputFormatException(value, pattern);
+        }
+    }
+
+    /**
+     * @return the value of the field on {@code model} in a way
+     *         it's compared the same as by the storage, that is,
+     *         constants by their stored names
+     */
+    Comparable<Object> valueOf(T model) {
+        return comparable(accessor.apply(model));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Comparable<Object> comparable(Object value) {
+        return (Comparable<Object>) (value instanceof Enum ? ((Enum<?>) value).name() : value);
+    }
+
+}
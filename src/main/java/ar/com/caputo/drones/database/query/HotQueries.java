@@ -0,0 +1,78 @@
+package ar.com.caputo.drones.database.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+
+/**
+ * Queries run often enough that they must be served by an
+ * index, registered by the repositories running them so
+ * their plans can be checked on a running service
+ */
+public class HotQueries {
+
+    private static final class HotQuery {
+
+        private final Dao<?, ?> dao;
+        private final String sql;
+        private final String[] sampleArguments;
+
+        private HotQuery(Dao<?, ?> dao, String sql, String[] sampleArguments) {
+            this.dao = dao;
+            this.sql = sql;
+            this.sampleArguments = sampleArguments;
+        }
+
+    }
+
+    private final Map<String, HotQuery> queries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers a query, replacing any other of the same name
+     * @param name            identifies the query, as in {@code medications.byDrone}
+     * @param dao             runs the query
+     * @param sql             the query, its parameters as {@code ?}
+     * @param sampleArguments bound to the parameters when explaining the query
+     */
+    public void register(String name, Dao<?, ?> dao, String sql, String... sampleArguments) {
+        queries.put(name, new HotQuery(dao, sql, sampleArguments));
+    }
+
+    /**
+     * Runs {@code EXPLAIN} on every registered query
+     * @return the name, statement and plan of every query
+     *         by name, along with whether its plan scans
+     *         the whole table instead of using an index
+     */
+    public List<Map<String, Object>> explain() {
+
+        List<Map<String, Object>> plans = new ArrayList<>(queries.size());
+        queries.forEach((name, query) -> {
+
+            Map<String, Object> plan = new LinkedHashMap<>();
+            plan.put("name", name);
+            plan.put("sql", query.sql);
+
+            try(GenericRawResults<String[]> rows = query.dao.queryRaw("EXPLAIN " + query.sql, query.sampleArguments)) {
+                StringBuilder explained = new StringBuilder();
+                for(String[] row : rows) explained.append(row[0]);
+                plan.put("plan", explained.toString());
+                // H2 comments every table read without an index as such
+                plan.put("tableScan", explained.indexOf(".tableScan") >= 0);
+            } catch(Exception ex) {
+                plan.put("error", ex.getMessage());
+            }
+
+            plans.add(plan);
+
+        });
+        return plans;
+
+    }
+
+}
@@ -1,69 +1,343 @@
 package ar.com.caputo.drones.database.repo;
 
+import java.lang.System.Logger.Level;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.misc.TransactionManager;
-import com.j256.ormlite.table.TableUtils;
+import com.j256.ormlite.support.ConnectionSource;
 
 import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.engine.CachedStatement;
+import ar.com.caputo.drones.database.engine.ForwardingStorageEngine;
+import ar.com.caputo.drones.database.engine.OrmLiteStorageEngine;
+import ar.com.caputo.drones.database.engine.StorageEngine;
 import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
+import ar.com.caputo.drones.database.query.FilterField;
 import ar.com.caputo.drones.exception.RequestProcessingException;
 import ar.com.caputo.drones.exception.ResourceNotFoundException;
 import ar.com.caputo.drones.exception.UnmetConditionsException;
+import ar.com.caputo.drones.jfr.RepositoryOperationEvent;
 
 public class BaseCrudRepository<T extends BaseEntityModel, ID> {
 
     private final Class<T> type;
 
-    private Dao<T, ID> dao;
+    private StorageEngine<T, ID> engine;
+
+    private final List<RepositoryListener<T, ID>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listeners notified within the transaction of every
+     * write, whose failures roll the write back
+     */
+    private final List<RepositoryListener<T, ID>> transactionalListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Lookups being run by {@link #get}, shared by the
+     * concurrent lookups of the same ID
+     */
+    private final ConcurrentHashMap<ID, CompletableFuture<T>> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * Depth of the {@link #callInTransaction} calls the current
+     * thread is in, shared by every repository since so is the
+     * underlying storage
+     */
+    private static final ThreadLocal<int[]> TRANSACTION_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Notifications of the {@link #addListener listeners} of every
+     * repository for the writes within the {@link #callInTransaction}
+     * the current thread is in, held until it commits and dropped
+     * if it rolls back
+     */
+    private static final ThreadLocal<List<Runnable>> PENDING_NOTIFICATIONS = ThreadLocal.withInitial(ArrayList::new);
 
     public BaseCrudRepository(Class<T> model) {
+        this(model, null);
+    }
+
+    /**
+     * @param connection database connection used by the repository,
+     *                   if {@code null} the shared one is used
+     */
+    public BaseCrudRepository(Class<T> model, ConnectionSource connection) {
         this.type = model;
         try { 
-            this.dao = DaoManager.createDao(DroneService.getInstance().getDataSource(), model);
-            TableUtils.createTableIfNotExists(DroneService.getInstance().getDataSource(), model);
-        
+            this.engine = DroneService.getInstance().createStorageEngine(model, connection);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            DroneService.getInstance().getStorageLogger().log(Level.ERROR, "Could not create the " + model.getSimpleName() + " storage engine: " + ex.getMessage());
         }
+
+        // Lookups started before a write must not be joined after it
+        addListener(new RepositoryListener<T, ID>() {
+
+            @Override
+            public void created(T entity) {
+                forgetLookup(entity);
+            }
+
+            @Override
+            public void updated(T entity, ID previousId) {
+                lookups.remove(previousId);
+                forgetLookup(entity);
+            }
+
+            @Override
+            public void deleted(ID id) {
+                lookups.remove(id);
+            }
+
+        });
     }
 
+    /**
+     * Concurrent lookups of the same ID share a single read of
+     * the storage and its result, so the returned model may be
+     * shared with other callers and <b>must not be changed</b>,
+     * {@link #getMutable} being the one to use for that.
+     * Lookups within {@link #callInTransaction} are never shared,
+     * since they must see the writes of their transaction.
+     */
     public T get(ID id) {
 
+        if(TRANSACTION_DEPTH.get()[0] > 0) return getMutable(id);
+
+        CompletableFuture<T> lookup = new CompletableFuture<>();
+        CompletableFuture<T> running = lookups.putIfAbsent(id, lookup);
+        T result;
+
+        if(running == null) {
+
+            try {
+                result = recorded("get", () -> read(id), found -> found == null ? 0 : 1);
+                lookup.complete(result);
+            } catch (SQLException | RuntimeException ex) {
+                lookup.completeExceptionally(ex);
+                throw toRequestException(ex);
+            } finally {
+                lookups.remove(id, lookup);
+            }
+
+        } else {
+
+            try {
+                result = running.join();
+            } catch (CompletionException ex) {
+                throw toRequestException(ex.getCause());
+            }
+
+        }
+
+        if(result != null) return result;
+        else throw new ResourceNotFoundException(id, type);
+
+    }
+
+    /**
+     * Reads the model on its own, so the caller is
+     * free to change it before updating it
+     */
+    public T getMutable(ID id) {
+
         try { 
             
-            T result = dao.queryForId(id);
+            T result = recorded("get", () -> read(id), found -> found == null ? 0 : 1);
 
             if(result != null) return result;
             else throw new ResourceNotFoundException(id, type);
             
         } catch (SQLException ex) {
-            throw new RequestProcessingException(ex.getCause().getMessage());
+            throw toRequestException(ex);
         }
 
     }
+
+    /**
+     * Reads a model from the storage, on behalf
+     * of {@link #get} and {@link #getMutable}
+     * @return the model, {@code null} if there's none
+     */
+    protected T read(ID id) throws SQLException {
+        return engine.get(id);
+    }
+
+    /**
+     * Streams every model from the storage in chunks of at most
+     * {@code chunkSize} models, on behalf of {@link #listAll}
+     * and {@link #scan(int, Consumer)}
+     */
+    protected void readAll(int chunkSize, Consumer<List<T>> chunkConsumer) throws SQLException {
+        engine.scan(chunkSize, chunkConsumer);
+    }
+
+    private RuntimeException toRequestException(Throwable ex) {
+        if(ex instanceof RuntimeException) return (RuntimeException) ex;
+        return new RequestProcessingException(ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage());
+    }
+
+    private void forgetLookup(T entity) {
+        try {
+            lookups.remove(engine.extractId(entity));
+        } catch (SQLException ex) {
+            DroneService.getInstance().getStorageLogger().log(Level.ERROR, "Could not forget the " + type.getSimpleName() + " lookup: " + ex.getMessage());
+        }
+    }
     
+    /**
+     * @return the stored models among the given IDs by their ID,
+     *         fetched by the storage engine in as few reads as it can
+     * @see StorageEngine#getAll(Collection)
+     */
+    public Map<ID, T> findAll(Collection<ID> ids) {
+
+        try {
+            Map<ID, T> found = new HashMap<>();
+            for(T model : recorded("getAll", () -> engine.getAll(ids), List::size)) found.put(engine.extractId(model), model);
+            return found;
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * Retrieves the stored models among the given IDs, read through
+     * {@link #findAll(Collection)}, so with chunked {@code IN} queries
+     * on SQL-backed storages instead of a query per ID
+     * @return the models in the order their IDs were given, each of
+     *         them once, missing ones being left out
+     */
+    public List<T> getAll(Collection<ID> ids) {
+
+        Set<ID> requested = new LinkedHashSet<>(ids);
+        Map<ID, T> found = findAll(requested);
+
+        List<T> ordered = new ArrayList<>(found.size());
+        for(ID id : requested) {
+            T model = found.get(id);
+            if(model != null) ordered.add(model);
+        }
+        return ordered;
+
+    }
+
     public List<T> listAll() {
     
         try {
-            return dao.queryForAll();
+            List<T> all = new ArrayList<>();
+            return recorded("scan", () -> {
+                readAll(DroneService.getInstance().getFetchSize(), all::addAll);
+                return all;
+            }, List::size);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            DroneService.getInstance().getStorageLogger().log(Level.ERROR, "Could not list " + type.getSimpleName() + ": " + ex.getMessage());
         }
 
         return Collections.emptyList();
         
     }
 
+    /**
+     * Streams the whole table in chunks of
+     * {@link DroneService#getFetchSize()} rows
+     * @see #scan(int, Consumer)
+     */
+    public void scan(Consumer<List<T>> chunkConsumer) {
+        scan(DroneService.getInstance().getFetchSize(), chunkConsumer);
+    }
+
+    /**
+     * Streams the whole table handing the rows to
+     * {@code chunkConsumer} in chunks of at most {@code chunkSize}
+     * rows, so only one chunk is held in memory at a time instead
+     * of the entire table.
+     * @param chunkSize     maximum amount of rows per chunk, also
+     *                      used as the JDBC fetch size hint
+     * @param chunkConsumer action to perform on every chunk
+     */
+    public void scan(int chunkSize, Consumer<List<T>> chunkConsumer) {
+
+        try {
+            int[] rows = new int[1];
+            recorded("scan", () -> {
+                readAll(chunkSize, chunk -> {
+                    rows[0] += chunk.size();
+                    chunkConsumer.accept(chunk);
+                });
+                return rows;
+            }, scanned -> scanned[0]);
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * Streams the rows matching {@code filter}, in its order if it
+     * has any, in chunks of {@link DroneService#getFetchSize()} rows.
+     * SQL-backed storages run the filter as a query.
+     * @see StorageEngine#query
+     */
+    public void scan(Filter<T> filter, Consumer<List<T>> chunkConsumer) {
+
+        try {
+            int[] rows = new int[1];
+            recorded("query", () -> {
+                engine.query(filter, DroneService.getInstance().getFetchSize(), chunk -> {
+                    rows[0] += chunk.size();
+                    chunkConsumer.accept(chunk);
+                });
+                return rows;
+            }, scanned -> scanned[0]);
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * @return the fields models can be filtered and sorted by,
+     *         none unless the repository tells otherwise
+     */
+    public List<FilterField<T>> getFilterFields() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Checks a changed model against the rest of the stored
+     * entities before it is written, nothing being checked
+     * unless the repository tells otherwise
+     * @throws UnmetConditionsException if the model can't be written
+     */
+    public void checkUpdate(T model) throws UnmetConditionsException {}
+
     public boolean addNew(T model) throws UnmetConditionsException {
         
         try {
-            return dao.create(model) == 1;
+            if(recorded("insert", () -> transactional(() -> {
+                int inserted = engine.insert(model);
+                if(inserted == 1) transactionalListeners.forEach(listener -> listener.created(model));
+                return inserted;
+            }), Integer::intValue) != 1) return false;
+            notifyListeners(listener -> listener.created(model));
+            return true;
         } catch(SQLException ex) {
             throw new UnmetConditionsException(ex.getCause().getMessage());
         }
@@ -72,42 +346,299 @@ public class BaseCrudRepository<T extends BaseEntityModel, ID> {
 
 
     public List<?> addNewBulk(List<T> bulk) throws SQLException {
-      return TransactionManager.callInTransaction(DroneService.getInstance().getDataSource(), new Callable<List<?>>() {
+      List<?> result = List.of(recorded("insertBatch", () -> transactional(() -> {
+          int inserted = engine.insertBatch(bulk);
+          bulk.forEach(model -> transactionalListeners.forEach(listener -> listener.created(model)));
+          return inserted;
+      }), Integer::intValue), bulk);
 
-        @Override
-        public List<?> call() throws Exception {
-            return List.of(dao.create(bulk), bulk);
-        }
-
-      });
+      bulk.forEach(model -> notifyListeners(listener -> listener.created(model)));
+      return result;
         
     }
 
     @SuppressWarnings("unchecked")
     public boolean update(T model) throws SQLException {
 
-        if(model.futureId() != null & !model.id().equals(model.futureId())) {
-            return dao.update(model) == 1 && dao.updateId(model, (ID)model.futureId()) == 1;
+        ID previousId = engine.extractId(model);
+        boolean updated = recorded("update", () -> transactional(() -> {
+            boolean written;
+            if(model.futureId() != null & !model.id().equals(model.futureId())) {
+                written = engine.update(model) == 1 && engine.updateId(model, (ID)model.futureId()) == 1;
+            } else written = engine.update(model) == 1;
+            if(written) transactionalListeners.forEach(listener -> listener.updated(model, previousId));
+            return written;
+        }), written -> written ? 1 : 0);
+
+        if(updated) notifyListeners(listener -> listener.updated(model, previousId));
+        return updated;
+
+    }
+
+    /**
+     * Sets {@code field} to {@code value} on the given models that
+     * still meet {@code condition} as stored, with a single set-based
+     * write checking it, the models being expected to already hold
+     * {@code value}. The models the write missed are left as stored.
+     * @return the models updated
+     */
+    public List<T> updateColumn(Collection<T> models, Filter<T> condition, FilterField<T> field, Object value) throws SQLException {
+
+        if(models.isEmpty()) return List.of();
+
+        List<ID> ids = new ArrayList<>(models.size());
+        for(T model : models) ids.add(engine.extractId(model));
+
+        List<T> written = recorded("updateColumn", () -> engine.callInTransaction(() -> {
+
+            List<T> updated = new ArrayList<>(models);
+            if(engine.updateColumn(ids, condition, field.getColumn(), value) != ids.size()) {
+                // Updated rows are told apart from the missed ones as read back
+                Filter<T> holdsValue = Filter.of(List.of(Filter.Condition.of(field, Filter.Operator.EQ, value)));
+                updated.clear();
+                int i = 0;
+                for(T model : models) {
+                    T stored = engine.get(ids.get(i++));
+                    if(stored != null && holdsValue.test(stored)) updated.add(model);
+                }
+            }
+
+            for(T model : updated) {
+                ID id = engine.extractId(model);
+                transactionalListeners.forEach(listener -> listener.updated(model, id));
+            }
+            return updated;
+
+        }), List::size);
+
+        for(T model : written) {
+            ID id = engine.extractId(model);
+            notifyListeners(listener -> listener.updated(model, id));
         }
+        return written;
+
+    }
 
-        return dao.update(model) ==1;
+    /**
+     * Writes all the given models, changed in memory, as a single
+     * batch within one transaction, also moving to their
+     * {@link BaseEntityModel#futureId()} the ones having it.
+     * Either every model is updated or none is.
+     * @return the amount of models updated
+     */
+    @SuppressWarnings("unchecked")
+    public int updateBulk(Collection<T> models) throws SQLException {
+
+        if(models.isEmpty()) return 0;
+
+        List<ID> previousIds = new ArrayList<>(models.size());
+        for(T model : models) previousIds.add(engine.extractId(model));
+
+        recorded("updateBatch", () -> engine.callInTransaction(() -> {
+
+            int updated = engine.updateBatch(models);
+            if(updated != models.size())
+                throw new SQLException("Only " + updated + " out of " + models.size() + " " + type.getSimpleName() + " rows could be updated");
+
+            for(T model : models)
+                if(model.futureId() != null && !model.id().equals(model.futureId())
+                   && engine.updateId(model, (ID) model.futureId()) != 1)
+                    throw new SQLException(type.getSimpleName() + " " + model.id() + " could not be renamed to " + model.futureId());
+
+            int i = 0;
+            for(T model : models) {
+                ID previousId = previousIds.get(i++);
+                transactionalListeners.forEach(listener -> listener.updated(model, previousId));
+            }
+            return updated;
+
+        }), Integer::intValue);
+
+        int i = 0;
+        for(T model : models) {
+            ID previousId = previousIds.get(i++);
+            notifyListeners(listener -> listener.updated(model, previousId));
+        }
+        return models.size();
 
     }
 
     public boolean delete(ID id) {
 
         try {
-            return dao.deleteById(id) == 1;
+            if(recorded("delete", () -> transactional(() -> {
+                int deleted = engine.delete(id);
+                if(deleted == 1) transactionalListeners.forEach(listener -> listener.deleted(id));
+                return deleted;
+            }), Integer::intValue) != 1) return false;
+            notifyListeners(listener -> listener.deleted(id));
+            return true;
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            DroneService.getInstance().getStorageLogger().log(Level.ERROR, "Could not delete " + type.getSimpleName() + " " + id + ": " + ex.getMessage());
         }
 
         return false;
 
     }
 
+    /**
+     * Runs {@code work} in a transaction of the underlying storage,
+     * which is shared by every repository. Listeners are notified
+     * of its writes once the outermost transaction commits.
+     * @see StorageEngine#callInTransaction(Callable)
+     */
+    public <R> R callInTransaction(Callable<R> work) throws SQLException {
+
+        int[] depth = TRANSACTION_DEPTH.get();
+        List<Runnable> pending = PENDING_NOTIFICATIONS.get();
+        int notified = pending.size();
+        R result;
+        boolean committed = false;
+
+        depth[0]++;
+        try {
+            result = engine.callInTransaction(work);
+            committed = true;
+        } finally {
+            depth[0]--;
+            if(!committed) pending.subList(notified, pending.size()).clear();
+        }
+
+        if(depth[0] == 0) {
+            List<Runnable> notifications = new ArrayList<>(pending);
+            pending.clear();
+            notifications.forEach(Runnable::run);
+        }
+        return result;
+
+    }
+
+    /**
+     * Notifies the listeners of a write right away, or once
+     * the transaction the current thread is in commits
+     */
+    private void notifyListeners(Consumer<RepositoryListener<T, ID>> notification) {
+
+        if(TRANSACTION_DEPTH.get()[0] > 0) PENDING_NOTIFICATIONS.get().add(() -> listeners.forEach(notification));
+        else listeners.forEach(notification);
+
+    }
+
+    /**
+     * Runs {@code write} in a transaction of its own if there
+     * are transactional listeners to be notified within it
+     * @see #addTransactionalListener(RepositoryListener)
+     */
+    private <R> R transactional(Operation<R> write) throws SQLException {
+        return transactionalListeners.isEmpty() ? write.run() : engine.callInTransaction(write::run);
+    }
+
+    /**
+     * Storage work recorded by {@link #recorded}
+     */
+    @FunctionalInterface
+    private interface Operation<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * Runs {@code work} as a {@link RepositoryOperationEvent},
+     * which only costs its timestamps unless it's being recorded
+     * @param operation name of the operation
+     * @param rows      amount of rows read or written, given
+     *                  the result of {@code work}
+     */
+    private <R> R recorded(String operation, Operation<R> work, ToIntFunction<R> rows) throws SQLException {
+
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        R result = null;
+        boolean failed = true;
+        try {
+            result = work.run();
+            failed = false;
+            return result;
+        } finally {
+            event.finish(type.getSimpleName(), operation, failed || result == null ? 0 : rows.applyAsInt(result), failed);
+        }
+
+    }
+
+    /**
+     * Registers a listener to be notified after every successful
+     * write on this repository, once its transaction commits
+     */
+    public void addListener(RepositoryListener<T, ID> listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Registers a listener to be notified of every write within
+     * the transaction performing it, before it commits, so the
+     * write is rolled back if the listener fails
+     */
+    public void addTransactionalListener(RepositoryListener<T, ID> listener) {
+        this.transactionalListeners.add(listener);
+    }
+
+    public StorageEngine<T, ID> getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * @return the ORMLite DAO of this repository or {@code null}
+     *         if its storage engine is not backed by an SQL database
+     */
     public Dao<T, ID> getDao() {
-        return this.dao;
+        OrmLiteStorageEngine<T, ID> sqlEngine = getSqlEngine();
+        return sqlEngine == null ? null : sqlEngine.getDao();
+    }
+
+    /**
+     * Prepares a statement the repository runs often once, so it's
+     * only bound to new arguments on every run afterwards
+     * @param sql the statement, its parameters as {@code ?}
+     * @return the statement or {@code null} if the storage
+     *         engine is not backed by an SQL database
+     * @see OrmLiteStorageEngine#prepare(String)
+     */
+    protected CachedStatement prepareStatement(String sql) {
+        OrmLiteStorageEngine<T, ID> sqlEngine = getSqlEngine();
+        return sqlEngine == null ? null : sqlEngine.prepare(sql);
+    }
+
+    /**
+     * Registers a query the repository runs often on the service's
+     * {@link ar.com.caputo.drones.database.query.HotQueries}, so its
+     * plan can be checked, as long as the storage is backed by SQL
+     * @see ar.com.caputo.drones.database.query.HotQueries#register
+     */
+    protected void registerHotQuery(String name, String sql, String... sampleArguments) {
+        if(isSqlBacked()) DroneService.getInstance().getHotQueries().register(name, getDao(), sql, sampleArguments);
+    }
+
+    /**
+     * @return whether the storage engine is backed by an SQL
+     *         database, allowing queries through {@link #getDao()}
+     */
+    public boolean isSqlBacked() {
+        return getSqlEngine() != null;
+    }
+
+    /**
+     * @return the ORMLite engine the storage engine is or
+     *         forwards to, {@code null} if there's none
+     */
+    private OrmLiteStorageEngine<T, ID> getSqlEngine() {
+
+        StorageEngine<T, ID> current = engine;
+        while(current instanceof ForwardingStorageEngine)
+            current = ((ForwardingStorageEngine<T, ID>) current).getDelegate();
+
+        return current instanceof OrmLiteStorageEngine
+               ? (OrmLiteStorageEngine<T, ID>) current
+               : null;
+
     }
     
 }
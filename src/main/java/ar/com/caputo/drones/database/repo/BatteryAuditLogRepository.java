@@ -1,11 +1,41 @@
 package ar.com.caputo.drones.database.repo;
 
+import java.lang.System.Logger.Level;
+import java.sql.SQLException;
+
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.support.ConnectionSource;
+
+import ar.com.caputo.drones.DroneService;
 import ar.com.caputo.drones.database.model.BatteryAuditLog;
 
 public class BatteryAuditLogRepository extends BaseCrudRepository<BatteryAuditLog, Integer> {
 
+    public static final String DRONE_COLUMN = "drone_sn";
+
     public BatteryAuditLogRepository() {
         super(BatteryAuditLog.class);
+        registerHotQueries();
+    }
+
+    public BatteryAuditLogRepository(ConnectionSource connection) {
+        super(BatteryAuditLog.class, connection);
+        registerHotQueries();
+    }
+
+    private void registerHotQueries() {
+
+        if(!isSqlBacked()) return;
+
+        try {
+            QueryBuilder<BatteryAuditLog, Integer> byDrone = getDao().queryBuilder().orderBy("timestamp", false);
+            byDrone.where().eq(DRONE_COLUMN, new SelectArg());
+            registerHotQuery("batteryAuditLogs.byDrone", byDrone.prepareStatementString(), "");
+        } catch (SQLException ex) {
+            DroneService.getInstance().getStorageLogger().log(Level.WARNING, "Could not register the battery audit log hot queries: " + ex.getMessage());
+        }
+
     }
     
 }
@@ -0,0 +1,82 @@
+package ar.com.caputo.drones.database.repo;
+
+import java.lang.System.Logger.Level;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.model.ChangeLogEntry;
+import ar.com.caputo.drones.database.model.ChangeLogEntry.Operation;
+import ar.com.caputo.drones.exception.RequestProcessingException;
+
+public class ChangeLogRepository extends BaseCrudRepository<ChangeLogEntry, Long> {
+
+    public ChangeLogRepository() {
+        super(ChangeLogEntry.class);
+    }
+
+    /**
+     * @param since sequence number of the last change already seen
+     * @param limit maximum amount of changes to retrieve
+     * @return changes after {@code since} in the order they happened
+     */
+    public List<ChangeLogEntry> listSince(long since, int limit) {
+
+        try {
+            return getEngine().listAfter(since, limit);
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * @param entity name the changes of the listened
+     *               repository are recorded with
+     * @return a listener recording every write of a repository,
+     *         to be registered as a transactional one
+     * @see BaseCrudRepository#addTransactionalListener(RepositoryListener)
+     */
+    public <T extends BaseEntityModel, ID> RepositoryListener<T, ID> recorder(String entity) {
+
+        return new RepositoryListener<T, ID>() {
+
+            @Override
+            public void created(T written) {
+                record(new ChangeLogEntry(entity, written.id(), null, Operation.CREATED));
+            }
+
+            @Override
+            public void updated(T written, ID previousId) {
+                String previous = Objects.equals(written.id(), String.valueOf(previousId)) ? null : String.valueOf(previousId);
+                record(new ChangeLogEntry(entity, written.id(), previous, Operation.UPDATED));
+            }
+
+            @Override
+            public void deleted(ID id) {
+                record(new ChangeLogEntry(entity, String.valueOf(id), null, Operation.DELETED));
+            }
+
+        };
+
+    }
+
+    /**
+     * Runs within the transaction of the write being recorded,
+     * so failing to record it rolls the write back
+     */
+    private void record(ChangeLogEntry entry) {
+
+        try {
+            if(!addNew(entry))
+                throw new RequestProcessingException("Change of " + entry.getEntity() + " " + entry.getEntityId() + " could not be recorded");
+        } catch (RuntimeException ex) {
+            DroneService.getInstance().getChangeLogLogger().log(Level.ERROR, ex.getMessage());
+            throw ex;
+        }
+
+    }
+
+}
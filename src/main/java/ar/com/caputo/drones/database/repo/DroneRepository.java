@@ -1,16 +1,102 @@
 package ar.com.caputo.drones.database.repo;
 
+import java.lang.System.Logger.Level;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.engine.CachedStatement;
+import ar.com.caputo.drones.database.mapper.DroneRowMapper;
 import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.query.Filter;
+import ar.com.caputo.drones.database.query.FilterField;
 import ar.com.caputo.drones.exception.RequestProcessingException;
+import ar.com.caputo.drones.exception.UnmetConditionsException;
 
 public class DroneRepository extends BaseCrudRepository<Drone, String> {
 
+    public static final String STATE_COLUMN = "state";
+    public static final String BATTERY_LEVEL_COLUMN = "batteryLevel";
+
+    private static final FilterField<Drone> STATE_FIELD =
+        FilterField.ofEnum("state", STATE_COLUMN, Drone.State.class, Drone::getState);
+    private static final FilterField<Drone> BATTERY_LEVEL_FIELD =
+        FilterField.ofInteger("batteryLevel", BATTERY_LEVEL_COLUMN, Drone::getBatteryLevel);
+
+    private static final List<FilterField<Drone>> FILTER_FIELDS = List.of(
+        STATE_FIELD,
+        FilterField.ofEnum("model", "model", Drone.Model.class, Drone::getModel),
+        BATTERY_LEVEL_FIELD,
+        FilterField.ofInteger("weightLimit", "weightLimit", Drone::getWeightLimit)
+    );
+
+    private static final DroneRowMapper ROW_MAPPER = new DroneRowMapper();
+
+    /**
+     * {@code SELECT} of a single drone by its serial number
+     */
+    private CachedStatement selectById;
+
     public DroneRepository() {
         super(Drone.class);
+
+        if(!isSqlBacked()) return;
+
+        DatabaseType dbType = DroneService.getInstance().getDataSource().getDatabaseType();
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for(int i = 0; i < DroneRowMapper.COLUMNS.size(); i++) {
+            if(i > 0) sql.append(", ");
+            dbType.appendEscapedEntityName(sql, DroneRowMapper.COLUMNS.get(i));
+        }
+        sql.append(" FROM ");
+        dbType.appendEscapedEntityName(sql, getDao().getTableName());
+        sql.append(" WHERE ");
+        dbType.appendEscapedEntityName(sql, getDao().getTableInfo().getIdField().getColumnName());
+        sql.append(" = ?");
+        this.selectById = prepareStatement(sql.toString());
+
+        try {
+            QueryBuilder<Drone, String> byStateAndBatteryLevel = getDao().queryBuilder();
+            byStateAndBatteryLevel.where().eq(STATE_COLUMN, new SelectArg()).and().ge(BATTERY_LEVEL_COLUMN, new SelectArg());
+            registerHotQuery("drones.byStateAndBatteryLevel", byStateAndBatteryLevel.prepareStatementString(),
+                             Drone.State.IDLE.name(), "25");
+        } catch (SQLException ex) {
+            DroneService.getInstance().getStorageLogger().log(Level.WARNING, "Could not register the drone hot queries: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the drone through a statement prepared once
+     * and mapped by hand when the storage is backed by SQL
+     */
+    @Override
+    protected Drone read(String serialNumber) throws SQLException {
+        if(selectById == null) return super.read(serialNumber);
+        return selectById.queryForFirst(ROW_MAPPER, serialNumber);
+    }
+
+    @Override
+    public List<FilterField<Drone>> getFilterFields() {
+        return FILTER_FIELDS;
     }
 
+    /**
+     * Moves the drone back to {@code IDLE}
+     * @param drone as given by {@link #getMutable}, since its state is changed
+     */
     public boolean resetState(Drone drone) {
         try { 
             drone.setState(Drone.State.IDLE.name());
@@ -19,5 +105,155 @@ public class DroneRepository extends BaseCrudRepository<Drone, String> {
             throw new RequestProcessingException(ex.getMessage());
         }
     }
+
+    /**
+     * Moves the drones matching the given filter to {@code target},
+     * checking the same rules as {@link Drone#setState(String)} on
+     * each of them. The drones that can be moved are written with a
+     * single set-based update, all in one transaction, whose
+     * {@code WHERE} clause checks the filter and rules again so the
+     * drones changed since they were read are rejected instead.
+     * @param serialNumbers   drones to move, if {@code null} every drone
+     *                        matching the rest of the filter is moved
+     * @param state           current state of the drones to move, any if {@code null}
+     * @param minBatteryLevel minimum battery level (inclusive), if any
+     * @param maxBatteryLevel maximum battery level (inclusive), if any
+     * @param target          state to move the drones to
+     */
+    public TransitionResult transition(Collection<String> serialNumbers, Drone.State state,
+                                       Integer minBatteryLevel, Integer maxBatteryLevel,
+                                       Drone.State target) {
+
+        Predicate<Drone> matches = drone -> (state == null || drone.getState() == state)
+                                            && (minBatteryLevel == null || drone.getBatteryLevel() >= minBatteryLevel)
+                                            && (maxBatteryLevel == null || drone.getBatteryLevel() <= maxBatteryLevel);
+
+        try {
+
+            return callInTransaction(() -> {
+
+                TransitionResult result = new TransitionResult();
+                List<Drone> candidates;
+
+                if(serialNumbers != null) {
+
+                    Map<String, Drone> found = findAll(serialNumbers);
+                    candidates = new ArrayList<>(found.size());
+                    for(String serialNumber : new LinkedHashSet<>(serialNumbers)) {
+                        Drone drone = found.get(serialNumber);
+                        if(drone == null) result.reject(serialNumber, "Drone not found");
+                        else if(!matches.test(drone)) result.reject(serialNumber, "Drone does not match the filter");
+                        else candidates.add(drone);
+                    }
+
+                } else candidates = findMatching(state, minBatteryLevel, maxBatteryLevel, matches);
+
+                List<Drone> accepted = new ArrayList<>(candidates.size());
+                for(Drone drone : candidates) {
+
+                    if(drone.getState() == target) {
+                        result.reject(drone.id(), "Drone is already " + target.name());
+                        continue;
+                    }
+
+                    try {
+                        drone.setState(target.name());
+                        accepted.add(drone);
+                    } catch(UnmetConditionsException ex) {
+                        result.reject(drone.id(), ex.getMessage());
+                    }
+
+                }
+
+                List<Filter.Condition<Drone>> conditions = new ArrayList<>();
+                conditions.add(state == null ? Filter.Condition.of(STATE_FIELD, Filter.Operator.NE, target)
+                                             : Filter.Condition.of(STATE_FIELD, Filter.Operator.EQ, state));
+                if(minBatteryLevel != null) conditions.add(Filter.Condition.of(BATTERY_LEVEL_FIELD, Filter.Operator.GTE, minBatteryLevel));
+                if(maxBatteryLevel != null) conditions.add(Filter.Condition.of(BATTERY_LEVEL_FIELD, Filter.Operator.LTE, maxBatteryLevel));
+                // Same rule as Drone#setState
+                if(target == Drone.State.LOADING) conditions.add(Filter.Condition.of(BATTERY_LEVEL_FIELD, Filter.Operator.GTE, 25));
+
+                Set<String> written = new HashSet<>();
+                updateColumn(accepted, Filter.of(conditions), STATE_FIELD, target).forEach(drone -> written.add(drone.id()));
+
+                for(Drone drone : accepted) {
+                    if(written.contains(drone.id())) result.updated.add(drone.id());
+                    else result.reject(drone.id(), "Drone no longer matches the filter");
+                }
+                result.affected = written.size();
+                return result;
+
+            });
+
+        } catch(SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * @return the drones matching the filter, queried on the
+     *         database or scanned if it's not backed by SQL
+     */
+    private List<Drone> findMatching(Drone.State state, Integer minBatteryLevel, Integer maxBatteryLevel,
+                                     Predicate<Drone> matches) throws SQLException {
+
+        if(!isSqlBacked()) {
+            List<Drone> matching = new ArrayList<>();
+            getEngine().scan(DroneService.getInstance().getFetchSize(), chunk -> chunk.forEach(drone -> {
+                if(matches.test(drone)) matching.add(drone);
+            }));
+            return matching;
+        }
+
+        Where<Drone, String> where = getDao().queryBuilder().where();
+        int clauses = 0;
+        if(state != null) {
+            where.eq(STATE_COLUMN, state);
+            clauses++;
+        }
+        if(minBatteryLevel != null) {
+            where.ge(BATTERY_LEVEL_COLUMN, minBatteryLevel);
+            clauses++;
+        }
+        if(maxBatteryLevel != null) {
+            where.le(BATTERY_LEVEL_COLUMN, maxBatteryLevel);
+            clauses++;
+        }
+
+        if(clauses == 0) return getDao().queryForAll();
+        if(clauses > 1) where.and(clauses);
+        return where.query();
+
+    }
+
+    /**
+     * Outcome of a {@link DroneRepository#transition}, holding the
+     * serial numbers of the drones moved and the reason each of
+     * the rest was rejected for
+     */
+    public static class TransitionResult {
+
+        private int affected;
+        private final List<String> updated = new ArrayList<>();
+        private final Map<String, String> rejected = new LinkedHashMap<>();
+
+        private void reject(String serialNumber, String reason) {
+            rejected.put(serialNumber, reason);
+        }
+
+        public int getAffected() {
+            return affected;
+        }
+
+        public List<String> getUpdated() {
+            return updated;
+        }
+
+        public Map<String, String> getRejected() {
+            return rejected;
+        }
+
+    }
     
 }
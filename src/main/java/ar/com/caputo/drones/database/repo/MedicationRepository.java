@@ -1,11 +1,364 @@
 package ar.com.caputo.drones.database.repo;
 
+import java.lang.System.Logger.Level;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.DatabaseType;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.engine.CachedStatement;
+import ar.com.caputo.drones.database.engine.OrmLiteStorageEngine;
+import ar.com.caputo.drones.database.mapper.DroneRowMapper;
+import ar.com.caputo.drones.database.mapper.MedicationRowMapper;
+import ar.com.caputo.drones.database.model.Drone;
 import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.query.FilterField;
+import ar.com.caputo.drones.exception.RequestProcessingException;
+import ar.com.caputo.drones.exception.UnmetConditionsException;
 
 public class MedicationRepository extends BaseCrudRepository<Medication, String> {
 
+    /**
+     * Name of the foreign key column pointing to
+     * the drone a medication is loaded into
+     */
+    public static final String DRONE_COLUMN = "associatedDrone_id";
+
+    private static final List<FilterField<Medication>> FILTER_FIELDS = List.of(
+        FilterField.ofInteger("weight", "weight", Medication::getWeight),
+        FilterField.ofString("associatedDrone", DRONE_COLUMN, MedicationRepository::droneOf)
+    );
+
+    private static final MedicationRowMapper ROW_MAPPER = new MedicationRowMapper();
+
+    /**
+     * {@code SELECT} statement joining each medication
+     * with its associated drone (if any)
+     */
+    private String joinedSelect;
+
+    /**
+     * {@link #joinedSelect} narrowed by an {@code IN} list
+     * of codes, lacking its placeholders
+     */
+    private String joinedSelectByIds;
+
+    /**
+     * Statements run on every lookup, prepared once
+     */
+    private CachedStatement selectById;
+    private CachedStatement selectByDrone;
+    private CachedStatement loadWeight;
+    private CachedStatement loadWeightExcluding;
+
     public MedicationRepository() {
         super(Medication.class);
+
+        // Engines not backed by SQL resolve drones on their own
+        if(!isSqlBacked()) return;
+
+        try {
+
+            Dao<Drone, String> droneDao = DaoManager.createDao(DroneService.getInstance().getDataSource(), Drone.class);
+            DatabaseType dbType = DroneService.getInstance().getDataSource().getDatabaseType();
+
+            StringBuilder sql = new StringBuilder("SELECT ");
+            for(String column : MedicationRowMapper.COLUMNS) {
+                sql.append("m.");
+                dbType.appendEscapedEntityName(sql, column);
+                sql.append(", ");
+            }
+            for(int i = 0; i < DroneRowMapper.COLUMNS.size(); i++) {
+                sql.append("d.");
+                dbType.appendEscapedEntityName(sql, DroneRowMapper.COLUMNS.get(i));
+                sql.append(i < DroneRowMapper.COLUMNS.size() - 1 ? ", " : " ");
+            }
+            sql.append("FROM ");
+            dbType.appendEscapedEntityName(sql, getDao().getTableName());
+            sql.append(" m LEFT JOIN ");
+            dbType.appendEscapedEntityName(sql, droneDao.getTableName());
+            sql.append(" d ON m.");
+            dbType.appendEscapedEntityName(sql, DRONE_COLUMN);
+            sql.append(" = d.");
+            dbType.appendEscapedEntityName(sql, droneDao.getTableInfo().getIdField().getColumnName());
+
+            this.joinedSelect = sql.toString();
+
+            StringBuilder byId = new StringBuilder(joinedSelect).append(" WHERE m.");
+            dbType.appendEscapedEntityName(byId, getDao().getTableInfo().getIdField().getColumnName());
+            this.joinedSelectByIds = byId.toString() + " IN (";
+            this.selectById = prepareStatement(byId.append(" = ?").toString());
+
+            StringBuilder byDrone = new StringBuilder(joinedSelect).append(" WHERE m.");
+            dbType.appendEscapedEntityName(byDrone, DRONE_COLUMN);
+            this.selectByDrone = prepareStatement(byDrone.append(" = ?").toString());
+
+            StringBuilder weightSql = new StringBuilder("SELECT SUM(");
+            dbType.appendEscapedEntityName(weightSql, "weight");
+            weightSql.append(") FROM ");
+            dbType.appendEscapedEntityName(weightSql, getDao().getTableName());
+            weightSql.append(" WHERE ");
+            dbType.appendEscapedEntityName(weightSql, DRONE_COLUMN);
+            weightSql.append(" = ?");
+            this.loadWeight = prepareStatement(weightSql.toString());
+
+            weightSql.append(" AND ");
+            dbType.appendEscapedEntityName(weightSql, getDao().getTableInfo().getIdField().getColumnName());
+            this.loadWeightExcluding = prepareStatement(weightSql.append(" <> ?").toString());
+
+            registerHotQuery("medications.byDrone", selectByDrone.getSql(), "");
+            registerHotQuery("medications.loadWeight", loadWeight.getSql(), "");
+
+        } catch (SQLException ex) {
+            DroneService.getInstance().getStorageLogger().log(Level.ERROR, "Could not prepare the medication queries: " + ex.getMessage());
+        }
+
+    }
+
+    @Override
+    public List<FilterField<Medication>> getFilterFields() {
+        return FILTER_FIELDS;
+    }
+
+    /**
+     * Retrieves the medication along with its associated drone
+     * in a single query
+     */
+    @Override
+    protected Medication read(String code) throws SQLException {
+
+        if(!isSqlBacked()) {
+            Medication result = super.read(code);
+            return result == null ? null : resolveDrones(List.of(result)).get(0);
+        }
+
+        return selectById.queryForFirst(ROW_MAPPER, code);
+
+    }
+
+    /**
+     * Retrieves the medications along with their associated drones,
+     * with a joined {@code IN} query for every
+     * {@link OrmLiteStorageEngine#MAX_IN_PARAMETERS} codes
+     */
+    @Override
+    public Map<String, Medication> findAll(Collection<String> codes) {
+
+        if(!isSqlBacked()) {
+            Map<String, Medication> found = super.findAll(codes);
+            resolveDrones(new ArrayList<>(found.values()));
+            return found;
+        }
+
+        try {
+
+            Map<String, Medication> found = new HashMap<>();
+            List<String> pending = new ArrayList<>(codes);
+            for(int from = 0; from < pending.size(); from += OrmLiteStorageEngine.MAX_IN_PARAMETERS) {
+
+                List<String> chunk = pending.subList(from, Math.min(from + OrmLiteStorageEngine.MAX_IN_PARAMETERS, pending.size()));
+                StringBuilder sql = new StringBuilder(joinedSelectByIds);
+                for(int i = 0; i < chunk.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+
+                for(Medication medication : getDao().queryRaw(sql.append(")").toString(), ROW_MAPPER, chunk.toArray(new String[0])).getResults())
+                    found.put(medication.getCode(), medication);
+
+            }
+            return found;
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * Streams medications along with their associated
+     * drones, with a single joined query
+     */
+    @Override
+    protected void readAll(int chunkSize, Consumer<List<Medication>> chunkConsumer) throws SQLException {
+
+        if(!isSqlBacked()) {
+            super.readAll(chunkSize, chunk -> chunkConsumer.accept(resolveDrones(chunk)));
+            return;
+        }
+
+        OrmLiteStorageEngine.scan(getDao().queryRaw(joinedSelect, ROW_MAPPER).closeableIterator(), chunkSize, chunkConsumer);
+
+    }
+
+    /**
+     * @param serialNumber of the drone
+     * @return all medications loaded into the given drone,
+     *         along with it
+     */
+    public List<Medication> listByDrone(String serialNumber) {
+
+        try {
+
+            if(!isSqlBacked()) return filter(medication -> serialNumber.equals(droneOf(medication)));
+            return selectByDrone.query(ROW_MAPPER, serialNumber);
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * Retrieves the load of several drones with an {@code IN}
+     * query for every {@link OrmLiteStorageEngine#MAX_IN_PARAMETERS}
+     * drones.
+     * @param serialNumbers of the drones whose load is requested,
+     *                      if {@code null} the load of every drone
+     *                      is retrieved
+     * @return medications grouped by the serial number of the
+     *         drone they are loaded into
+     */
+    public Map<String, List<Medication>> listByDrones(Collection<String> serialNumbers) {
+
+        if(serialNumbers != null && serialNumbers.isEmpty()) return Collections.emptyMap();
+
+        try {
+
+            List<Medication> loaded;
+            if(!isSqlBacked()) {
+                Set<String> requested = serialNumbers == null ? null : new HashSet<>(serialNumbers);
+                loaded = filter(medication -> droneOf(medication) != null
+                                              && (requested == null || requested.contains(droneOf(medication))));
+            } else if(serialNumbers == null) loaded = getDao().queryBuilder().where().isNotNull(DRONE_COLUMN).query();
+            else {
+                loaded = new ArrayList<>();
+                List<String> pending = new ArrayList<>(serialNumbers);
+                for(int from = 0; from < pending.size(); from += OrmLiteStorageEngine.MAX_IN_PARAMETERS)
+                    loaded.addAll(getDao().queryBuilder().where()
+                                          .in(DRONE_COLUMN, pending.subList(from, Math.min(from + OrmLiteStorageEngine.MAX_IN_PARAMETERS, pending.size())))
+                                          .query());
+            }
+
+            return loaded.stream().collect(Collectors.groupingBy(
+                medication -> medication.getAssociatedDrone().id(),
+                LinkedHashMap::new,
+                Collectors.toList()));
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
     }
-    
+
+    /**
+     * @param serialNumber of the drone
+     * @return the sum of the weights of all medications
+     *         loaded into the given drone
+     */
+    public int getLoadWeight(String serialNumber) {
+
+        try {
+
+            if(!isSqlBacked())
+                return filter(medication -> serialNumber.equals(droneOf(medication)))
+                       .stream().mapToInt(Medication::getWeight).sum();
+            return (int) loadWeight.queryForLong(serialNumber);
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * @param serialNumber of the drone
+     * @param excludedCode of the medication left out of the sum
+     * @return the sum of the weights of the medications loaded
+     *         into the given drone, except for the excluded one
+     */
+    public int getLoadWeight(String serialNumber, String excludedCode) {
+
+        try {
+
+            if(!isSqlBacked())
+                return filter(medication -> serialNumber.equals(droneOf(medication))
+                                            && !excludedCode.equals(medication.getCode()))
+                       .stream().mapToInt(Medication::getWeight).sum();
+            return (int) loadWeightExcluding.queryForLong(serialNumber, excludedCode);
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
+    /**
+     * Checks the drone the medication is loaded into, if any,
+     * can hold its weight along with the rest of its load
+     */
+    @Override
+    public void checkUpdate(Medication medication) throws UnmetConditionsException {
+
+        String serialNumber = droneOf(medication);
+        if(serialNumber == null) return;
+
+        Drone drone = DroneService.getInstance().getDroneEnpoint().getRepository().get(serialNumber);
+        if(!drone.canHold(getLoadWeight(serialNumber, medication.getCode()), medication.getWeight()))
+            throw new UnmetConditionsException("The weight difference cannot be held by the associated drone!");
+
+    }
+
+    /**
+     * Scans the medications without resolving their drones
+     * keeping those matching {@code condition}, used in place
+     * of queries when the storage is not backed by SQL
+     */
+    private List<Medication> filter(Predicate<Medication> condition) throws SQLException {
+
+        List<Medication> matching = new ArrayList<>();
+        getEngine().scan(DroneService.getInstance().getFetchSize(), chunk -> chunk.forEach(medication -> {
+            if(condition.test(medication)) matching.add(medication);
+        }));
+        return matching;
+
+    }
+
+    private static String droneOf(Medication medication) {
+        return medication.getAssociatedDrone() == null ? null : medication.getAssociatedDrone().id();
+    }
+
+    /**
+     * Replaces the drone placeholders of the given medications with
+     * the stored drones, used in place of the join when the storage
+     * is not backed by SQL
+     */
+    private List<Medication> resolveDrones(List<Medication> medications) {
+
+        try {
+
+            for(Medication medication : medications) {
+                if(droneOf(medication) == null) continue;
+                Drone drone = DroneService.getInstance().getDroneEnpoint().getRepository().getEngine().get(droneOf(medication));
+                if(drone != null) medication.setAssociatedDrone(drone);
+            }
+            return medications;
+
+        } catch (SQLException ex) {
+            throw new RequestProcessingException(ex.getMessage());
+        }
+
+    }
+
 }
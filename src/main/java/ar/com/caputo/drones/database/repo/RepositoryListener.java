@@ -0,0 +1,25 @@
+package ar.com.caputo.drones.database.repo;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+
+/**
+ * Gets notified by a {@link BaseCrudRepository} after every
+ * successful write, allowing in-memory structures derived
+ * from the database to be kept up to date without having to
+ * query it again.
+ */
+public interface RepositoryListener<T extends BaseEntityModel, ID> {
+
+    default void created(T entity) {}
+
+    /**
+     * @param entity     as it was written
+     * @param previousId the ID the entity had before the
+     *                   update, it only differs from the
+     *                   entity's ID if it was changed
+     */
+    default void updated(T entity, ID previousId) {}
+
+    default void deleted(ID id) {}
+
+}
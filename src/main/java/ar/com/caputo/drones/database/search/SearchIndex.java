@@ -0,0 +1,274 @@
+package ar.com.caputo.drones.database.search;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.database.repo.MedicationRepository;
+import ar.com.caputo.drones.database.repo.RepositoryListener;
+
+/**
+ * In-memory prefix index over drone serial numbers and
+ * medication codes and names, so they can be searched
+ * without going through the database.
+ * <p>
+ * Every searchable term is kept, in lower case, on a sorted set
+ * along with the field it comes from and the ID it belongs to,
+ * so the terms starting with a prefix are a range of the set
+ * found in logarithmic time. Medication names are also indexed
+ * from every word following a {@code -} or {@code _}, so they
+ * can be found by any of their words.
+ * <p>
+ * The index is built once from the database through
+ * {@link #rebuild} and kept up to date afterwards by listening
+ * to the writes on the drone and medication repositories.
+ */
+public class SearchIndex {
+
+    /**
+     * Separates the term, field and ID of an entry,
+     * sorting before any character of a term
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    public enum Type {
+
+        DRONE {
+            @Override
+            List<String> entries(BaseEntityModel entity) {
+                return List.of(entry(((Drone) entity).getSerialNumber(), "serialNumber", entity.id()));
+            }
+        },
+
+        MEDICATION {
+            @Override
+            List<String> entries(BaseEntityModel entity) {
+
+                Medication medication = (Medication) entity;
+                List<String> entries = new ArrayList<>();
+                entries.add(entry(medication.getCode(), "code", medication.id()));
+
+                String name = medication.getName();
+                entries.add(entry(name, "name", medication.id()));
+                for(int i = 0; i < name.length() - 1; i++)
+                    if(name.charAt(i) == '-' || name.charAt(i) == '_')
+                        entries.add(entry(name.substring(i + 1), "name", medication.id()));
+                return entries;
+
+            }
+        };
+
+        /**
+         * @return the index entries of {@code entity}
+         */
+        abstract List<String> entries(BaseEntityModel entity);
+
+        public static Type of(String name) {
+            return valueOf(name.strip().toUpperCase(Locale.ROOT));
+        }
+
+    }
+
+    /**
+     * Entity whose field starts with the searched prefix
+     */
+    public static class Match {
+
+        private final String type;
+        private final String id;
+        private final String field;
+
+        private Match(Type type, String id, String field) {
+            this.type = type.name().toLowerCase(Locale.ROOT);
+            this.id = id;
+            this.field = field;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+    }
+
+    /**
+     * Entries of a single type, along with the entries
+     * of every ID so they can be removed on updates
+     */
+    private static final class Entries {
+        private final ConcurrentSkipListSet<String> sorted = new ConcurrentSkipListSet<>();
+        private final ConcurrentHashMap<String, List<String>> byId = new ConcurrentHashMap<>();
+    }
+
+    private volatile Map<Type, Entries> entries = emptyEntries();
+
+    /**
+     * Writes are applied concurrently, only being kept
+     * from running while the index is being rebuilt
+     */
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    private static Map<Type, Entries> emptyEntries() {
+        Map<Type, Entries> entries = new EnumMap<>(Type.class);
+        for(Type type : Type.values()) entries.put(type, new Entries());
+        return entries;
+    }
+
+    private static String entry(String term, String field, String id) {
+        return normalise(term) + SEPARATOR + field + SEPARATOR + id;
+    }
+
+    private static String normalise(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Replaces the index with one read from the database,
+     * searches being answered by the current one meanwhile
+     */
+    public void rebuild(DroneRepository drones, MedicationRepository medications) {
+
+        rebuildLock.writeLock().lock();
+        try {
+
+            Map<Type, Entries> rebuilt = emptyEntries();
+            drones.scan(chunk -> chunk.forEach(drone -> put(rebuilt.get(Type.DRONE), Type.DRONE, drone)));
+            medications.scan(chunk -> chunk.forEach(medication -> put(rebuilt.get(Type.MEDICATION), Type.MEDICATION, medication)));
+            this.entries = rebuilt;
+
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+
+    }
+
+    /**
+     * @param prefix start of the terms to look for, in any case
+     * @param type   of the entities to look for, any if {@code null}
+     * @param limit  maximum amount of matches
+     * @return the entities with a term starting with {@code prefix},
+     *         each of them once, in the order of their terms
+     */
+    public List<Match> search(String prefix, Type type, int limit) {
+
+        String from = normalise(prefix);
+        String to = from + Character.MAX_VALUE;
+        Map<Type, Entries> current = this.entries;
+
+        // Entries of each type are sorted, so the first ones
+        // found on each are enough to merge them in order
+        List<Map.Entry<String, Type>> found = new ArrayList<>();
+        for(Type searched : type == null ? Type.values() : new Type[]{type}) {
+
+            Set<String> ids = new HashSet<>();
+            for(String entry : current.get(searched).sorted.subSet(from, true, to, false)) {
+                if(ids.size() == limit) break;
+                if(ids.add(entry.substring(entry.lastIndexOf(SEPARATOR) + 1))) found.add(Map.entry(entry, searched));
+            }
+
+        }
+        found.sort(Map.Entry.comparingByKey());
+
+        List<Match> matches = new ArrayList<>(Math.min(limit, found.size()));
+        for(Map.Entry<String, Type> entry : found.subList(0, Math.min(limit, found.size()))) {
+            String indexed = entry.getKey();
+            int idStart = indexed.lastIndexOf(SEPARATOR);
+            matches.add(new Match(entry.getValue(), indexed.substring(idStart + 1),
+                                  indexed.substring(indexed.indexOf(SEPARATOR) + 1, idStart)));
+        }
+        return matches;
+
+    }
+
+    /**
+     * @return listener keeping the index in sync with the drone table
+     */
+    public RepositoryListener<Drone, String> droneListener() {
+        return listener(Type.DRONE);
+    }
+
+    /**
+     * @return listener keeping the index in sync with the medication table
+     */
+    public RepositoryListener<Medication, String> medicationListener() {
+        return listener(Type.MEDICATION);
+    }
+
+    private <T extends BaseEntityModel> RepositoryListener<T, String> listener(Type type) {
+
+        return new RepositoryListener<T, String>() {
+
+            @Override
+            public void created(T entity) {
+                write(() -> put(entries.get(type), type, entity));
+            }
+
+            @Override
+            public void updated(T entity, String previousId) {
+                write(() -> {
+                    if(!previousId.equals(entity.id())) remove(entries.get(type), previousId);
+                    put(entries.get(type), type, entity);
+                });
+            }
+
+            @Override
+            public void deleted(String id) {
+                write(() -> remove(entries.get(type), id));
+            }
+
+        };
+
+    }
+
+    private void write(Runnable write) {
+
+        rebuildLock.readLock().lock();
+        try {
+            write.run();
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+
+    }
+
+    private static void put(Entries typeEntries, Type type, BaseEntityModel entity) {
+
+        List<String> added = type.entries(entity);
+        typeEntries.byId.compute(entity.id(), (id, previous) -> {
+            if(added.equals(previous)) return previous;
+            if(previous != null) previous.forEach(typeEntries.sorted::remove);
+            typeEntries.sorted.addAll(added);
+            return added;
+        });
+
+    }
+
+    private static void remove(Entries typeEntries, String id) {
+
+        typeEntries.byId.computeIfPresent(id, (removedId, previous) -> {
+            previous.forEach(typeEntries.sorted::remove);
+            return null;
+        });
+
+    }
+
+}
@@ -0,0 +1,670 @@
+package ar.com.caputo.drones.database.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.database.repo.MedicationRepository;
+import ar.com.caputo.drones.database.repo.RepositoryListener;
+
+/**
+ * In-memory, column-oriented copy of the {@code drone} table
+ * used to answer fleet-wide queries without going through
+ * the database nor instancing a {@link Drone} per row.
+ * <p>
+ * Every column is stored in its own primitive array, where the
+ * i-th position of each array belongs to the same drone. Serial
+ * numbers are dictionary-encoded: each serial gets an integer code
+ * that never changes nor gets reused for the lifetime of the
+ * snapshot, and states and models are stored as their ordinals.
+ * Deleted rows are replaced by the last row so that every scan
+ * only goes through {@code [0, size)}.
+ * <p>
+ * Drones that can be loaded are also kept in an ordered index by
+ * their remaining capacity (weight limit minus current load), so
+ * finding drones able to carry a given weight doesn't require
+ * going through the whole fleet.
+ * <p>
+ * Fleet totals (drones per state and model, low battery drones
+ * and load) are kept as counters updated along with each row,
+ * so the {@link #summary()} is answered in constant time.
+ * <p>
+ * The snapshot is built once from the database through
+ * {@link #rebuild} and kept up to date afterwards by listening
+ * to the writes on the drone and medication repositories.
+ */
+public class FleetSnapshot {
+
+    /**
+     * Mirrors the battery threshold used by {@link Drone}
+     * to allow loading and to reset the drone state
+     */
+    private static final int MIN_BATTERY_LEVEL = 25;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_ROW = -1;
+
+    private static final Drone.State[] STATES = Drone.State.values();
+    private static final Drone.Model[] MODELS = Drone.Model.values();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /*
+     * Serial number dictionary
+     */
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private int[] rowByCode = new int[INITIAL_CAPACITY];
+
+    /*
+     * Columns
+     */
+    private int size = 0;
+    private int[] serialCodes = new int[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private byte[] models = new byte[INITIAL_CAPACITY];
+    private int[] batteryLevels = new int[INITIAL_CAPACITY];
+    private int[] weightLimits = new int[INITIAL_CAPACITY];
+    private int[] loads = new int[INITIAL_CAPACITY];
+
+    /**
+     * Loaded medications, keyed by their code, packing the
+     * serial code of the drone they're loaded into in the
+     * upper 32 bits and their weight in the lower 32 bits.
+     * Required to know how much weight to move around when
+     * a medication is unloaded or its weight changes.
+     */
+    private final Map<String, Long> loadedMedications = new HashMap<>();
+
+    /**
+     * Loadable drones ordered by remaining capacity. Each key packs
+     * the remaining capacity in the upper 32 bits and the drone's
+     * serial code in the lower 32 bits, so drones with the same
+     * remaining capacity don't collide.
+     */
+    private final NavigableSet<Long> capacityIndex = new TreeSet<>();
+
+    /*
+     * Summary counters
+     */
+    private final int[] stateCounts = new int[STATES.length];
+    private final int[] modelCounts = new int[MODELS.length];
+    private int lowBatteryCount = 0;
+    private long totalLoad = 0;
+
+    /**
+     * Discards the current contents and reads the whole
+     * fleet and its load from the database
+     */
+    public void rebuild(DroneRepository drones, MedicationRepository medications) {
+
+        lock.writeLock().lock();
+        try {
+
+            dictionary.clear();
+            dictionaryCodes.clear();
+            Arrays.fill(rowByCode, NO_ROW);
+            loadedMedications.clear();
+            capacityIndex.clear();
+            Arrays.fill(stateCounts, 0);
+            Arrays.fill(modelCounts, 0);
+            lowBatteryCount = 0;
+            totalLoad = 0;
+            size = 0;
+
+            drones.scan(chunk -> chunk.forEach(this::upsert));
+            medications.scan(chunk -> chunk.forEach(medication -> {
+                if(medication.getAssociatedDrone() != null) load(medication);
+            }));
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+    }
+
+    /**
+     * Rebuilds the snapshot from the database to correct any drift
+     * from writes that didn't go through the repositories
+     * @return whether the summary before rebuilding differed
+     *         from the one read from the database
+     */
+    public boolean reconcile(DroneRepository drones, MedicationRepository medications) {
+
+        lock.writeLock().lock();
+        try {
+
+            Summary before = summary();
+            rebuild(drones, medications);
+            return !before.equals(summary());
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+    }
+
+    /**
+     * @return listener keeping the snapshot in sync with the drone table
+     */
+    public RepositoryListener<Drone, String> droneListener() {
+
+        return new RepositoryListener<Drone, String>() {
+
+            @Override
+            public void created(Drone drone) {
+                write(() -> upsert(drone));
+            }
+
+            @Override
+            public void updated(Drone drone, String previousSerialNumber) {
+                write(() -> {
+                    if(!previousSerialNumber.equals(drone.id())) rename(previousSerialNumber, drone.id());
+                    upsert(drone);
+                });
+            }
+
+            @Override
+            public void deleted(String serialNumber) {
+                write(() -> remove(serialNumber));
+            }
+
+        };
+
+    }
+
+    /**
+     * @return listener keeping the drones' load in sync with the medication table
+     */
+    public RepositoryListener<Medication, String> medicationListener() {
+
+        return new RepositoryListener<Medication, String>() {
+
+            @Override
+            public void created(Medication medication) {
+                if(medication.getAssociatedDrone() != null) write(() -> load(medication));
+            }
+
+            @Override
+            public void updated(Medication medication, String previousCode) {
+                write(() -> {
+                    unload(previousCode);
+                    if(medication.getAssociatedDrone() != null) load(medication);
+                });
+            }
+
+            @Override
+            public void deleted(String code) {
+                write(() -> unload(code));
+            }
+
+        };
+
+    }
+
+    /**
+     * @return amount of drones on the snapshot
+     */
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * @return fleet totals, taken at a single point in time
+     */
+    public Summary summary() {
+
+        lock.readLock().lock();
+        try {
+
+            Map<String, Integer> byState = new LinkedHashMap<>();
+            for(Drone.State state : STATES) byState.put(state.name(), stateCounts[state.ordinal()]);
+            Map<String, Integer> byModel = new LinkedHashMap<>();
+            for(Drone.Model model : MODELS) byModel.put(model.name(), modelCounts[model.ordinal()]);
+
+            return new Summary(size, byState, byModel, lowBatteryCount, loadedMedications.size(), totalLoad);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * Fleet totals, low battery drones being the ones under
+     * the level required to load them (25%)
+     */
+    public static class Summary {
+
+        private final int drones;
+        private final Map<String, Integer> byState;
+        private final Map<String, Integer> byModel;
+        private final int lowBattery;
+        private final int loadedMedications;
+        private final long totalLoadWeight;
+
+        private Summary(int drones, Map<String, Integer> byState, Map<String, Integer> byModel,
+                        int lowBattery, int loadedMedications, long totalLoadWeight) {
+            this.drones = drones;
+            this.byState = byState;
+            this.byModel = byModel;
+            this.lowBattery = lowBattery;
+            this.loadedMedications = loadedMedications;
+            this.totalLoadWeight = totalLoadWeight;
+        }
+
+        public int getDrones() {
+            return drones;
+        }
+
+        public Map<String, Integer> getByState() {
+            return byState;
+        }
+
+        public Map<String, Integer> getByModel() {
+            return byModel;
+        }
+
+        public int getLowBattery() {
+            return lowBattery;
+        }
+
+        public int getLoadedMedications() {
+            return loadedMedications;
+        }
+
+        public long getTotalLoadWeight() {
+            return totalLoadWeight;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+
+            if(this == other) return true;
+            if(!(other instanceof Summary)) return false;
+
+            Summary summary = (Summary) other;
+            return drones == summary.drones
+                   && lowBattery == summary.lowBattery
+                   && loadedMedications == summary.loadedMedications
+                   && totalLoadWeight == summary.totalLoadWeight
+                   && byState.equals(summary.byState)
+                   && byModel.equals(summary.byModel);
+
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(drones, byState, byModel, lowBattery, loadedMedications, totalLoadWeight);
+        }
+
+        @Override
+        public String toString() {
+            return "drones=" + drones + ", byState=" + byState + ", byModel=" + byModel + ", lowBattery=" + lowBattery
+                   + ", loadedMedications=" + loadedMedications + ", totalLoadWeight=" + totalLoadWeight;
+        }
+
+    }
+
+    /**
+     * Same criteria as {@link Drone#canBeLoaded()}
+     * @return drones that can be loaded at this moment
+     */
+    public List<Drone> available() {
+
+        lock.readLock().lock();
+        try {
+
+            int[] matches = new int[size];
+            int found = 0;
+            for(int row = 0; row < size; row++) {
+                if(isLoadable(row)) matches[found++] = row;
+            }
+            return materialise(matches, found);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * Looks up the drones able to carry the given weight on the
+     * capacity index, taking logarithmic time on the fleet size
+     * plus the amount of drones returned.
+     * Drones are returned from the one with the least remaining
+     * capacity to the one with the most, so loading the first one
+     * leaves the most capable drones free.
+     * @param weight to be carried
+     * @param limit  maximum amount of drones to return
+     * @return drones that can be loaded at this moment and whose
+     *         remaining capacity is enough to carry the given weight
+     */
+    public List<Drone> capable(int weight, int limit) {
+
+        lock.readLock().lock();
+        try {
+
+            int[] matches = new int[Math.min(limit, size)];
+            int found = 0;
+            for(long key : capacityIndex.tailSet(capacityKey(weight, 0), true)) {
+                if(found == matches.length) break;
+                matches[found++] = rowByCode[(int) key];
+            }
+            return materialise(matches, found);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * @param threshold battery level (exclusive)
+     * @return serial numbers of the drones whose battery
+     *         level is under the given threshold
+     */
+    public List<String> lowBattery(int threshold) {
+
+        lock.readLock().lock();
+        try {
+
+            List<String> lowBattery = new ArrayList<>();
+            for(int row = 0; row < size; row++) {
+                if(batteryLevels[row] < threshold) lowBattery.add(dictionary.get(serialCodes[row]));
+            }
+            return lowBattery;
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * Same criteria as {@link Drone#shouldStateBeReset()}
+     * @return serial numbers of the drones whose state should be reset
+     */
+    public List<String> resetCandidates() {
+
+        lock.readLock().lock();
+        try {
+
+            List<String> candidates = new ArrayList<>();
+            byte loading = (byte) Drone.State.LOADING.ordinal();
+            byte loaded = (byte) Drone.State.LOADED.ordinal();
+            for(int row = 0; row < size; row++) {
+                if(batteryLevels[row] < MIN_BATTERY_LEVEL && (states[row] == loading || states[row] == loaded))
+                    candidates.add(dictionary.get(serialCodes[row]));
+            }
+            return candidates;
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * @return a copy of the serial number and battery level
+     *         columns, taken at a single point in time
+     */
+    public BatteryLevels batteryLevels() {
+
+        lock.readLock().lock();
+        try {
+
+            String[] serialNumbers = new String[size];
+            for(int row = 0; row < size; row++) serialNumbers[row] = dictionary.get(serialCodes[row]);
+            return new BatteryLevels(serialNumbers, Arrays.copyOf(batteryLevels, size));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+    }
+
+    /**
+     * Serial numbers and battery levels of the fleet,
+     * where the i-th level belongs to the i-th serial
+     */
+    public static class BatteryLevels {
+
+        private final String[] serialNumbers;
+        private final int[] levels;
+
+        private BatteryLevels(String[] serialNumbers, int[] levels) {
+            this.serialNumbers = serialNumbers;
+            this.levels = levels;
+        }
+
+        public int size() {
+            return serialNumbers.length;
+        }
+
+        public String serialNumber(int index) {
+            return serialNumbers[index];
+        }
+
+        public int level(int index) {
+            return levels[index];
+        }
+
+    }
+
+    private boolean isLoadable(int row) {
+        return (states[row] == Drone.State.IDLE.ordinal() || states[row] == Drone.State.LOADING.ordinal())
+               && batteryLevels[row] > MIN_BATTERY_LEVEL;
+    }
+
+    private List<Drone> materialise(int[] rows, int count) {
+
+        List<Drone> drones = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int row = rows[i];
+            drones.add(new Drone(
+                dictionary.get(serialCodes[row]),
+                MODELS[models[row]].name(),
+                STATES[states[row]].name(),
+                weightLimits[row],
+                batteryLevels[row]));
+        }
+        return drones;
+
+    }
+
+    private void write(Runnable mutation) {
+
+        lock.writeLock().lock();
+        try {
+            mutation.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+    }
+
+    /*
+     * The following methods must be called while holding the write lock
+     */
+
+    private int codeOf(String serialNumber) {
+
+        Integer code = dictionaryCodes.get(serialNumber);
+        if(code != null) return code;
+
+        code = dictionary.size();
+        dictionary.add(serialNumber);
+        dictionaryCodes.put(serialNumber, code);
+
+        if(code >= rowByCode.length) {
+            int previousLength = rowByCode.length;
+            rowByCode = Arrays.copyOf(rowByCode, previousLength * 2);
+            Arrays.fill(rowByCode, previousLength, rowByCode.length, NO_ROW);
+        }
+        rowByCode[code] = NO_ROW;
+
+        return code;
+
+    }
+
+    private void upsert(Drone drone) {
+
+        int code = codeOf(drone.id());
+        int row = rowByCode[code];
+
+        if(row == NO_ROW) {
+            if(size == serialCodes.length) grow();
+            row = size++;
+            serialCodes[row] = code;
+            loads[row] = 0;
+            rowByCode[code] = row;
+        } else unindex(row);
+
+        states[row] = (byte) drone.getState().ordinal();
+        models[row] = (byte) drone.getModel().ordinal();
+        batteryLevels[row] = drone.getBatteryLevel();
+        weightLimits[row] = drone.getWeightLimit();
+
+        index(row);
+
+    }
+
+    private void remove(String serialNumber) {
+
+        Integer code = dictionaryCodes.get(serialNumber);
+        if(code == null || rowByCode[code] == NO_ROW) return;
+
+        int row = rowByCode[code];
+        int last = --size;
+
+        unindex(row);
+
+        serialCodes[row] = serialCodes[last];
+        states[row] = states[last];
+        models[row] = models[last];
+        batteryLevels[row] = batteryLevels[last];
+        weightLimits[row] = weightLimits[last];
+        loads[row] = loads[last];
+
+        rowByCode[serialCodes[row]] = row;
+        rowByCode[code] = NO_ROW;
+
+    }
+
+    /**
+     * Moves the drone's row and the medications loaded into it
+     * over to the new serial number, keeping its load
+     */
+    private void rename(String previousSerialNumber, String serialNumber) {
+
+        Integer previousCode = dictionaryCodes.get(previousSerialNumber);
+        if(previousCode == null) return;
+
+        remove(serialNumber);
+        int code = codeOf(serialNumber);
+
+        int row = rowByCode[previousCode];
+        if(row != NO_ROW) {
+            unindex(row);
+            serialCodes[row] = code;
+            rowByCode[code] = row;
+            rowByCode[previousCode] = NO_ROW;
+            index(row);
+        }
+
+        loadedMedications.replaceAll((medication, packed) -> (int) (packed >>> 32) == previousCode
+                                                             ? ((long) code << 32) | (packed & 0xFFFFFFFFL)
+                                                             : packed);
+
+    }
+
+    private void load(Medication medication) {
+
+        // Notifications of writes already read by a rebuild reach the
+        // snapshot after it, so the previous load is replaced, not added to
+        unload(medication.id());
+
+        int code = codeOf(medication.getAssociatedDrone().id());
+        loadedMedications.put(medication.id(), ((long) code << 32) | (medication.getWeight() & 0xFFFFFFFFL));
+
+        int row = rowByCode[code];
+        if(row != NO_ROW) {
+            unindex(row);
+            loads[row] += medication.getWeight();
+            index(row);
+        }
+
+    }
+
+    private void unload(String medicationCode) {
+
+        Long packed = loadedMedications.remove(medicationCode);
+        if(packed == null) return;
+
+        int row = rowByCode[(int) (packed >>> 32)];
+        if(row != NO_ROW) {
+            unindex(row);
+            loads[row] -= (int) packed.longValue();
+            index(row);
+        }
+
+    }
+
+    private static long capacityKey(int remainingCapacity, int serialCode) {
+        return ((long) remainingCapacity << 32) | serialCode;
+    }
+
+    /**
+     * Adds the row to the capacity index and the summary counters,
+     * every change to a row happens between {@link #unindex} and
+     * {@link #index} so both are kept up to date
+     */
+    private void index(int row) {
+        if(isLoadable(row)) capacityIndex.add(capacityKey(weightLimits[row] - loads[row], serialCodes[row]));
+        count(row, 1);
+    }
+
+    private void unindex(int row) {
+        capacityIndex.remove(capacityKey(weightLimits[row] - loads[row], serialCodes[row]));
+        count(row, -1);
+    }
+
+    private void count(int row, int sign) {
+        stateCounts[states[row]] += sign;
+        modelCounts[models[row]] += sign;
+        if(batteryLevels[row] < MIN_BATTERY_LEVEL) lowBatteryCount += sign;
+        totalLoad += sign * loads[row];
+    }
+
+    private void grow() {
+
+        int capacity = serialCodes.length * 2;
+        serialCodes = Arrays.copyOf(serialCodes, capacity);
+        states = Arrays.copyOf(states, capacity);
+        models = Arrays.copyOf(models, capacity);
+        batteryLevels = Arrays.copyOf(batteryLevels, capacity);
+        weightLimits = Arrays.copyOf(weightLimits, capacity);
+        loads = Arrays.copyOf(loads, capacity);
+
+    }
+
+}
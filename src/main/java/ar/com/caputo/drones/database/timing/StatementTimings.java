@@ -0,0 +1,253 @@
+package ar.com.caputo.drones.database.timing;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import ar.com.caputo.drones.tracing.RequestTiming;
+
+/**
+ * Time taken by the SQL statements run through a
+ * {@link TimedConnectionSource}, aggregated by their normalized
+ * text, that is, with their literals replaced by {@code ?} and
+ * their parameter lists collapsed, so statements only differing
+ * on their values or the length of an {@code IN} list share
+ * their histogram.
+ * <p>
+ * Statements taking longer than the slow statement threshold
+ * are also logged along with the code of the service running
+ * them and the correlation ID of the request they were run
+ * for, if any, the latest {@value #MAX_SLOW_STATEMENTS} being kept.
+ */
+public class StatementTimings {
+
+    /**
+     * Upper bounds of the histogram buckets, in microseconds,
+     * the last bucket holding every slower statement
+     */
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+        50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 1_000_000
+    };
+
+    /**
+     * Amount of distinct statements timed on their own, any
+     * other being aggregated under {@value #OTHER_STATEMENTS}
+     */
+    public static final int MAX_STATEMENTS = 500;
+    public static final String OTHER_STATEMENTS = "(other)";
+
+    public static final int MAX_SLOW_STATEMENTS = 100;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w`\"])-?\\d+(?:\\.\\d+)?(?![\\w`\"])");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Normalized text of the statements seen, so
+     * prepared ones are only normalized once
+     */
+    private final ConcurrentHashMap<String, String> normalized = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Deque<Map<String, Object>> slowStatements = new ArrayDeque<>(MAX_SLOW_STATEMENTS);
+    private final Logger logger = System.getLogger("SLOW STATEMENT LOG");
+
+    /**
+     * Time (in milliseconds) above which statements
+     * are logged, negative to log none
+     */
+    private volatile long slowThresholdMillis = 200L;
+
+    private static final class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+            for(int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        private void record(long nanos) {
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = 0;
+            while(bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) bucket++;
+
+            buckets[bucket].increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+
+        }
+
+        /**
+         * @return the upper bound (in milliseconds) of the bucket
+         *         holding the given percentile, the maximum time
+         *         taken if it's lower or it's the last bucket
+         */
+        private double percentileMillis(long[] counts, long total, double percentile) {
+
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+                seen += counts[i];
+                if(seen >= rank) return Math.min(BUCKET_BOUNDS_MICROS[i] / 1000d, maxNanos.get() / 1e6);
+            }
+            return maxNanos.get() / 1e6;
+
+        }
+
+        private Map<String, Object> toMap(String sql) {
+
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for(int i = 0; i < buckets.length; i++) total += counts[i] = buckets[i].sum();
+
+            Map<String, Long> bucketCounts = new LinkedHashMap<>();
+            for(int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++)
+                bucketCounts.put("le" + BUCKET_BOUNDS_MICROS[i] / 1000d + "ms", counts[i]);
+            bucketCounts.put("gt" + BUCKET_BOUNDS_MICROS[BUCKET_BOUNDS_MICROS.length - 1] / 1000d + "ms", counts[BUCKET_BOUNDS_MICROS.length]);
+
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("sql", sql);
+            metrics.put("count", total);
+            metrics.put("totalMillis", totalNanos.sum() / 1e6);
+            metrics.put("meanMillis", total == 0 ? 0 : totalNanos.sum() / 1e6 / total);
+            metrics.put("maxMillis", maxNanos.get() / 1e6);
+            metrics.put("p50Millis", percentileMillis(counts, total, 0.50));
+            metrics.put("p95Millis", percentileMillis(counts, total, 0.95));
+            metrics.put("p99Millis", percentileMillis(counts, total, 0.99));
+            metrics.put("buckets", bucketCounts);
+            return metrics;
+
+        }
+
+    }
+
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdMillis = slowThresholdMillis;
+    }
+
+    public long getSlowThresholdMillis() {
+        return slowThresholdMillis;
+    }
+
+    /**
+     * @return {@code sql} with its literals replaced by {@code ?}, its
+     *         lists of parameters collapsed into {@code ?...} and its
+     *         whitespace collapsed into single spaces
+     */
+    public String normalize(String sql) {
+
+        String cached = normalized.get(sql);
+        if(cached != null) return cached;
+
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        result = PARAMETER_LIST.matcher(result).replaceAll("?...");
+        result = WHITESPACE.matcher(result).replaceAll(" ").strip();
+
+        // Bounded, since statements built with their values inlined all differ
+        if(normalized.size() < MAX_STATEMENTS * 4) normalized.put(sql, result);
+        return result;
+
+    }
+
+    /**
+     * Records a run of a statement, logging it if it
+     * took longer than the slow statement threshold
+     * @param sql   normalized text of the statement
+     * @param nanos time taken by the run
+     */
+    public void record(String sql, long nanos) {
+
+        Histogram histogram = histograms.get(sql);
+        if(histogram == null) {
+            String key = histograms.size() < MAX_STATEMENTS ? sql : OTHER_STATEMENTS;
+            histogram = histograms.computeIfAbsent(key, ignored -> new Histogram());
+        }
+        histogram.record(nanos);
+
+        long threshold = slowThresholdMillis;
+        if(threshold >= 0 && nanos > TimeUnit.MILLISECONDS.toNanos(threshold)) logSlow(sql, nanos);
+
+    }
+
+    private void logSlow(String sql, long nanos) {
+
+        String caller = caller();
+        double millis = nanos / 1e6;
+        RequestTiming request = RequestTiming.current();
+        String correlationId = request == null ? null : request.getCorrelationId();
+        logger.log(Level.WARNING, "Statement took " + millis + " ms in " + caller
+                                  + (correlationId == null ? "" : " (request " + correlationId + ")") + ": " + sql);
+
+        Map<String, Object> slow = new LinkedHashMap<>();
+        slow.put("sql", sql);
+        slow.put("millis", millis);
+        slow.put("caller", caller);
+        slow.put("correlationId", correlationId);
+        slow.put("timestamp", System.currentTimeMillis());
+
+        synchronized(slowStatements) {
+            if(slowStatements.size() == MAX_SLOW_STATEMENTS) slowStatements.removeFirst();
+            slowStatements.addLast(slow);
+        }
+
+    }
+
+    /**
+     * @return the first method of the service on the current stack
+     *         outside of the storage layer, which is the one that
+     *         knows why the statement was run
+     */
+    private static String caller() {
+
+        return StackWalker.getInstance().walk(frames -> frames
+            .filter(frame -> frame.getClassName().startsWith("ar.com.caputo.drones.")
+                             && !frame.getClassName().startsWith("ar.com.caputo.drones.database.timing.")
+                             && !frame.getClassName().startsWith("ar.com.caputo.drones.database.engine."))
+            .findFirst()
+            .map(frame -> frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1)
+                          + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+            .orElse("unknown"));
+
+    }
+
+    /**
+     * @return the histogram of every statement, the ones that took
+     *         the longest in total first, along with the latest
+     *         statements slower than the threshold
+     */
+    public Map<String, Object> getMetrics() {
+
+        List<Map<String, Object>> statements = new ArrayList<>(histograms.size());
+        histograms.forEach((sql, histogram) -> statements.add(histogram.toMap(sql)));
+        statements.sort(Comparator.comparing((Map<String, Object> statement) -> (Double) statement.get("totalMillis")).reversed());
+
+        List<Map<String, Object>> slow;
+        synchronized(slowStatements) {
+            slow = new ArrayList<>(slowStatements);
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("slowThresholdMillis", slowThresholdMillis);
+        metrics.put("statements", statements);
+        metrics.put("slowStatements", slow);
+        return metrics;
+
+    }
+
+}
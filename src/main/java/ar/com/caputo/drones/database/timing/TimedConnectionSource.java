@@ -0,0 +1,98 @@
+package ar.com.caputo.drones.database.timing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import ar.com.caputo.drones.tracing.RequestTiming;
+import ar.com.caputo.drones.tracing.RequestTiming.Span;
+import ar.com.caputo.drones.tracing.RequestTiming.Stage;
+
+/**
+ * JDBC connection source timing every statement run on its
+ * connections on a {@link StatementTimings}, whether it was
+ * run by ORMLite or directly on the underlying connection.
+ * <p>
+ * Only the execution is timed, not the mapping of the rows,
+ * so slow statements can be told from slow mapping. It's also
+ * counted as the {@link Stage#DB} stage of the request being
+ * served, if any.
+ */
+public class TimedConnectionSource extends JdbcConnectionSource {
+
+    private final StatementTimings timings;
+
+    public TimedConnectionSource(String url, StatementTimings timings) throws SQLException {
+        super(url);
+        this.timings = timings;
+    }
+
+    @Override
+    protected DatabaseConnection makeConnection(Logger logger) throws SQLException {
+        Connection connection = ((JdbcDatabaseConnection) super.makeConnection(logger)).getUnderlyingConnection();
+        return new JdbcDatabaseConnection(timed(connection));
+    }
+
+    private Connection timed(Connection connection) {
+
+        Connection[] proxy = new Connection[1];
+        proxy[0] = (Connection) Proxy.newProxyInstance(TimedConnectionSource.class.getClassLoader(), new Class<?>[]{Connection.class},
+            (target, method, args) -> {
+
+                Object result = forward(connection, method, args);
+                if(method.getName().equals("prepareStatement"))
+                    return timed(proxy[0], (Statement) result, PreparedStatement.class, timings.normalize((String) args[0]));
+                if(method.getName().equals("createStatement"))
+                    return timed(proxy[0], (Statement) result, Statement.class, null);
+                return result;
+
+            });
+        return proxy[0];
+
+    }
+
+    /**
+     * @param sql normalized text of the statement if it's
+     *            prepared, otherwise it's read on every run
+     */
+    private Statement timed(Connection connection, Statement statement, Class<? extends Statement> type, String sql) {
+
+        InvocationHandler handler = (target, method, args) -> {
+
+            if(method.getName().equals("getConnection")) return connection;
+            if(!method.getName().startsWith("execute")) return forward(statement, method, args);
+
+            long start = System.nanoTime();
+            try(Span db = RequestTiming.enter(Stage.DB)) {
+                return forward(statement, method, args);
+            } finally {
+                timings.record(sql != null ? sql
+                               : args != null && args.length > 0 && args[0] instanceof String ? timings.normalize((String) args[0])
+                               : "(batch)",
+                               System.nanoTime() - start);
+            }
+
+        };
+        return (Statement) Proxy.newProxyInstance(TimedConnectionSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package ar.com.caputo.drones.exception;
+
+/**
+ * This exception is thrown whenever an operation of a batch
+ * fails, rolling back every operation of the batch.
+ */
+public class BatchOperationFailedException extends RuntimeException {
+
+    private final int index;
+    private final int status;
+
+    public BatchOperationFailedException(int index, int status) {
+        super(String.format("Operation %d failed with status %d, the batch was rolled back", index, status));
+        this.index = index;
+        this.status = status;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+}
@@ -0,0 +1,14 @@
+package ar.com.caputo.drones.exception;
+
+/**
+ * This exception is thrown whenever an idempotency key is
+ * sent along with a request other than the one it was first
+ * sent with.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException(String key) {
+        super(String.format("Idempotency key %s was already used for a different request", key));
+    }
+
+}
@@ -0,0 +1,79 @@
+package ar.com.caputo.drones.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Tick of the battery audit, lasting from its start until
+ * every shard is processed, or only until it's skipped
+ * when the previous tick is still running
+ */
+@Name("ar.com.caputo.drones.BatteryAuditTick")
+@Label("Battery Audit Tick")
+@Category({"Drones", "Tasks"})
+@Description("Tick of the battery level audit")
+@StackTrace(false)
+public final class BatteryAuditTickEvent extends Event {
+
+    @Label("Tick")
+    long tick;
+
+    @Label("Lag")
+    @Description("How late the tick started compared to its schedule")
+    @Timespan(Timespan.MILLISECONDS)
+    long lag;
+
+    @Label("Skipped")
+    boolean skipped;
+
+    @Label("Shards")
+    int shards;
+
+    @Label("Reset Candidates")
+    @Description("Drones looked at to have their state reset")
+    int resetCandidates;
+
+    @Label("Logged Drones")
+    int loggedDrones;
+
+    @Label("Unchanged Drones")
+    @Description("Drones left out of the audit since their level barely moved")
+    int unchangedDrones;
+
+    @Label("Failed")
+    boolean failed;
+
+    public void skipped(long tick, long lagMillis) {
+
+        end();
+        if(!shouldCommit()) return;
+
+        this.tick = tick;
+        this.lag = lagMillis;
+        this.skipped = true;
+        commit();
+
+    }
+
+    public void processed(long tick, long lagMillis, int shards, int resetCandidates, int loggedDrones, int unchangedDrones, boolean failed) {
+
+        end();
+        if(!shouldCommit()) return;
+
+        this.tick = tick;
+        this.lag = lagMillis;
+        this.shards = shards;
+        this.resetCandidates = resetCandidates;
+        this.loggedDrones = loggedDrones;
+        this.unchangedDrones = unchangedDrones;
+        this.failed = failed;
+        commit();
+
+    }
+
+}
@@ -0,0 +1,48 @@
+package ar.com.caputo.drones.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Download of a medication case image to validate its format,
+ * recorded with its stack trace so the request or replay
+ * waiting on it can be told
+ */
+@Name("ar.com.caputo.drones.ImageFetch")
+@Label("Image Fetch")
+@Category({"Drones", "Validation"})
+@Description("Download of a medication case image to validate its format")
+public final class ImageFetchEvent extends Event {
+
+    @Label("URL")
+    String url;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Format")
+    String format;
+
+    @Label("Valid")
+    @Description("Whether the image could be read and has a supported format")
+    boolean valid;
+
+    public void fetched(String url, long size, String format, boolean valid) {
+
+        end();
+        if(!shouldCommit()) return;
+
+        this.url = url;
+        this.size = size;
+        this.format = format;
+        this.valid = valid;
+        commit();
+
+    }
+
+}
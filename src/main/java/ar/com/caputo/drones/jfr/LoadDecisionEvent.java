@@ -0,0 +1,59 @@
+package ar.com.caputo.drones.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Decision on loading a medication to a drone or unloading it,
+ * lasting from the moment both are read until the decision is
+ * written, if it's accepted
+ */
+@Name("ar.com.caputo.drones.LoadDecision")
+@Label("Load Decision")
+@Category({"Drones", "Endpoints"})
+@Description("Decision on loading a medication to a drone or unloading it")
+@StackTrace(false)
+public final class LoadDecisionEvent extends Event {
+
+    public static final String LOAD = "load";
+    public static final String UNLOAD = "unload";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Drone")
+    String drone;
+
+    @Label("Medication")
+    String medication;
+
+    @Label("Medication Weight")
+    @Description("Weight of the medication, in grams")
+    int medicationWeight;
+
+    @Label("Accepted")
+    boolean accepted;
+
+    @Label("Outcome")
+    String outcome;
+
+    public void decide(String operation, String drone, String medication, int medicationWeight, boolean accepted, String outcome) {
+
+        end();
+        if(!shouldCommit()) return;
+
+        this.operation = operation;
+        this.drone = drone;
+        this.medication = medication;
+        this.medicationWeight = medicationWeight;
+        this.accepted = accepted;
+        this.outcome = outcome;
+        commit();
+
+    }
+
+}
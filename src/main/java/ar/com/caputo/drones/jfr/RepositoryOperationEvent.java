@@ -0,0 +1,55 @@
+package ar.com.caputo.drones.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Operation run by a repository on its storage, lasting from the
+ * call until it returns or fails. Scans also last while their
+ * chunks are consumed, since rows are read as they're handed over.
+ * <p>
+ * Recorded without stack traces, since there's one of these for
+ * almost every request and the caller is known from the request.
+ */
+@Name("ar.com.caputo.drones.RepositoryOperation")
+@Label("Repository Operation")
+@Category({"Drones", "Repository"})
+@Description("Operation run by a repository on its storage")
+@StackTrace(false)
+public final class RepositoryOperationEvent extends Event {
+
+    @Label("Entity Type")
+    String entityType;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Rows")
+    @Description("Rows read or written by the operation")
+    int rows;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Ends the operation and commits it if it's being recorded,
+     * the fields only being set in that case
+     */
+    public void finish(String entityType, String operation, int rows, boolean failed) {
+
+        end();
+        if(!shouldCommit()) return;
+
+        this.entityType = entityType;
+        this.operation = operation;
+        this.rows = rows;
+        this.failed = failed;
+        commit();
+
+    }
+
+}
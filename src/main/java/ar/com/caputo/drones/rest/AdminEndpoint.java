@@ -0,0 +1,71 @@
+package ar.com.caputo.drones.rest;
+
+import static spark.Spark.get;
+
+import ar.com.caputo.drones.DroneService;
+
+/**
+ * Operational information about the service itself
+ */
+public class AdminEndpoint extends ApiEndpoint {
+
+    public AdminEndpoint() {
+        super("/admin");
+    }
+
+    @Override
+    protected void registerRoutes() {
+        getAuditMetrics();
+        getAdmissionMetrics();
+        explainHotQueries();
+        getStatementTimings();
+    }
+
+    /**
+     * Retrieves the metrics of the battery audit task
+     */
+    public void getAuditMetrics() {
+
+        get(BASE_ENDPOINT + "/audit", (req, resp) -> {
+            return buildResponse(DroneService.getInstance().getBatteryLevelLogTask().getMetrics());
+        });
+
+    }
+
+    /**
+     * Retrieves the admitted and shed requests
+     * of the admission control
+     */
+    public void getAdmissionMetrics() {
+
+        get(BASE_ENDPOINT + "/admission", (req, resp) -> {
+            return buildResponse(DroneService.getInstance().getAdmissionControl().getMetrics());
+        });
+
+    }
+
+    /**
+     * Retrieves the plans the database runs the hot queries
+     * with, so missing indexes can be spotted
+     */
+    public void explainHotQueries() {
+
+        get(BASE_ENDPOINT + "/explain", (req, resp) -> {
+            return buildResponse(DroneService.getInstance().getHotQueries().explain());
+        });
+
+    }
+
+    /**
+     * Retrieves the time taken by the SQL statements run,
+     * by statement, along with the latest slow ones
+     */
+    public void getStatementTimings() {
+
+        get(BASE_ENDPOINT + "/sql", (req, resp) -> {
+            return buildResponse(DroneService.getInstance().getStatementTimings().getMetrics());
+        });
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package ar.com.caputo.drones.rest;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.exception.IdempotencyKeyReusedException;
+import ar.com.caputo.drones.exception.InvalidInputFormatException;
+import ar.com.caputo.drones.rest.IdempotencyStore.StoredResponse;
+import ar.com.caputo.drones.tracing.RequestTiming;
+import ar.com.caputo.drones.tracing.RequestTiming.Span;
+import ar.com.caputo.drones.tracing.RequestTiming.Stage;
+import spark.Request;
+import spark.Route;
+
+/**
+ * Base for every group of routes served under {@link DroneService#API_URL}
+ */
+public abstract class ApiEndpoint {
+
+    public final String BASE_ENDPOINT;
+    protected static final String PAYLOAD_ENCODING = "application/json";
+
+    public ApiEndpoint(final String BASE_ENDPOINT) {
+        this.BASE_ENDPOINT = DroneService.getInstance().API_URL + BASE_ENDPOINT;
+        registerRoutes();
+    }
+
+    protected abstract void registerRoutes();
+
+    /**
+     * Build a standardised JSON response.
+     * This response contains a single key {@code data}
+     * that contains all the object's information
+     */
+    protected final String buildResponse(Object data) {
+        try(Span serialization = RequestTiming.enter(Stage.SERIALIZE)) {
+            return DroneService.GSON.toJson(Map.of("data", data));
+        }
+    }
+
+    /**
+     * Build a standardised JSON bulk response.
+     * This response contains two keys, {@code bulkSize},
+     * which is the size of objects from the bulk response,
+     * and {@code data}, which is the list of objects from
+     * the bulk
+     */
+    protected final String buildBulkResponse(int bulkSize, List<?> data) {
+        try(Span serialization = RequestTiming.enter(Stage.SERIALIZE)) {
+            return DroneService.GSON.toJson(Map.of("bulkSize", bulkSize, "data", data));
+        }
+    }
+
+    /**
+     * @return the JSON body of the request, timed
+     *         as the parsing stage of the request
+     */
+    protected final JsonObject parseBody(Request req) {
+        try(Span parsing = RequestTiming.enter(Stage.PARSE)) {
+            return DroneService.GSON.fromJson(req.body(), JsonObject.class);
+        }
+    }
+
+    /**
+     * @return the outcome of {@code validation}, timed
+     *         as the validation stage of the request
+     */
+    protected final <R> R validated(Supplier<R> validation) {
+        try(Span validating = RequestTiming.enter(Stage.VALIDATE)) {
+            return validation.get();
+        }
+    }
+
+    protected final int parseNonNegative(String value) throws InvalidInputFormatException {
+
+        try {
+            int parsed = Integer.parseInt(value);
+            if(parsed >= 0) return parsed;
+        } catch(NumberFormatException ex) {}
+
+        throw new InvalidInputFormatException(value, "Integer greater or equal than 0");
+
+    }
+
+    protected final long parseNonNegativeLong(String value) throws InvalidInputFormatException {
+
+        try {
+            long parsed = Long.parseLong(value);
+            if(parsed >= 0) return parsed;
+        } catch(NumberFormatException ex) {}
+
+        throw new InvalidInputFormatException(value, "Long greater or equal than 0");
+
+    }
+
+    /**
+     * Makes {@code route} answer the retries of a request sent
+     * with an {@value IdempotencyStore#HEADER} header with the
+     * response of the first one, through the service's
+     * {@link IdempotencyStore}. Requests sent without the
+     * header are handed to {@code route} as usual.
+     */
+    protected final Route idempotent(Route route) {
+
+        return (req, resp) -> {
+
+            String key = req.headers(IdempotencyStore.HEADER);
+            if(key == null) return route.handle(req, resp);
+
+            if(key.isBlank() || key.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+                resp.status(400);
+                return buildResponse(new InvalidInputFormatException(key,
+                    "Non-blank String of up to " + IdempotencyStore.MAX_KEY_LENGTH + " characters").getMessage());
+            }
+
+            String fingerprint = req.requestMethod() + " " + req.pathInfo() + " "
+                                 + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(req.bodyAsBytes()));
+            boolean[] ran = {false};
+
+            StoredResponse response;
+            try {
+                response = DroneService.getInstance().getIdempotencyStore().execute(key, fingerprint, () -> {
+                    ran[0] = true;
+                    Object body = route.handle(req, resp);
+                    return new StoredResponse(resp.status(), body == null ? null : body.toString());
+                });
+            } catch(IdempotencyKeyReusedException ex) {
+                resp.status(422);
+                return buildResponse(ex.getMessage());
+            }
+
+            if(!ran[0]) {
+                resp.status(response.getStatus());
+                resp.header("Idempotent-Replayed", "true");
+            }
+            return response.getBody();
+
+        };
+
+    }
+
+}
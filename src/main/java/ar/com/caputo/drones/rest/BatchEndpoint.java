@@ -0,0 +1,241 @@
+package ar.com.caputo.drones.rest;
+
+import static spark.Spark.post;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.exception.BatchOperationFailedException;
+import ar.com.caputo.drones.exception.InvalidBulkItemException;
+import spark.Request;
+import spark.RequestResponseFactory;
+import spark.Response;
+import spark.RouteImpl;
+import spark.Spark;
+import spark.route.HttpMethod;
+import spark.route.Routes;
+import spark.routematch.RouteMatch;
+
+/**
+ * Runs several operations on the other endpoints within a single
+ * request. Operations are handed straight to the routes serving
+ * them, one after the other and in one transaction.
+ */
+public class BatchEndpoint extends ApiEndpoint {
+
+    /**
+     * Maximum amount of operations in a single batch
+     */
+    public static final int MAX_OPERATIONS = 100;
+
+    /**
+     * Status given to the operations following
+     * the one that made the batch fail
+     */
+    private static final int NOT_RUN_STATUS = 424;
+
+    /**
+     * Every route but the batch ones, built on the first
+     * batch since routes keep being registered after this
+     * endpoint is created
+     */
+    private volatile Routes routes;
+
+    public BatchEndpoint() {
+        super("/batch");
+    }
+
+    @Override
+    protected void registerRoutes() {
+        runBatch();
+    }
+
+    /**
+     * Runs every operation of the {@code operations} list in the
+     * given order, each of them being a {@code method} and a
+     * {@code path} relative to {@link DroneService#API_URL} with
+     * an optional {@code body}.
+     * This endpoint is an <b>all-or-nothing</b> endpoint, the
+     * first operation answered with an error status rolls back
+     * every operation of the batch and the rest are not run.
+     * Repository listeners are only told about the writes of a
+     * batch once it commits.
+     */
+    public void runBatch() {
+
+        post(BASE_ENDPOINT, PAYLOAD_ENCODING, (req, resp) -> {
+
+            JsonArray operations;
+            try {
+                operations = parseBody(req).getAsJsonArray("operations");
+                if(operations == null) throw new InvalidBulkItemException(req.body());
+                if(operations.size() > MAX_OPERATIONS) {
+                    resp.status(413);
+                    return buildResponse("A batch cannot hold more than " + MAX_OPERATIONS + " operations");
+                }
+                operations.forEach(this::validate);
+            } catch(InvalidBulkItemException | JsonSyntaxException | ClassCastException | IllegalStateException ex) {
+                resp.status(400);
+                return buildResponse(ex instanceof InvalidBulkItemException ? ex.getMessage() : new InvalidBulkItemException(req.body()).getMessage());
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>(operations.size());
+            boolean committed;
+            try {
+
+                DroneService.getInstance().getDroneEnpoint().getRepository().callInTransaction(() -> {
+                    for(int i = 0; i < operations.size(); i++) {
+                        Map<String, Object> result = run(req, resp, operations.get(i).getAsJsonObject());
+                        results.add(result);
+                        int status = (int) result.get("status");
+                        if(status >= 400) throw new BatchOperationFailedException(i, status);
+                    }
+                    return null;
+                });
+                committed = true;
+
+            } catch(BatchOperationFailedException | SQLException ex) {
+
+                // SQL transactions hand the failure wrapped
+                BatchOperationFailedException failure = ex instanceof BatchOperationFailedException
+                                                        ? (BatchOperationFailedException) ex
+                                                        : ex.getCause() instanceof BatchOperationFailedException
+                                                          ? (BatchOperationFailedException) ex.getCause()
+                                                          : null;
+                if(failure == null) {
+                    resp.status(500);
+                    return buildResponse(ex.getMessage());
+                }
+
+                for(int i = failure.getIndex() + 1; i < operations.size(); i++) results.add(result(NOT_RUN_STATUS, JsonNull.INSTANCE));
+                committed = false;
+                resp.status(409);
+
+            }
+
+            Map<String, Object> batch = new LinkedHashMap<>();
+            batch.put("committed", committed);
+            batch.put("results", results);
+            return buildResponse(batch);
+
+        });
+
+    }
+
+    /**
+     * @throws InvalidBulkItemException if the operation has no
+     *         valid method or path
+     */
+    private void validate(JsonElement operation) throws InvalidBulkItemException {
+
+        if(operation.isJsonObject()) {
+
+            JsonObject object = operation.getAsJsonObject();
+            JsonElement method = object.get("method");
+            JsonElement path = object.get("path");
+
+            if(method != null && method.isJsonPrimitive() && path != null && path.isJsonPrimitive()
+               && path.getAsString().startsWith("/") && httpMethod(method.getAsString()) != null)
+                return;
+
+        }
+
+        throw new InvalidBulkItemException(operation.toString());
+
+    }
+
+    private HttpMethod httpMethod(String method) {
+
+        switch(method.toLowerCase(Locale.ROOT)) {
+            case "get": return HttpMethod.get;
+            case "post": return HttpMethod.post;
+            case "put": return HttpMethod.put;
+            case "patch": return HttpMethod.patch;
+            case "delete": return HttpMethod.delete;
+            default: return null;
+        }
+
+    }
+
+    /**
+     * Hands the operation to the route serving it
+     * @return the status and body the route answered with
+     */
+    private Map<String, Object> run(Request batchRequest, Response batchResponse, JsonObject operation) {
+
+        HttpMethod method = httpMethod(operation.get("method").getAsString());
+        String path = operation.get("path").getAsString();
+        int querySeparator = path.indexOf('?');
+        String uri = DroneService.getInstance().API_URL + (querySeparator < 0 ? path : path.substring(0, querySeparator));
+        String queryString = querySeparator < 0 ? null : path.substring(querySeparator + 1);
+        JsonElement body = operation.get("body");
+
+        RouteMatch match = routes().find(method, uri, PAYLOAD_ENCODING);
+        if(match == null) return result(404, JsonNull.INSTANCE);
+
+        BatchServletRequest servletRequest = new BatchServletRequest(batchRequest.raw(), method.name().toUpperCase(Locale.ROOT),
+                                                                     uri, queryString, body == null ? null : body.toString());
+        BatchServletResponse servletResponse = new BatchServletResponse(batchResponse.raw());
+
+        try {
+
+            RouteImpl route = (RouteImpl) match.getTarget();
+            Object answer = route.handle(RequestResponseFactory.create(match, servletRequest),
+                                         RequestResponseFactory.create(servletResponse));
+
+            String written = servletResponse.getWrittenBody();
+            if(written != null) return result(servletResponse.getStatus(), parse(written));
+            return result(servletResponse.getStatus(), answer == null ? JsonNull.INSTANCE : parse(String.valueOf(route.render(answer))));
+
+        } catch(Exception ex) {
+            return result(500, new JsonPrimitive(String.valueOf(ex.getMessage())));
+        }
+
+    }
+
+    private Map<String, Object> result(int status, JsonElement body) {
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", status);
+        result.put("body", body);
+        return result;
+
+    }
+
+    private JsonElement parse(String body) {
+
+        try {
+            return JsonParser.parseString(body);
+        } catch(JsonSyntaxException ex) {
+            return new JsonPrimitive(body);
+        }
+
+    }
+
+    private Routes routes() {
+
+        if(routes == null) {
+            Routes table = Routes.create();
+            for(RouteMatch route : Spark.routes())
+                if(route.getTarget() instanceof RouteImpl && !route.getMatchUri().startsWith(BASE_ENDPOINT))
+                    table.add(route.getHttpMethod(), (RouteImpl) route.getTarget());
+            routes = table;
+        }
+        return routes;
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package ar.com.caputo.drones.rest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request of a single {@link BatchEndpoint} operation, everything
+ * but the method, target and body is taken from the batch request
+ */
+class BatchServletRequest extends HttpServletRequestWrapper {
+
+    private final String method;
+    private final String uri;
+    private final String queryString;
+    private final byte[] body;
+    private final Map<String, String[]> parameters = new LinkedHashMap<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    BatchServletRequest(HttpServletRequest batchRequest, String method, String uri, String queryString, String body) {
+
+        super(batchRequest);
+        this.method = method;
+        this.uri = uri;
+        this.queryString = queryString;
+        this.body = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+
+        if(queryString != null) {
+            for(String pair : queryString.split("&")) {
+                if(pair.isEmpty()) continue;
+                int separator = pair.indexOf('=');
+                String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), StandardCharsets.UTF_8);
+                String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+                parameters.merge(name, new String[]{value}, (previous, added) -> {
+                    String[] merged = new String[previous.length + 1];
+                    System.arraycopy(previous, 0, merged, 0, previous.length);
+                    merged[previous.length] = added[0];
+                    return merged;
+                });
+            }
+        }
+
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return uri;
+    }
+
+    @Override
+    public String getServletPath() {
+        return "";
+    }
+
+    /**
+     * Operations are part of the batch request, so
+     * they're never idempotent on their own
+     */
+    @Override
+    public String getHeader(String name) {
+        return IdempotencyStore.HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String getContentType() {
+        return ApiEndpoint.PAYLOAD_ENCODING;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+
+        ByteArrayInputStream input = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+}
@@ -0,0 +1,135 @@
+package ar.com.caputo.drones.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response of a single {@link BatchEndpoint} operation, keeping
+ * its status and whatever the route streamed instead of sending
+ * them through the batch response
+ */
+class BatchServletResponse extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int status = SC_OK;
+    private String contentType;
+    private PrintWriter writer;
+
+    BatchServletResponse(HttpServletResponse batchResponse) {
+        super(batchResponse);
+    }
+
+    /**
+     * @return what the route wrote on the response,
+     *         {@code null} if it didn't write anything
+     */
+    String getWrittenBody() {
+        if(writer != null) writer.flush();
+        return body.size() == 0 ? null : body.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(int status, String message) {
+        this.status = status;
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {}
+
+    @Override
+    public void addHeader(String name, String value) {}
+
+    @Override
+    public void setIntHeader(String name, int value) {}
+
+    @Override
+    public void addIntHeader(String name, int value) {}
+
+    @Override
+    public void setDateHeader(String name, long date) {}
+
+    @Override
+    public void addDateHeader(String name, long date) {}
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void flushBuffer() {}
+
+    @Override
+    public void reset() {
+        body.reset();
+        status = SC_OK;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+
+        return new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                body.write(b, off, len);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if(writer == null) writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+        return writer;
+    }
+
+}
@@ -0,0 +1,64 @@
+package ar.com.caputo.drones.rest;
+
+import static spark.Spark.get;
+
+import java.util.List;
+import java.util.Map;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.ChangeLogEntry;
+import ar.com.caputo.drones.database.repo.ChangeLogRepository;
+import ar.com.caputo.drones.exception.InvalidInputFormatException;
+
+public class ChangeFeedEndpoint extends ApiEndpoint {
+
+    /**
+     * Amount of changes returned if no limit is given
+     */
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private final ChangeLogRepository repository;
+
+    public ChangeFeedEndpoint(ChangeLogRepository repository) {
+        super("/changes");
+        this.repository = repository;
+    }
+
+    @Override
+    protected void registerRoutes() {
+        getChanges();
+    }
+
+    /**
+     * Lists the changes after the {@code since} sequence number
+     * (0 if not given) up to {@code limit} changes.
+     * Besides {@code data}, the response contains {@code next},
+     * the value of {@code since} to use on the following request.
+     */
+    public void getChanges() {
+
+        get(BASE_ENDPOINT, (req, resp) -> {
+
+            long since;
+            int limit;
+            try {
+                since = req.queryParams("since") == null ? 0 : parseNonNegativeLong(req.queryParams("since"));
+                limit = req.queryParams("limit") == null
+                        ? DEFAULT_LIMIT
+                        : Math.min(parseNonNegative(req.queryParams("limit")), MAX_LIMIT);
+            } catch(InvalidInputFormatException ex) {
+                resp.status(400);
+                return buildResponse(ex.getMessage());
+            }
+
+            List<ChangeLogEntry> changes = repository.listSince(since, limit);
+            long next = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+
+            return DroneService.GSON.toJson(Map.of("data", changes, "next", next));
+
+        });
+
+    }
+
+}
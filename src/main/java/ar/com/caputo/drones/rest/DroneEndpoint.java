@@ -7,38 +7,52 @@ import static spark.Spark.delete;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import ar.com.caputo.drones.DroneService;
 import ar.com.caputo.drones.database.model.Drone;
 import ar.com.caputo.drones.database.model.Medication;
 import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.database.repo.MedicationRepository;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot;
 import ar.com.caputo.drones.exception.InvalidBulkItemException;
 import ar.com.caputo.drones.exception.InvalidInputFormatException;
+import ar.com.caputo.drones.exception.RequestProcessingException;
 import ar.com.caputo.drones.exception.ResourceNotFoundException;
 import ar.com.caputo.drones.exception.UnmetConditionsException;
+import ar.com.caputo.drones.jfr.LoadDecisionEvent;
+import spark.Request;
 
 public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
-    protected final DroneRepository repository;
+    /**
+     * Amount of drones returned by {@link #getCapableDrones()}
+     * if no limit is given
+     */
+    private static final int DEFAULT_CAPABLE_LIMIT = 10;
 
     public DroneEndpoint() {
         super("/drones", new DroneRepository());
-        this.repository = (DroneRepository) super.repository; 
     }
 
     protected void registerRoutes() {
         super.registerRoutes();
         getAvailableDrones();
+        getCapableDrones();
         getBatteryLevel();
         getItems();
 
         loadItem();
         unloadItem();
 
+        transitionStates();
+
     }
 
     @Override
@@ -55,17 +69,44 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
     } 
 
+    /**
+     * If the {@code include=load} query parameter is present
+     * each listed drone is returned along with its load, fetched
+     * with a single query per streamed chunk of drones.
+     */
+    @Override
+    protected Function<List<Drone>, List<?>> listMapper(Request req) {
+
+        if(!"load".equals(req.queryParams("include"))) return super.listMapper(req);
+
+        return chunk -> {
+
+            Map<String, List<Medication>> loads = DroneService.getInstance().getMedicationEndpoint()
+                                                    .getRepository().listByDrones(
+                                                        chunk.stream().map(Drone::id).collect(Collectors.toList()));
+
+            return chunk.stream().map(drone -> {
+                JsonObject droneJson = DroneService.GSON.toJsonTree(drone).getAsJsonObject();
+                droneJson.add("load", DroneService.GSON.toJsonTree(loads.getOrDefault(drone.id(), List.of())));
+                return droneJson;
+            }).collect(Collectors.toList());
+
+        };
+
+    }
+
     /**
      * This endpoint will return all drones available
      * for loading, that is, drones with state IDLE
      * and with battery levels greater or equal than 25.
+     * Drones are looked up on the {@link FleetSnapshot}
+     * instead of the database.
      */
     public void getAvailableDrones() {
 
         get(BASE_ENDPOINT + "/available/", (req, resp) -> {
 
-            List<Drone> availableDrones = repository.getDao().queryForAll().stream()
-            .filter(drone -> drone.canBeLoaded()).collect(Collectors.toList());
+            List<Drone> availableDrones = DroneService.getInstance().getFleetSnapshot().available();
 
             return buildBulkResponse(availableDrones.size(), availableDrones);
 
@@ -73,6 +114,36 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
     }
 
+    /**
+     * This endpoint will return up to {@code limit} drones
+     * available for loading whose remaining capacity is
+     * enough to carry {@code weight} grams, from the one
+     * with the least remaining capacity to the one with the most.
+     * Drones are looked up on the {@link FleetSnapshot} capacity index.
+     */
+    public void getCapableDrones() {
+
+        get(BASE_ENDPOINT + "/capable/", (req, resp) -> {
+
+            int weight;
+            int limit;
+            try {
+                weight = parseNonNegative(req.queryParams("weight"));
+                limit = req.queryParams("limit") == null
+                        ? DEFAULT_CAPABLE_LIMIT
+                        : parseNonNegative(req.queryParams("limit"));
+            } catch(InvalidInputFormatException ex) {
+                resp.status(400);
+                return buildResponse(ex.getMessage());
+            }
+
+            List<Drone> capableDrones = DroneService.getInstance().getFleetSnapshot().capable(weight, limit);
+            return buildBulkResponse(capableDrones.size(), capableDrones);
+
+        });
+
+    }
+
     public void getBatteryLevel() {
 
         get(BASE_ENDPOINT + "/:id/battery", (req, resp) -> {
@@ -95,12 +166,12 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
     @Override
     public void addObject() {
 
-        post(BASE_ENDPOINT, PAYLOAD_ENCODING, (req, resp) -> {
+        post(BASE_ENDPOINT, PAYLOAD_ENCODING, idempotent((req, resp) -> {
 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class);
+            JsonObject requestBody = parseBody(req);
             
            
-            if(!payloadCanFulfilModel(requestBody)) {
+            if(!validated(() -> payloadCanFulfilModel(requestBody))) {
 
                 resp.status(400);
                 return null;
@@ -109,13 +180,13 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
             Drone toCreate;
             try { 
-                toCreate = new Drone(
+                toCreate = validated(() -> new Drone(
                     requestBody.get("serialNumber").getAsString(),
                     requestBody.get("model").getAsString(),
                     requestBody.get("state").getAsString(),
                     requestBody.get("weightLimit").getAsInt(),
                     requestBody.get("batteryLevel").getAsInt()                
-                );           
+                ));           
             } catch(IllegalArgumentException | InvalidInputFormatException ex) {
                 resp.status(400);
                 return buildResponse(ex.getMessage());
@@ -133,20 +204,21 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
                 return buildResponse(ex.getMessage()); //this was sanitised before
             }
 
-        });
+        }));
 
     }
 
     @Override
     public void bulkAdd() {
 
-        post(BASE_ENDPOINT + "/bulk/", PAYLOAD_ENCODING, (req, resp) -> {
+        post(BASE_ENDPOINT + "/bulk/", PAYLOAD_ENCODING, idempotent((req, resp) -> {
 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class); 
+            JsonObject requestBody = parseBody(req); 
             JsonArray bulkData = requestBody.get("bulk").getAsJsonArray();
             List<Drone> dronesToCreate = new ArrayList<>();
 
             try { 
+            validated(() -> {
             bulkData.forEach((jsonDrone) -> {
 
                 JsonObject toCreate = DroneService.GSON.fromJson(jsonDrone, JsonObject.class);                
@@ -169,6 +241,8 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
                 }
 
             });
+            return dronesToCreate;
+            });
 
         } catch(RuntimeException e) {
             if(e.getCause() instanceof InvalidInputFormatException ||
@@ -190,23 +264,24 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
             return buildResponse(ex.getCause().getMessage());
         }
 
-        });
+        }));
 
     }
 
     public void getItems() {
 
         get(BASE_ENDPOINT + "/:id/items", (req, resp) -> {
-            return buildResponse(repository.get(req.params(":id")).getLoad());
+            return buildResponse(DroneService.getInstance().getMedicationEndpoint().getRepository()
+                                             .listByDrone(repository.get(req.params(":id")).id()));
         });
 
     }
 
     public void loadItem() {
 
-        post(BASE_ENDPOINT + "/:id/items", (req, resp) -> {
+        post(BASE_ENDPOINT + "/:id/items", idempotent((req, resp) -> {
                 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class);
+            JsonObject requestBody = parseBody(req);
 
             String medicationCode = requestBody.get("code").getAsString();
             
@@ -214,53 +289,69 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
             Medication medication;
             try { 
 
-                targetDrone = repository.get(req.params(":id"));
-                medication = DroneService.getInstance().getMedicationEndpoint().repository.get(medicationCode);
+                targetDrone = repository.getMutable(req.params(":id"));
+                medication = DroneService.getInstance().getMedicationEndpoint().getRepository().getMutable(medicationCode);
 
             } catch(ResourceNotFoundException ex) {
                 resp.status(404);
                 return buildResponse(ex.getMessage());
             }
 
+            LoadDecisionEvent decision = new LoadDecisionEvent();
+            decision.begin();
+
             if(medication.getAssociatedDrone() != null) {
                 if(medication.getAssociatedDrone().equals(targetDrone)) {
+                    decide(decision, LoadDecisionEvent.LOAD, targetDrone, medication, true, "already loaded");
                     resp.status(200);
                     return buildResponse("Item ".concat(medicationCode).concat(" was already associated to this drone!"));
                 }
 
+                decide(decision, LoadDecisionEvent.LOAD, targetDrone, medication, false, "loaded on another drone");
                 resp.status(400);
                 return buildResponse("Item ".concat(medicationCode).concat(" is already associated to another drone!"));
             }
 
-            if(targetDrone.canBeLoaded()) {
+            if(validated(targetDrone::canBeLoaded)) {
 
-                if(targetDrone.canHold(medication.getWeight())) {
+                MedicationRepository medications = DroneService.getInstance().getMedicationEndpoint().getRepository();
+                if(validated(() -> targetDrone.canHold(medications.getLoadWeight(targetDrone.id()), medication.getWeight()))) {
                     medication.setAssociatedDrone(targetDrone);
-                    DroneService.getInstance().getMedicationEndpoint().repository.update(medication);
+                    medications.update(medication);
+                    decide(decision, LoadDecisionEvent.LOAD, targetDrone, medication, true, "loaded");
                     resp.status(200);
                     return buildResponse("Item ".concat(medicationCode).concat(" was loaded to drone ".concat(targetDrone.id())));
                 } else {
 
+                    decide(decision, LoadDecisionEvent.LOAD, targetDrone, medication, false, "exceeds weight limit");
                     resp.status(422);
                     return buildResponse("Item ".concat(medicationCode).concat( " exceeds weight limit for drone ".concat(targetDrone.id())));
 
                 }
 
             } else {
+                decide(decision, LoadDecisionEvent.LOAD, targetDrone, medication, false, "drone cannot be loaded");
                 resp.status(422);
                 return buildResponse("Drone ".concat(targetDrone.id()).concat(" cannot be loaded at this moment!"));
             }
 
 
-        });
+        }));
+
+    }
 
+    /**
+     * Commits a load or unload decision, if it's being recorded
+     */
+    private static void decide(LoadDecisionEvent decision, String operation, Drone drone, Medication medication, boolean accepted, String outcome) {
+        decision.decide(operation, drone.id(), medication.id(), medication.getWeight(), accepted, outcome);
     }
 
     public void unloadItem() {
 
         delete(BASE_ENDPOINT + "/:id/items", (req, resp) -> {
             
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class);
+            JsonObject requestBody = parseBody(req);
 
             String medicationCode = requestBody.get("code").getAsString();
             
@@ -268,15 +359,19 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
             Medication medication;
             try { 
 
-                targetDrone = repository.get(req.params(":id"));
-                medication = DroneService.getInstance().getMedicationEndpoint().repository.get(medicationCode);
+                targetDrone = repository.getMutable(req.params(":id"));
+                medication = DroneService.getInstance().getMedicationEndpoint().getRepository().getMutable(medicationCode);
 
             } catch(ResourceNotFoundException ex) {
                 resp.status(404);
                 return buildResponse(ex.getMessage());
         }
 
+            LoadDecisionEvent decision = new LoadDecisionEvent();
+            decision.begin();
+
             if(medication.getAssociatedDrone() == null) {
+                decide(decision, LoadDecisionEvent.UNLOAD, targetDrone, medication, false, "not loaded");
                 resp.status(400);
                 return buildResponse("Item ".concat(medicationCode).concat(" doesn't have any drones associated!"));
             }
@@ -285,14 +380,17 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
                 if(targetDrone.canBeUnloaded()) {
                     medication.setAssociatedDrone(null);
-                    DroneService.getInstance().getMedicationEndpoint().repository.update(medication);
+                    DroneService.getInstance().getMedicationEndpoint().getRepository().update(medication);
+                    decide(decision, LoadDecisionEvent.UNLOAD, targetDrone, medication, true, "unloaded");
                     resp.status(200);
                     return buildResponse("Item ".concat(medicationCode).concat(" was unloaded from drone ".concat(targetDrone.id())));
                 }
+                    decide(decision, LoadDecisionEvent.UNLOAD, targetDrone, medication, false, "drone cannot be unloaded");
                     resp.status(422);
                     return buildResponse("Drone ".concat(targetDrone.id()).concat(" cannot be unloaded at this moment!"));
             } else {
 
+                decide(decision, LoadDecisionEvent.UNLOAD, targetDrone, medication, false, "loaded on another drone");
                 resp.status(400);
                 return buildResponse("Item ".concat(medicationCode).concat( " is not associated to drone ".concat(targetDrone.id())));
 
@@ -302,9 +400,68 @@ public class DroneEndpoint extends RestfulEndpoint<Drone> {
 
     }
 
+    /**
+     * Moves every drone matching the given filter to the
+     * {@code target} state in a single transaction.
+     * The filter is made of the optional {@code serialNumbers},
+     * {@code state}, {@code minBatteryLevel} and {@code maxBatteryLevel}
+     * fields, requiring at least {@code serialNumbers} or {@code state}.
+     * Drones that can't be moved are reported along with the reason.
+     */
+    public void transitionStates() {
+
+        post(BASE_ENDPOINT + "/transitions/", PAYLOAD_ENCODING, idempotent((req, resp) -> {
+
+            JsonObject requestBody = parseBody(req);
+
+            List<String> serialNumbers = null;
+            Drone.State state;
+            Drone.State target;
+            Integer minBatteryLevel;
+            Integer maxBatteryLevel;
+            try {
+
+                if(requestBody == null || !requestBody.has("target")
+                   || !(requestBody.has("serialNumbers") || requestBody.has("state"))) {
+                    resp.status(400);
+                    return buildResponse("A target and either serialNumbers or state are required");
+                }
+
+                if(requestBody.has("serialNumbers")) {
+                    serialNumbers = new ArrayList<>();
+                    for(JsonElement serialNumber : requestBody.getAsJsonArray("serialNumbers"))
+                        serialNumbers.add(serialNumber.getAsString());
+                }
+                target = Drone.State.valueOf(requestBody.get("target").getAsString().strip().toUpperCase());
+                state = requestBody.has("state")
+                        ? Drone.State.valueOf(requestBody.get("state").getAsString().strip().toUpperCase())
+                        : null;
+                minBatteryLevel = requestBody.has("minBatteryLevel")
+                                  ? parseNonNegative(requestBody.get("minBatteryLevel").getAsString())
+                                  : null;
+                maxBatteryLevel = requestBody.has("maxBatteryLevel")
+                                  ? parseNonNegative(requestBody.get("maxBatteryLevel").getAsString())
+                                  : null;
+
+            } catch(IllegalArgumentException | IllegalStateException | InvalidInputFormatException ex) {
+                resp.status(400);
+                return buildResponse(ex.getMessage());
+            }
+
+            try {
+                return buildResponse(getRepository().transition(serialNumbers, state, minBatteryLevel, maxBatteryLevel, target));
+            } catch(RequestProcessingException ex) {
+                resp.status(500);
+                return buildResponse(ex.getMessage());
+            }
+
+        }));
+
+    }
+
     @Override
     public DroneRepository getRepository() {
-        return this.repository;
+        return (DroneRepository) super.getRepository();
     }
 
 }
@@ -0,0 +1,34 @@
+package ar.com.caputo.drones.rest;
+
+import static spark.Spark.get;
+
+import ar.com.caputo.drones.DroneService;
+
+/**
+ * Fleet-wide information answered from the
+ * {@link ar.com.caputo.drones.database.snapshot.FleetSnapshot}
+ */
+public class FleetEndpoint extends ApiEndpoint {
+
+    public FleetEndpoint() {
+        super("/fleet");
+    }
+
+    @Override
+    protected void registerRoutes() {
+        getSummary();
+    }
+
+    /**
+     * Retrieves the fleet totals per state and model,
+     * the low battery drones and the load of the fleet
+     */
+    public void getSummary() {
+
+        get(BASE_ENDPOINT + "/summary", (req, resp) -> {
+            return buildResponse(DroneService.getInstance().getFleetSnapshot().summary());
+        });
+
+    }
+
+}
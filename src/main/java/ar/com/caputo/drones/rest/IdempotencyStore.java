@@ -0,0 +1,168 @@
+package ar.com.caputo.drones.rest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import ar.com.caputo.drones.exception.IdempotencyKeyReusedException;
+
+/**
+ * Responses of the requests sent with an {@value #HEADER} header,
+ * kept for {@code ttlMillis} after they're completed so retries of
+ * a request are answered with them instead of running it again.
+ * <p>
+ * At most {@code capacity} completed responses are kept, the
+ * oldest ones being dropped first. Responses with a server error
+ * status are not kept, so the request can be retried.
+ */
+public class IdempotencyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    /**
+     * Longest key accepted
+     */
+    public static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Response of a completed request
+     */
+    public static final class StoredResponse {
+
+        private final int status;
+        private final String body;
+
+        public StoredResponse(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final String key;
+        private final String fingerprint;
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+        private long expiresAt = Long.MAX_VALUE;
+
+        private Entry(String key, String fingerprint) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+
+    }
+
+    private final long ttlMillis;
+    private final int capacity;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Completed entries in the order they were completed, which
+     * is also their expiration order since they share the TTL
+     */
+    private final Deque<Entry> completed = new ArrayDeque<>();
+
+    public IdempotencyStore(long ttlMillis, int capacity) {
+        this.ttlMillis = ttlMillis;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Runs {@code work} unless a request with the same key already
+     * did, in which case its response is returned, or is doing so,
+     * in which case it waits for it to complete.
+     * @param fingerprint identifies the request the key was sent
+     *                    with, a key cannot be reused with any other
+     * @throws IdempotencyKeyReusedException if the key was sent with
+     *         another request
+     */
+    public StoredResponse execute(String key, String fingerprint, Callable<StoredResponse> work) throws Exception {
+
+        while(true) {
+
+            Entry entry;
+            boolean owner = false;
+
+            synchronized(this) {
+                evict(System.currentTimeMillis());
+                entry = entries.get(key);
+                if(entry == null) {
+                    entry = new Entry(key, fingerprint);
+                    entries.put(key, entry);
+                    owner = true;
+                }
+            }
+
+            if(!entry.fingerprint.equals(fingerprint)) throw new IdempotencyKeyReusedException(key);
+
+            if(!owner) {
+                try {
+                    return entry.response.get();
+                } catch(ExecutionException ex) {
+                    // The first request failed without a response, so this one runs it
+                    continue;
+                }
+            }
+
+            StoredResponse response;
+            try {
+                response = work.call();
+            } catch(Exception | Error ex) {
+                forget(key, entry);
+                entry.response.completeExceptionally(ex);
+                throw ex;
+            }
+
+            if(response.getStatus() >= 500) forget(key, entry);
+            else synchronized(this) {
+                entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+                completed.addLast(entry);
+            }
+            entry.response.complete(response);
+            return response;
+
+        }
+
+    }
+
+    /**
+     * @return amount of keys held, including the ones in progress
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void forget(String key, Entry entry) {
+        entries.remove(key, entry);
+    }
+
+    /**
+     * Drops the expired responses, and the oldest completed
+     * ones while the store is over its capacity
+     */
+    private void evict(long now) {
+
+        while(!completed.isEmpty()) {
+            Entry entry = completed.peekFirst();
+            if(entry.expiresAt > now && completed.size() <= capacity) break;
+            completed.removeFirst();
+            entries.remove(entry.key, entry);
+        }
+
+    }
+
+}
@@ -44,11 +44,11 @@ public class MedicationEndpoint extends RestfulEndpoint<Medication> {
     @Override
     public void addObject() {
 
-        post(BASE_ENDPOINT, "application/json", (req, resp) -> {
+        post(BASE_ENDPOINT, "application/json", idempotent((req, resp) -> {
 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class);
+            JsonObject requestBody = parseBody(req);
 
-            if(!payloadCanFulfilModel(requestBody)) {
+            if(!validated(() -> payloadCanFulfilModel(requestBody))) {
 
                 resp.status(400);
                 return null;
@@ -59,10 +59,10 @@ public class MedicationEndpoint extends RestfulEndpoint<Medication> {
             try { 
                 
 
-                toCreate = new Medication(
+                toCreate = validated(() -> new Medication(
                     requestBody.get("code").getAsString(),
                     requestBody.get("name").getAsString(),
-                    requestBody.get("weight").getAsInt());
+                    requestBody.get("weight").getAsInt()));
 
                 repository.addNew(toCreate); 
                 resp.status(201);
@@ -73,20 +73,21 @@ public class MedicationEndpoint extends RestfulEndpoint<Medication> {
                 return buildResponse(ex.getMessage());
             }
 
-        });
+        }));
 
     }
 
     @Override
     public void bulkAdd() {
 
-        post(BASE_ENDPOINT + "/bulk/", PAYLOAD_ENCODING, (req, resp) -> {
+        post(BASE_ENDPOINT + "/bulk/", PAYLOAD_ENCODING, idempotent((req, resp) -> {
 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class); 
+            JsonObject requestBody = parseBody(req); 
             JsonArray bulkData = requestBody.get("bulk").getAsJsonArray();
             List<Medication> medicationsToCreate = new ArrayList<>();
 
             try { 
+            validated(() -> {
             bulkData.forEach((jsonMedication) -> {
 
                 JsonObject toCreate = DroneService.GSON.fromJson(jsonMedication, JsonObject.class);                
@@ -107,6 +108,8 @@ public class MedicationEndpoint extends RestfulEndpoint<Medication> {
                 }
 
             });
+            return medicationsToCreate;
+            });
 
         } catch(RuntimeException e) {
             if(e.getCause() instanceof InvalidInputFormatException ||
@@ -128,8 +131,13 @@ public class MedicationEndpoint extends RestfulEndpoint<Medication> {
             return buildResponse(ex.getCause().getMessage());
         }
 
-        });
+        }));
 
     }
-    
+
+    @Override
+    public MedicationRepository getRepository() {
+        return (MedicationRepository) super.getRepository();
+    }
+
 }
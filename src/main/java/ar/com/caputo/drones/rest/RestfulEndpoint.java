@@ -2,34 +2,67 @@ package ar.com.caputo.drones.rest;
 
 import static spark.Spark.get;
 import static spark.Spark.patch;
+import static spark.Spark.post;
 import static spark.Spark.delete;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import ar.com.caputo.drones.DroneService;
 import ar.com.caputo.drones.database.model.BaseEntityModel;
+import ar.com.caputo.drones.database.query.Filter;
 import ar.com.caputo.drones.database.repo.BaseCrudRepository;
+import ar.com.caputo.drones.exception.InvalidBulkItemException;
 import ar.com.caputo.drones.exception.InvalidInputFormatException;
 import ar.com.caputo.drones.exception.RequestProcessingException;
 import ar.com.caputo.drones.exception.ResourceNotFoundException;
 import ar.com.caputo.drones.exception.UnmetConditionsException;
+import ar.com.caputo.drones.tracing.RequestTiming;
+import ar.com.caputo.drones.tracing.RequestTiming.Span;
+import ar.com.caputo.drones.tracing.RequestTiming.Stage;
+import spark.Request;
+import spark.Response;
 
-public abstract class RestfulEndpoint<T extends BaseEntityModel> {
+public abstract class RestfulEndpoint<T extends BaseEntityModel> extends ApiEndpoint {
     
-    public final String BASE_ENDPOINT;
     protected final BaseCrudRepository<T,String> repository;
-    protected static final String PAYLOAD_ENCODING = "application/json";
 
+    /**
+     * Amount of ids a single lookup can hold
+     */
+    public static final int MAX_LOOKUP_IDS = 1000;
+
+    /**
+     * Query parameters of {@link #baseGet()} that
+     * are not part of its {@link Filter}
+     */
+    private static final Set<String> LISTING_PARAMETERS = Set.of("ids", "include");
+
+    /**
+     * Routes are registered before {@code repo} is assigned,
+     * which is fine since they only use it when serving requests
+     */
     public RestfulEndpoint(final String BASE_ENDPOINT, final BaseCrudRepository<T, String> repo) {
-        this.BASE_ENDPOINT = DroneService.getInstance().API_URL + BASE_ENDPOINT;
+        super(BASE_ENDPOINT);
         this.repository = repo;
-        registerRoutes();
-    
     }
 
      /**
@@ -40,27 +73,121 @@ public abstract class RestfulEndpoint<T extends BaseEntityModel> {
      */
     protected abstract boolean payloadCanFulfilModel(JsonObject payload);
 
+    @Override
     protected void registerRoutes() {
         baseGet();
+        lookup();
         getObject();
         bulkAdd();
         addObject();
+        bulkUpdate();
         updateObject();
         deleteObject();
     }
 
     /**
      * Retrieves a list with all the objects on the
-     * database plus their details
+     * database plus their details.
+     * The list can be narrowed and sorted by the query parameters
+     * described on {@link Filter}, on the fields given by the
+     * repository, which are run as a single query.
+     * If the {@code ids} query parameter is present, holding
+     * comma-separated ids, only those objects are retrieved
+     * as in {@link #lookup()}.
      */
     public void baseGet() {
         get(BASE_ENDPOINT, (req, resp) -> {
-            
-            return buildResponse(repository.listAll());
+
+            Filter<T> filter;
+            try {
+                filter = Filter.parse(req.queryMap().toMap(), repository.getFilterFields(), LISTING_PARAMETERS);
+            } catch(InvalidInputFormatException ex) {
+                resp.status(400);
+                return buildResponse(ex.getMessage());
+            }
+
+            String ids = req.queryParams("ids");
+            if(ids == null) return streamResponse(resp, filter, listMapper(req));
+
+            if(!filter.isEmpty()) {
+                resp.status(400);
+                return buildResponse("A lookup by ids cannot be filtered nor sorted");
+            }
+
+            List<String> requested = new ArrayList<>();
+            for(String id : ids.split(",")) 
+                if(!id.isBlank()) requested.add(id.trim());
+            return lookupResponse(req, resp, requested);
         
         });
     }
 
+    /**
+     * Retrieves the objects whose ids are on the {@code ids}
+     * list of the payload, read with as few queries as possible
+     * instead of one per object.
+     * The response holds the objects found, in the order their
+     * ids were given, under {@code data} and the ids that
+     * weren't found under {@code missing}.
+     */
+    public void lookup() {
+
+        post(BASE_ENDPOINT + "/lookup/", PAYLOAD_ENCODING, (req, resp) -> {
+
+            List<String> requested = new ArrayList<>();
+            try {
+                for(JsonElement id : parseBody(req).getAsJsonArray("ids"))
+                    requested.add(id.getAsString());
+            } catch(RuntimeException ex) {
+                resp.status(400);
+                return buildResponse(new InvalidInputFormatException(req.body(), "{\"ids\": [String]}").getMessage());
+            }
+
+            return lookupResponse(req, resp, requested);
+
+        });
+
+    }
+
+    /**
+     * Transforms each chunk of objects listed by {@link #baseGet()}
+     * and {@link #lookup()} before it's written to the response,
+     * which by default is left as is
+     * @param req the listing request
+     */
+    protected Function<List<T>, List<?>> listMapper(Request req) {
+        return chunk -> chunk;
+    }
+
+    /**
+     * Builds the response of a lookup of the given ids
+     * @see #lookup()
+     */
+    private String lookupResponse(Request req, Response resp, List<String> ids) {
+
+        if(ids.size() > MAX_LOOKUP_IDS) {
+            resp.status(413);
+            return buildResponse("A lookup cannot hold more than " + MAX_LOOKUP_IDS + " ids");
+        }
+
+        List<T> found;
+        try {
+            found = repository.getAll(ids);
+        } catch(RequestProcessingException ex) {
+            resp.status(500);
+            return buildResponse(ex.getMessage());
+        }
+
+        Set<String> foundIds = found.stream().map(BaseEntityModel::id).collect(Collectors.toSet());
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("data", found.isEmpty() ? found : listMapper(req).apply(found));
+        response.put("missing", ids.stream().distinct().filter(id -> !foundIds.contains(id)).collect(Collectors.toList()));
+        try(Span serialization = RequestTiming.enter(Stage.SERIALIZE)) {
+            return DroneService.GSON.toJson(response);
+        }
+
+    }
+
 
     /**
      * Retrieves the details for a specific object
@@ -98,18 +225,22 @@ public abstract class RestfulEndpoint<T extends BaseEntityModel> {
         
         patch(BASE_ENDPOINT + "/:id", (req, resp) -> {
 
-            JsonObject requestBody = DroneService.GSON.fromJson(req.body(), JsonObject.class);
+            JsonObject requestBody = parseBody(req);
 
             String id = req.params(":id");
             T toUpdate;
             try {
                 
-                toUpdate = repository.get(id);
+                toUpdate = repository.getMutable(id);
         
-                requestBody.entrySet().stream()
-                .map((entry) -> entry.getKey())
-                .collect(Collectors.toUnmodifiableList()).forEach(attribute -> {
-                    toUpdate.update(attribute, requestBody.get(attribute));
+                validated(() -> {
+                    requestBody.entrySet().stream()
+                    .map((entry) -> entry.getKey())
+                    .collect(Collectors.toUnmodifiableList()).forEach(attribute -> {
+                        toUpdate.update(attribute, requestBody.get(attribute));
+                    });
+                    repository.checkUpdate(toUpdate);
+                    return toUpdate;
                 });
 
 
@@ -131,6 +262,104 @@ public abstract class RestfulEndpoint<T extends BaseEntityModel> {
         });
     }
 
+    /**
+     * Update several objects from the database at once.
+     * The payload holds a {@code bulk} list of {@code id} and
+     * {@code changes} pairs, every object is loaded in a single
+     * read and its changes applied as in {@link #updateObject()}.
+     * Objects that can't be found or changed are reported on their
+     * own item while the rest are written as a single batch,
+     * which is <b>all-or-nothing</b>.
+     */
+    public void bulkUpdate() {
+
+        patch(BASE_ENDPOINT + "/bulk/", PAYLOAD_ENCODING, (req, resp) -> {
+
+            JsonArray bulkData;
+            try {
+                bulkData = parseBody(req).get("bulk").getAsJsonArray();
+            } catch(RuntimeException ex) {
+                resp.status(400);
+                return buildResponse(new InvalidBulkItemException(req.body()).getMessage());
+            }
+
+            List<String> ids = new ArrayList<>(bulkData.size());
+            List<JsonObject> changes = new ArrayList<>(bulkData.size());
+            for(JsonElement item : bulkData) {
+                JsonObject bulkItem = item.isJsonObject() ? item.getAsJsonObject() : null;
+                boolean valid = bulkItem != null
+                                && bulkItem.has("id") && bulkItem.get("id").isJsonPrimitive()
+                                && bulkItem.has("changes") && bulkItem.get("changes").isJsonObject();
+                ids.add(valid ? bulkItem.get("id").getAsString() : null);
+                changes.add(valid ? bulkItem.getAsJsonObject("changes") : null);
+            }
+
+            Map<String, T> found;
+            try {
+                found = repository.findAll(ids.stream().filter(Objects::nonNull).collect(Collectors.toSet()));
+            } catch(RequestProcessingException ex) {
+                resp.status(500);
+                return buildResponse(ex.getMessage());
+            }
+
+            Set<String> seen = new HashSet<>();
+            List<Map<String, Object>> items = new ArrayList<>(ids.size());
+            List<T> toUpdate = new ArrayList<>(found.size());
+
+            for(int i = 0; i < ids.size(); i++) {
+
+                String id = ids.get(i);
+                T object = id == null ? null : found.get(id);
+
+                if(id == null) items.add(bulkItemStatus(null, 400, new InvalidBulkItemException(bulkData.get(i).toString()).getMessage()));
+                else if(!seen.add(id)) items.add(bulkItemStatus(id, 409, "Duplicated id within the bulk"));
+                else if(object == null) items.add(bulkItemStatus(id, 404, null));
+                else {
+                    try {
+                        JsonObject objectChanges = changes.get(i);
+                        validated(() -> {
+                            objectChanges.keySet().forEach(attribute -> object.update(attribute, objectChanges.get(attribute)));
+                            repository.checkUpdate(object);
+                            return object;
+                        });
+                        items.add(bulkItemStatus(id, 200, object));
+                        toUpdate.add(object);
+                    } catch(UnmetConditionsException | InvalidInputFormatException ex) {
+                        items.add(bulkItemStatus(id, 400, ex.getMessage()));
+                    } catch(RequestProcessingException ex) {
+                        items.add(bulkItemStatus(id, 500, ex.getMessage()));
+                    }
+                }
+
+            }
+
+            try {
+                repository.updateBulk(toUpdate);
+            } catch(SQLException ex) {
+                resp.status(400);
+                return buildResponse(ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage());
+            }
+
+            return buildBulkResponse(toUpdate.size(), items);
+
+        });
+
+    }
+
+    /**
+     * @return the status of a {@link #bulkUpdate()} item, holding
+     *         the updated object or the reason it wasn't updated
+     */
+    private Map<String, Object> bulkItemStatus(String id, int status, Object data) {
+
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("id", id);
+        item.put("status", status);
+        if(data != null) item.put(status == 200 ? "data" : "error", data);
+        return item;
+
+    }
+
     /**
      * Delete a specific object from the database
     */
@@ -162,23 +391,92 @@ public abstract class RestfulEndpoint<T extends BaseEntityModel> {
     }
 
     /**
-     * Build a standardised JSON response.
-     * This response contains a single key {@code data}
-     * that contains all the object's information
+     * Streams a standardised JSON response with the same
+     * structure as {@link #buildResponse(Object)} containing
+     * every object on the database.
+     * Objects are read and written one chunk at a time through
+     * {@link BaseCrudRepository#scan}, so the whole table is never
+     * held in memory.
+     * <p>
+     * The response is only committed once the first chunk has been
+     * read and serialised, so a scan failing before that is answered
+     * with a regular {@code 500}. If it fails later on, when the
+     * status is already gone, the {@code data} array is closed and
+     * followed by an {@code error} member holding the reason, which
+     * complete listings never have, so clients can tell a truncated
+     * listing apart.
+     * @param resp        the route's response
+     * @param chunkMapper transforms each chunk of objects before
+     *                    it's written to the response
+     * @return the error response if the scan failed before the
+     *         response was committed, {@code null} otherwise
      */
-    protected final String buildResponse(Object data) {
-        return DroneService.GSON.toJson(Map.of("data", data));
+    protected final String streamResponse(Response resp, Function<List<T>, List<?>> chunkMapper) throws IOException {
+        return streamResponse(resp, null, chunkMapper);
     }
 
     /**
-     * Build a standardised JSON bulk response.
-     * This response contains two keys, {@code bulkSize},
-     * which is the size of objects from the bulk response,
-     * and {@code data}, which is the list of objects from
-     * the bulk
+     * Streams a standardised JSON response as
+     * {@link #streamResponse(Response, Function)} does, only
+     * containing the objects matching {@code filter}
+     * @param filter objects to stream, all of them if
+     *               {@code null} or empty
      */
-    protected final String buildBulkResponse(int bulkSize, List<?> data) {
-        return DroneService.GSON.toJson(Map.of("bulkSize", bulkSize, "data", data));
+    protected final String streamResponse(Response resp, Filter<T> filter, Function<List<T>, List<?>> chunkMapper) throws IOException {
+
+        resp.raw().setContentType(PAYLOAD_ENCODING);
+
+        JsonWriter[] stream = new JsonWriter[1];
+        Consumer<List<T>> chunkWriter = chunk -> {
+            try(Span serialization = RequestTiming.enter(Stage.SERIALIZE)) {
+
+                JsonArray objects = new JsonArray(chunk.size());
+                chunkMapper.apply(chunk).forEach(object -> objects.add(DroneService.GSON.toJsonTree(object, object.getClass())));
+
+                if(stream[0] == null) stream[0] = openStream(resp);
+                for(JsonElement object : objects) DroneService.GSON.toJson(object, stream[0]);
+
+            } catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+
+        try {
+            if(filter == null || filter.isEmpty()) repository.scan(chunkWriter);
+            else repository.scan(filter, chunkWriter);
+        } catch(UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch(RuntimeException ex) {
+
+            if(stream[0] == null) {
+                resp.status(500);
+                return buildResponse(ex.getMessage());
+            }
+
+            try(JsonWriter writer = stream[0]) {
+                writer.endArray().name("error").value(ex.getMessage()).endObject();
+            }
+            return null;
+
+        }
+
+        try(JsonWriter writer = stream[0] == null ? openStream(resp) : stream[0]) {
+            writer.endArray().endObject();
+        }
+        return null;
+
+    }
+
+    /**
+     * Commits the response of {@link #streamResponse}
+     * and opens its {@code data} array
+     */
+    private JsonWriter openStream(Response resp) throws IOException {
+
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(resp.raw().getOutputStream(), StandardCharsets.UTF_8));
+        writer.beginObject().name("data").beginArray();
+        return writer;
+
     }
 
     public BaseCrudRepository<T, String> getRepository() {
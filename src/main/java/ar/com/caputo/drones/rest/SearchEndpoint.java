@@ -0,0 +1,64 @@
+package ar.com.caputo.drones.rest;
+
+import static spark.Spark.get;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.search.SearchIndex;
+import ar.com.caputo.drones.exception.InvalidInputFormatException;
+
+/**
+ * Prefix search over drones and medications answered from the
+ * {@link ar.com.caputo.drones.database.search.SearchIndex}
+ */
+public class SearchEndpoint extends ApiEndpoint {
+
+    /**
+     * Amount of matches returned if no limit is given
+     */
+    private static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 100;
+
+    public SearchEndpoint() {
+        super("/search");
+    }
+
+    @Override
+    protected void registerRoutes() {
+        search();
+    }
+
+    /**
+     * Retrieves up to {@code limit} drones whose serial number, and
+     * medications whose code or name (or any word of it), start with
+     * {@code q}, ignoring case. The {@code type} query parameter
+     * narrows the search to either {@code drone} or {@code medication}.
+     */
+    public void search() {
+
+        get(BASE_ENDPOINT, (req, resp) -> {
+
+            String prefix = req.queryParams("q");
+            SearchIndex.Type type;
+            int limit;
+            try {
+
+                if(prefix == null || prefix.isBlank()) throw new InvalidInputFormatException(String.valueOf(prefix), "Non-blank String");
+                type = req.queryParams("type") == null ? null : SearchIndex.Type.of(req.queryParams("type"));
+                limit = req.queryParams("limit") == null ? DEFAULT_LIMIT : parseNonNegative(req.queryParams("limit"));
+                if(limit > MAX_LIMIT) throw new InvalidInputFormatException(req.queryParams("limit"), "Integer up to " + MAX_LIMIT);
+
+            } catch(IllegalArgumentException ex) {
+                resp.status(400);
+                return buildResponse(new InvalidInputFormatException(req.queryParams("type"), "drone|medication").getMessage());
+            } catch(InvalidInputFormatException ex) {
+                resp.status(400);
+                return buildResponse(ex.getMessage());
+            }
+
+            return buildResponse(DroneService.getInstance().getSearchIndex().search(prefix.strip(), type, limit));
+
+        });
+
+    }
+
+}
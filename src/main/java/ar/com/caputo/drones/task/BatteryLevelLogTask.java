@@ -1,62 +1,331 @@
 package ar.com.caputo.drones.task;
 
 import java.lang.System.Logger.Level;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.j256.ormlite.support.ConnectionSource;
 
 import ar.com.caputo.drones.DroneService;
 import ar.com.caputo.drones.database.model.BatteryAuditLog;
+import ar.com.caputo.drones.database.model.Drone;
 import ar.com.caputo.drones.database.repo.BatteryAuditLogRepository;
+import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot;
+import ar.com.caputo.drones.exception.RequestProcessingException;
+import ar.com.caputo.drones.exception.ResourceNotFoundException;
+import ar.com.caputo.drones.jfr.BatteryAuditTickEvent;
 
+/**
+ * Resets the drones that need it and logs the battery levels
+ * of the whole fleet every {@link DroneService#getLogInterval()}.
+ * <p>
+ * The fleet is split in {@link DroneService#getAuditShards()} shards
+ * by serial number hash, each one processed on a worker of its own
+ * which writes through its own database connection. Ticks only hand
+ * the shards to the workers, and a tick is skipped if the shards of
+ * the previous one are still being processed.
+ * <p>
+ * When {@link DroneService#getAuditDelta()} is set the audit is
+ * adaptive: a drone is only logged when its level moved more than
+ * that delta since its last log, or when it went
+ * {@link DroneService#getAuditHeartbeat()} ticks without one.
+ */
 public class BatteryLevelLogTask {
 
-    private BatteryAuditLogRepository repository;
-    private boolean isShutdownLog = false;
+    private final int shards;
+    private final ExecutorService workers;
+    private final BatteryAuditLogRepository[] repositories;
+    private final ConnectionSource[] connections;
+    private final LastLoggedLevels[] lastLogged;
+    private volatile boolean isShutdownLog = false;
+
+    /**
+     * Whether the shards of a tick are still being processed
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /*
+     * Metrics
+     */
+    private long firstTickNanos;
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong skippedTicks = new AtomicLong();
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+    private volatile long lastDurationMillis;
+    private volatile int lastLoggedDrones;
+    private volatile int lastUnchangedDrones;
+    private final AtomicLong loggedLevels = new AtomicLong();
+    private final AtomicLong unchangedLevels = new AtomicLong();
+    private final long[] lastShardDurationMillis;
 
     public BatteryLevelLogTask() {
-        this.repository = new BatteryAuditLogRepository();
+        this(DroneService.getInstance().getAuditShards());
     }
 
-    private Runnable task = () -> {
+    /**
+     * @param shards amount of shards the fleet is split in
+     */
+    public BatteryLevelLogTask(int shards) {
 
-        DroneService.getInstance().getDroneEnpoint().getRepository().listAll().forEach(drone -> {
+        this.shards = shards;
+        this.repositories = new BatteryAuditLogRepository[shards];
+        this.connections = new ConnectionSource[shards];
+        this.lastShardDurationMillis = new long[shards];
+        this.lastLogged = new LastLoggedLevels[shards];
 
-            // Reset the drone's state if needed 
-            if(drone.shouldStateBeReset()) {
-                if(DroneService.getInstance().getDroneEnpoint().getRepository().resetState(drone)) 
-                DroneService.getInstance().getBatteryAuditLogger().log(Level.INFO, "State for drone " + drone.getSerialNumber() + " was reset due to low battery level");   
+        for(int shard = 0; shard < shards; shard++) {
+            try {
+                connections[shard] = DroneService.getInstance().openConnection();
+            } catch (SQLException ex) {
+                DroneService.getInstance().getBatteryAuditLogger().log(Level.WARNING,
+                    "Could not open a connection for shard " + shard + ", falling back to the shared one: " + ex.getMessage());
             }
+            repositories[shard] = new BatteryAuditLogRepository(connections[shard]);
+            lastLogged[shard] = new LastLoggedLevels();
+        }
+
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(shards, runnable -> {
+            Thread worker = new Thread(runnable, "battery-audit-" + workerCount.getAndIncrement());
+            worker.setDaemon(true);
+            return worker;
+        });
+
+    }
+
+    /**
+     * Reads the drones to reset and the battery levels from the
+     * {@link FleetSnapshot} instead of the database and hands
+     * them to the workers split by shard
+     */
+    protected void tick() {
+
+        BatteryAuditTickEvent event = new BatteryAuditTickEvent();
+        event.begin();
+
+        long tick = ticks.getAndIncrement();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(DroneService.getInstance().getLogInterval());
+        long startNanos = System.nanoTime();
+
+        long lagMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, startNanos - (firstTickNanos + tick * intervalNanos)));
+        lastLagMillis = lagMillis;
+        maxLagMillis = Math.max(maxLagMillis, lagMillis);
+
+        if(!running.compareAndSet(false, true)) {
+            skippedTicks.incrementAndGet();
+            DroneService.getInstance().getBatteryAuditLogger().log(Level.WARNING, "Skipped battery audit, the previous one is still running");
+            event.skipped(tick, lagMillis);
+            return;
+        }
+
+        try {
+
+            FleetSnapshot fleet = DroneService.getInstance().getFleetSnapshot();
+            List<String> candidates = fleet.resetCandidates();
+            FleetSnapshot.BatteryLevels levels = fleet.batteryLevels();
+
+            List<List<String>> candidatesByShard = new ArrayList<>(shards);
+            for(int shard = 0; shard < shards; shard++) candidatesByShard.add(new ArrayList<>());
+            candidates.forEach(serialNumber -> candidatesByShard.get(shardOf(serialNumber)).add(serialNumber));
+
+            int[][] rowsByShard = new int[shards][];
+            int[] shardSizes = new int[shards];
+            int[] rowShards = new int[levels.size()];
+            for(int row = 0; row < levels.size(); row++)
+                shardSizes[rowShards[row] = shardOf(levels.serialNumber(row))]++;
+            for(int shard = 0; shard < shards; shard++) rowsByShard[shard] = new int[shardSizes[shard]];
+            Arrays.fill(shardSizes, 0);
+            for(int row = 0; row < levels.size(); row++)
+                rowsByShard[rowShards[row]][shardSizes[rowShards[row]]++] = row;
+
+            AtomicInteger logged = new AtomicInteger();
+            CompletableFuture<?>[] processed = new CompletableFuture<?>[shards];
+            for(int shard = 0; shard < shards; shard++) {
+                final int current = shard;
+                processed[shard] = CompletableFuture.runAsync(
+                    () -> logged.addAndGet(process(current, tick, candidatesByShard.get(current), levels, rowsByShard[current])),
+                    workers);
+            }
+
+            CompletableFuture.allOf(processed).whenComplete((result, ex) -> {
+                if(ex != null) DroneService.getInstance().getBatteryAuditLogger().log(Level.ERROR, "Battery audit failed: " + ex.getMessage());
+                lastDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                lastLoggedDrones = logged.get();
+                lastUnchangedDrones = levels.size() - logged.get();
+                loggedLevels.addAndGet(logged.get());
+                unchangedLevels.addAndGet(levels.size() - logged.get());
+                event.processed(tick, lagMillis, shards, candidates.size(), logged.get(), levels.size() - logged.get(), ex != null);
+                running.set(false);
+            });
+
+        } catch (RuntimeException ex) {
+            // Thrown out of the scheduled task it would cancel every later tick
+            DroneService.getInstance().getBatteryAuditLogger().log(Level.ERROR, "Battery audit failed: " + ex.getMessage());
+            event.processed(tick, lagMillis, shards, 0, 0, 0, true);
+            running.set(false);
+        }
+
+    }
+
+    private int shardOf(String serialNumber) {
+        return Math.floorMod(serialNumber.hashCode(), shards);
+    }
 
-            if(repository.addNew(new BatteryAuditLog(drone, isShutdownLog))) 
-             DroneService.getInstance().getBatteryAuditLogger().log(Level.INFO, "Logged battery level for drone " + drone.getSerialNumber() + " (" + drone.getBatteryLevel() + "%)");   
+    /**
+     * Resets the drones of a shard that need it and logs
+     * their battery levels in batches of
+     * {@link DroneService#getFetchSize()} logs
+     * @return the amount of battery levels logged
+     */
+    protected int process(int shard, long tick, List<String> candidates, FleetSnapshot.BatteryLevels levels, int[] rows) {
+
+        long startNanos = System.nanoTime();
+        DroneRepository drones = DroneService.getInstance().getDroneEnpoint().getRepository();
+
+        candidates.forEach(serialNumber -> {
 
+            try {
+
+                Drone drone = drones.getMutable(serialNumber);
+                if(drone.shouldStateBeReset() && drones.resetState(drone))
+                    DroneService.getInstance().getBatteryAuditLogger().log(Level.INFO, "State for drone " + serialNumber + " was reset due to low battery level");
+
+            } catch(ResourceNotFoundException ex) {
+                // Deleted since the candidates were looked up
+            } catch(RequestProcessingException ex) {
+                DroneService.getInstance().getBatteryAuditLogger().log(Level.ERROR, "Could not reset drone " + serialNumber + ": " + ex.getMessage());
+            }
 
         });
 
-    };
+        int batchSize = DroneService.getInstance().getFetchSize();
+        int delta = DroneService.getInstance().getAuditDelta();
+        int heartbeat = DroneService.getInstance().getAuditHeartbeat();
+        LastLoggedLevels shardLevels = lastLogged[shard];
+        int logged = 0;
+
+        List<BatteryAuditLog> logs = new ArrayList<>(Math.min(batchSize, rows.length));
+        for(int i = 0; i < rows.length; i++) {
+
+            String serialNumber = levels.serialNumber(rows[i]);
+            int level = levels.level(rows[i]);
+
+            if(delta >= 0 && !isShutdownLog && !shardLevels.shouldLog(serialNumber, level, tick, delta, heartbeat)) continue;
+
+            logs.add(new BatteryAuditLog(serialNumber, level, isShutdownLog));
+            if(logs.size() == batchSize) {
+                logged += log(shard, tick, logs);
+                logs = new ArrayList<>(batchSize);
+            }
+
+        }
+        if(!logs.isEmpty()) logged += log(shard, tick, logs);
+
+        // Drones logged at least once every heartbeat, older entries belong to deleted drones
+        if(delta >= 0 && shardLevels.size() > 2 * rows.length) shardLevels.evictBefore(tick - heartbeat + 1);
+
+        lastShardDurationMillis[shard] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return logged;
+
+    }
+
+    /**
+     * Writes a batch of logs on the connection of the shard
+     * and remembers the levels logged
+     * @return the amount of logs written
+     */
+    private int log(int shard, long tick, List<BatteryAuditLog> logs) {
+
+        try {
+            repositories[shard].addNewBulk(logs);
+            logs.forEach(log -> lastLogged[shard].logged(log.getDrone().getSerialNumber(), log.getLoggedBatteryLevel(), tick));
+            logs.forEach(log -> 
+                DroneService.getInstance().getBatteryAuditLogger().log(Level.INFO, "Logged battery level for drone " + log.getDrone().getSerialNumber() + " (" + log.getLoggedBatteryLevel() + "%)"));
+            return logs.size();
+        } catch (SQLException ex) {
+            DroneService.getInstance().getBatteryAuditLogger().log(Level.ERROR, "Could not log battery levels: " + ex.getMessage());
+            return 0;
+        }
+
+    }
     
     private ScheduledFuture<?> scheduledTask; 
 
     public void init() {
 
+        this.firstTickNanos = System.nanoTime();
         this.scheduledTask = DroneService.getInstance().getScheduler()
                             .scheduleAtFixedRate(
-                                this.task,
+                                this::tick,
                                 0,
                                 DroneService.getInstance().getLogInterval(),
                                 TimeUnit.SECONDS);
 
     }
 
+    /**
+     * @return tick and per-shard timings of the audit, lag being
+     *         how late ticks started compared to their schedule
+     */
+    public Map<String, Object> getMetrics() {
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("shards", shards);
+        metrics.put("running", running.get());
+        metrics.put("ticks", ticks.get());
+        metrics.put("skippedTicks", skippedTicks.get());
+        metrics.put("lastLagMillis", lastLagMillis);
+        metrics.put("maxLagMillis", maxLagMillis);
+        metrics.put("lastDurationMillis", lastDurationMillis);
+        metrics.put("lastLoggedDrones", lastLoggedDrones);
+        metrics.put("lastUnchangedDrones", lastUnchangedDrones);
+        metrics.put("loggedLevels", loggedLevels.get());
+        metrics.put("unchangedLevels", unchangedLevels.get());
+        metrics.put("lastShardDurationMillis", lastShardDurationMillis.clone());
+        return metrics;
+
+    }
 
     /**
      * Logs the levels immediately before shutting down
-     * and passively cancels the scheduled task
+     * and passively cancels the scheduled task, waiting up to
+     * {@link DroneService#getLogInterval()} for the shards being
+     * processed before closing their connections
      */
     public void shutdown() {
         this.isShutdownLog = true;
         scheduledTask.cancel(false);
-/*         task.run(); */
+        workers.shutdown();
+
+        try {
+            if(!workers.awaitTermination(DroneService.getInstance().getLogInterval(), TimeUnit.SECONDS))
+                DroneService.getInstance().getBatteryAuditLogger().log(Level.WARNING, "Closing the battery audit connections while it's still running");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        for(ConnectionSource connection : connections) {
+            if(connection == null) continue;
+            try {
+                connection.close();
+            } catch (Exception ex) {
+                DroneService.getInstance().getBatteryAuditLogger().log(Level.ERROR, "Could not close a battery audit connection: " + ex.getMessage());
+            }
+        }
 
     }
 }
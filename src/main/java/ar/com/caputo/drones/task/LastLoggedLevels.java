@@ -0,0 +1,112 @@
+package ar.com.caputo.drones.task;
+
+/**
+ * Open addressing table holding the last battery level logged for
+ * each drone of a shard and the tick it was logged on, kept in
+ * parallel arrays so the audit never has to query the log table.
+ * <p>
+ * Not thread safe, each shard owns a table and shards are never
+ * processed concurrently with themselves.
+ */
+class LastLoggedLevels {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] serialNumbers = new String[INITIAL_CAPACITY];
+    private byte[] levels = new byte[INITIAL_CAPACITY];
+    private long[] ticks = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @return the slot holding {@code serialNumber}, or the
+     *         (negative, minus one) free slot it would take
+     */
+    private int slotOf(String serialNumber) {
+
+        int mask = serialNumbers.length - 1;
+        int slot = mix(serialNumber.hashCode()) & mask;
+        while(serialNumbers[slot] != null) {
+            if(serialNumbers[slot].equals(serialNumber)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+
+    }
+
+    /**
+     * @return whether {@code level} should be logged for the drone on
+     *         {@code tick}, either because nothing was logged for it yet,
+     *         its level moved more than {@code delta} points since the
+     *         last log or {@code heartbeat} ticks went by without a log
+     */
+    boolean shouldLog(String serialNumber, int level, long tick, int delta, int heartbeat) {
+
+        int slot = slotOf(serialNumber);
+        return slot < 0
+               || Math.abs(level - levels[slot]) > delta
+               || tick - ticks[slot] >= heartbeat;
+
+    }
+
+    void logged(String serialNumber, int level, long tick) {
+
+        int slot = slotOf(serialNumber);
+        if(slot < 0) {
+            if((size + 1) * 4 > serialNumbers.length * 3) {
+                resize(serialNumbers.length * 2);
+                slot = slotOf(serialNumber);
+            }
+            slot = -slot - 1;
+            serialNumbers[slot] = serialNumber;
+            size++;
+        }
+        levels[slot] = (byte) level;
+        ticks[slot] = tick;
+
+    }
+
+    /**
+     * Drops the drones last logged before {@code tick}
+     */
+    void evictBefore(long tick) {
+
+        String[] oldSerialNumbers = serialNumbers;
+        byte[] oldLevels = levels;
+        long[] oldTicks = ticks;
+
+        serialNumbers = new String[oldSerialNumbers.length];
+        levels = new byte[oldSerialNumbers.length];
+        ticks = new long[oldSerialNumbers.length];
+        size = 0;
+
+        for(int slot = 0; slot < oldSerialNumbers.length; slot++)
+            if(oldSerialNumbers[slot] != null && oldTicks[slot] >= tick)
+                logged(oldSerialNumbers[slot], oldLevels[slot], oldTicks[slot]);
+
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+
+        String[] oldSerialNumbers = serialNumbers;
+        byte[] oldLevels = levels;
+        long[] oldTicks = ticks;
+
+        serialNumbers = new String[capacity];
+        levels = new byte[capacity];
+        ticks = new long[capacity];
+        size = 0;
+
+        for(int slot = 0; slot < oldSerialNumbers.length; slot++)
+            if(oldSerialNumbers[slot] != null) logged(oldSerialNumbers[slot], oldLevels[slot], oldTicks[slot]);
+
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
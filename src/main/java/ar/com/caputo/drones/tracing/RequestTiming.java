@@ -0,0 +1,156 @@
+package ar.com.caputo.drones.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Time taken by the stages of the request being served on the
+ * current thread, started by {@link #begin} and dropped by
+ * {@link #end}.
+ * <p>
+ * Stages are exclusive: entering one while another is running
+ * pauses the latter until the former is closed, so the time of
+ * the statements run while validating a payload is only counted
+ * as {@link Stage#DB}. Time spent outside of every stage, such as
+ * routing or mapping rows, is only counted in the total.
+ * <p>
+ * Entering a stage on a thread not serving a request, such as
+ * the ones of the scheduled tasks, does nothing.
+ */
+public final class RequestTiming {
+
+    public enum Stage {
+        /**
+         * Reading and parsing the JSON body of the request
+         */
+        PARSE,
+        /**
+         * Checking the payload and applying it to the models
+         */
+        VALIDATE,
+        /**
+         * Running SQL statements
+         */
+        DB,
+        /**
+         * Encoding the response in JSON
+         */
+        SERIALIZE;
+
+        public String metricName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+    }
+
+    /**
+     * Stage being timed, closing it resumes the one it paused
+     */
+    @FunctionalInterface
+    public interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Span UNTIMED = () -> {};
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final String correlationId;
+    private final long start = System.nanoTime();
+    private final long[] stageNanos = new long[Stage.values().length];
+
+    private Stage running;
+    private long runningSince;
+
+    private RequestTiming(String correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Starts timing a request on the current thread,
+     * replacing whatever request was timed on it
+     */
+    public static RequestTiming begin(String correlationId) {
+        RequestTiming timing = new RequestTiming(correlationId);
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    /**
+     * @return the request timed on the current
+     *         thread, {@code null} if there's none
+     */
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Starts timing {@code stage} on the request served
+     * on the current thread, until the span is closed
+     */
+    public static Span enter(Stage stage) {
+        RequestTiming timing = CURRENT.get();
+        return timing == null ? UNTIMED : timing.start(stage);
+    }
+
+    private Span start(Stage stage) {
+
+        long now = System.nanoTime();
+        Stage paused = running;
+        if(paused != null) stageNanos[paused.ordinal()] += now - runningSince;
+        running = stage;
+        runningSince = now;
+
+        return () -> {
+            long end = System.nanoTime();
+            stageNanos[stage.ordinal()] += end - runningSince;
+            running = paused;
+            runningSince = end;
+        };
+
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public double getTotalMillis() {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * @return the milliseconds taken by every stage entered so far
+     */
+    public Map<String, Double> getStageMillis() {
+
+        Map<String, Double> stages = new LinkedHashMap<>();
+        for(Stage stage : Stage.values())
+            if(stageNanos[stage.ordinal()] > 0) stages.put(stage.metricName(), stageNanos[stage.ordinal()] / 1e6);
+        return stages;
+
+    }
+
+    /**
+     * @return the stages entered so far and the total time
+     *         taken, as the value of a {@code Server-Timing} header
+     */
+    public String serverTiming() {
+
+        StringJoiner header = new StringJoiner(", ");
+        getStageMillis().forEach((stage, millis) -> header.add(metric(stage, millis)));
+        header.add(metric("total", getTotalMillis()));
+        return header.toString();
+
+    }
+
+    private static String metric(String name, double millis) {
+        return String.format(Locale.ROOT, "%s;dur=%.2f", name, millis);
+    }
+
+}
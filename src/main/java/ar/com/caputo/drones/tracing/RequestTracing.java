@@ -0,0 +1,90 @@
+package ar.com.caputo.drones.tracing;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import ar.com.caputo.drones.DroneService;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Tags every request with a correlation ID and times its
+ * stages through a {@link RequestTiming}.
+ * <p>
+ * The correlation ID is taken from the {@value #CORRELATION_HEADER}
+ * header, or generated if it's missing or malformed, and echoed
+ * on the same header of the response. Once the request is served,
+ * the time taken by its stages is sent on a {@code Server-Timing}
+ * header, unless the response was streamed and its headers are
+ * already gone, and logged as a JSON line for a sample of the
+ * requests and every one failing with a {@code 5xx}.
+ */
+public class RequestTracing {
+
+    public static final String CORRELATION_HEADER = "X-Correlation-Id";
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private static final Pattern CORRELATION_ID = Pattern.compile("[A-Za-z0-9._:-]{1,128}");
+
+    private final Logger logger = System.getLogger("REQUEST LOG");
+
+    /**
+     * Share of the requests logged, from {@code 0} to {@code 1}
+     */
+    private final double sampleRate;
+
+    public RequestTracing(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * {@code before} filter tagging the request and starting its timing
+     */
+    public void begin(Request req, Response resp) {
+
+        String correlationId = req.headers(CORRELATION_HEADER);
+        if(correlationId == null || !CORRELATION_ID.matcher(correlationId).matches())
+            correlationId = UUID.randomUUID().toString();
+
+        RequestTiming.begin(correlationId);
+        resp.header(CORRELATION_HEADER, correlationId);
+
+    }
+
+    /**
+     * {@code afterAfter} filter reporting the timing of the request
+     */
+    public void finish(Request req, Response resp) {
+
+        RequestTiming timing = RequestTiming.current();
+        if(timing == null) return;
+
+        try {
+
+            if(!resp.raw().isCommitted()) resp.header(SERVER_TIMING_HEADER, timing.serverTiming());
+
+            int status = resp.status();
+            boolean failed = status >= 500;
+            if(!failed && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("correlationId", timing.getCorrelationId());
+            line.put("method", req.requestMethod());
+            line.put("path", req.pathInfo());
+            line.put("status", status);
+            line.put("totalMillis", timing.getTotalMillis());
+            line.put("stages", timing.getStageMillis());
+            logger.log(failed ? Level.WARNING : Level.INFO, DroneService.GSON.toJson(line));
+
+        } finally {
+            RequestTiming.end();
+        }
+
+    }
+
+}
@@ -5,10 +5,15 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Order;
@@ -17,10 +22,15 @@ import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.engine.OrmLiteStorageEngine;
 import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.database.repo.DroneRepository.TransitionResult;
 import ar.com.caputo.drones.exception.InvalidInputFormatException;
 
 @TestInstance(Lifecycle.PER_CLASS)
@@ -386,5 +396,408 @@ public class A01_DroneEndpointTest extends EndpointTest {
         assertEquals(3, responseJson.get("bulkSize").getAsInt(), "Invalid registration bulk count");
 
     }
+
+    @Test
+    @DisplayName("GET:/drones?include=load should return every drone along with its load")
+    @Order(18)
+    public void GETdrones_Including_Load_Should_Return_Drones_With_Their_Load() throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/drones?include=load"));
+
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject responseJson = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertFalse(responseJson.getAsJsonArray("data").isEmpty(), "Response was empty, maybe no drones were registered?");
+        responseJson.getAsJsonArray("data").forEach(drone -> 
+            assertTrue(drone.getAsJsonObject().get("load").isJsonArray(), "Drone was returned without its load"));
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones/capable/ should only return available drones able to carry the given weight")
+    @Order(19)
+    public void GETdrones_Capable_Should_Return_Drones_Able_To_Carry_The_Weight() throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/drones/capable/?weight=450"));
+
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject responseJson = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(1, responseJson.get("bulkSize").getAsInt(), "Only the drone with a 473 weight limit can carry 450");
+        assertEquals(473, responseJson.getAsJsonArray("data").get(0).getAsJsonObject().get("weightLimit").getAsInt(), "Wrong drone returned");
+
+        response = client(getRequest("/drones/capable/?weight=heavy"));
+        assertEquals(400, response.statusCode(), "Invalid response code for a non-numeric weight");
+
+    }
     
+    @Test
+    @DisplayName("POST:/drones/transitions/ should move the matching drones and report the rejected ones")
+    @Order(20)
+    public void POSTdrones_Transitions_Should_Move_Matching_Drones() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "TRANSITION01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "TRANSITION02",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 20)));
+
+        HttpResponse<String> response = client(postRequest("/drones/transitions/", Map.of(
+            "serialNumbers", List.of("TRANSITION01", "TRANSITION02", "TRANSITION03"),
+            "state", "IDLE",
+            "target", "LOADING")));
+
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject result = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertEquals(1, result.get("affected").getAsInt(), "Invalid amount of drones moved");
+        assertEquals("TRANSITION01", result.getAsJsonArray("updated").get(0).getAsString(), "Wrong drone moved");
+        assertTrue(result.getAsJsonObject("rejected").has("TRANSITION02"), "Drone with low battery was not rejected");
+        assertTrue(result.getAsJsonObject("rejected").has("TRANSITION03"), "Missing drone was not rejected");
+
+        response = client(getRequest("/drones/TRANSITION01"));
+        JsonObject drone = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertEquals("LOADING", drone.get("state").getAsString(), "State was not updated");
+
+        response = client(postRequest("/drones/transitions/", Map.of("target", "IDLE")));
+        assertEquals(400, response.statusCode(), "Invalid response code for a missing filter");
+
+    }
+
+    @Test
+    @DisplayName("PATCH:/drones/bulk/ should update every valid item")
+    @Order(21)
+    public void PATCHdrones_Bulk_Should_Update_Valid_Items() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "BULKPATCH01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "BULKPATCH02",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+
+        HttpResponse<String> response = client(patchRequest("/drones/bulk/", Map.of("bulk", List.of(
+            Map.of("id", "BULKPATCH01", "changes", Map.of("batteryLevel", 50, "weightLimit", 300)),
+            Map.of("id", "BULKPATCH02", "changes", Map.of("serialNumber", "BULKPATCH03")),
+            Map.of("id", "BULKPATCH99", "changes", Map.of("batteryLevel", 50)),
+            Map.of("id", "BULKPATCH01", "changes", Map.of("batteryLevel", 40))))));
+
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject result = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(2, result.get("bulkSize").getAsInt(), "Invalid amount of drones updated");
+        assertEquals(200, result.getAsJsonArray("data").get(0).getAsJsonObject().get("status").getAsInt(), "Invalid item status");
+        assertEquals(200, result.getAsJsonArray("data").get(1).getAsJsonObject().get("status").getAsInt(), "Invalid item status");
+        assertEquals(404, result.getAsJsonArray("data").get(2).getAsJsonObject().get("status").getAsInt(), "Missing drone was not reported");
+        assertEquals(409, result.getAsJsonArray("data").get(3).getAsJsonObject().get("status").getAsInt(), "Duplicated drone was not reported");
+
+        JsonObject drone = DroneService.GSON.fromJson(client(getRequest("/drones/BULKPATCH01")).body(), JsonObject.class).getAsJsonObject("data");
+        assertEquals(50, drone.get("batteryLevel").getAsInt(), "Battery level was not updated");
+        assertEquals(300, drone.get("weightLimit").getAsInt(), "Weight limit was not updated");
+        assertEquals(404, client(getRequest("/drones/BULKPATCH02")).statusCode(), "Drone was not renamed");
+        assertEquals(200, client(getRequest("/drones/BULKPATCH03")).statusCode(), "Drone was not renamed");
+
+        response = client(patchRequest("/drones/bulk/", Map.of("bulk", List.of(
+            Map.of("id", "BULKPATCH01", "changes", Map.of("altitude", 150))))));
+        result = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(0, result.get("bulkSize").getAsInt(), "Invalid drone was updated");
+        assertEquals(400, result.getAsJsonArray("data").get(0).getAsJsonObject().get("status").getAsInt(), "Invalid item was not reported");
+
+        assertEquals(400, client(patchRequest("/drones/bulk/", Map.of("items", List.of()))).statusCode(), "Invalid response code for a missing bulk");
+
+        // Medications are checked against the drones they are loaded into
+        client(postRequest("/medications", Map.of("code", "BULKPATCHMED01", "name", "Loaded", "weight", 100)));
+        client(postRequest("/medications", Map.of("code", "BULKPATCHMED02", "name", "Unloaded", "weight", 100)));
+        client(postRequest("/drones/BULKPATCH01/items", Map.of("code", "BULKPATCHMED01")));
+
+        response = client(patchRequest("/medications/bulk/", Map.of("bulk", List.of(
+            Map.of("id", "BULKPATCHMED01", "changes", Map.of("weight", 250)),
+            Map.of("id", "BULKPATCHMED02", "changes", Map.of("weight", 400))))));
+        result = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertEquals(2, result.get("bulkSize").getAsInt(), "Invalid amount of medications updated");
+
+        response = client(patchRequest("/medications/bulk/", Map.of("bulk", List.of(
+            Map.of("id", "BULKPATCHMED01", "changes", Map.of("weight", 350))))));
+        result = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(0, result.get("bulkSize").getAsInt(), "Medication exceeding its drone's weight limit was updated");
+        assertEquals(400, result.getAsJsonArray("data").get(0).getAsJsonObject().get("status").getAsInt(),
+                     "Medication exceeding its drone's weight limit was not reported");
+
+        JsonObject medication = DroneService.GSON.fromJson(client(getRequest("/medications/BULKPATCHMED01")).body(), JsonObject.class)
+                                                 .getAsJsonObject("data");
+        assertEquals(250, medication.get("weight").getAsInt(), "Invalid weight");
+
+        client(deleteRequest("/drones/BULKPATCH01/items", Map.of("code", "BULKPATCHMED01")));
+        client(deleteRequest("/medications/BULKPATCHMED01"));
+        client(deleteRequest("/medications/BULKPATCHMED02"));
+        client(deleteRequest("/drones/BULKPATCH01"));
+        client(deleteRequest("/drones/BULKPATCH03"));
+
+    }
+
+    @Test
+    @DisplayName("POST:/drones should run once per idempotency key")
+    @Order(22)
+    public void POSTdrones_With_Idempotency_Key_Should_Run_Once() throws Exception {
+
+        Map<String, Object> payload = Map.of(
+            "serialNumber", "IDEMPOTENT01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80);
+        String key = UUID.randomUUID().toString();
+
+        HttpResponse<String> first = client(postRequest("/drones", payload, key));
+        HttpResponse<String> retry = client(postRequest("/drones", payload, key));
+
+        assertEquals(201, first.statusCode(), "Invalid response code");
+        assertEquals(201, retry.statusCode(), "Retry was not answered with the first response");
+        assertEquals(first.body(), retry.body(), "Retry was not answered with the first response");
+        assertTrue(retry.headers().firstValue("Idempotent-Replayed").isPresent(), "Retry was not flagged as replayed");
+        assertFalse(first.headers().firstValue("Idempotent-Replayed").isPresent(), "First request was flagged as replayed");
+
+        HttpResponse<String> reused = client(postRequest("/drones", Map.of("serialNumber", "IDEMPOTENT02"), key));
+        assertEquals(422, reused.statusCode(), "Key reused with another payload was accepted");
+
+        // Concurrent duplicates wait for the first one instead of failing on the existing serial number
+        client(deleteRequest("/drones/IDEMPOTENT01"));
+        String concurrentKey = UUID.randomUUID().toString();
+        List<CompletableFuture<HttpResponse<String>>> duplicates = new ArrayList<>();
+        for(int i = 0; i < 4; i++)
+            duplicates.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client(postRequest("/drones", payload, concurrentKey));
+                } catch(Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }));
+        for(CompletableFuture<HttpResponse<String>> duplicate : duplicates)
+            assertEquals(201, duplicate.get().statusCode(), "Concurrent duplicate was not answered with the first response");
+
+        client(deleteRequest("/drones/IDEMPOTENT01"));
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones/<SN> should answer concurrent lookups with the latest drone")
+    @Order(23)
+    public void GETdrones_Concurrently_Should_Answer_Latest_Drone() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "COALESCE01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+
+        List<CompletableFuture<HttpResponse<String>>> lookups = new ArrayList<>();
+        for(int i = 0; i < 16; i++) {
+            String target = i % 2 == 0 ? "/drones/COALESCE01" : "/drones/COALESCE01/battery";
+            lookups.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client(getRequest(target));
+                } catch(Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }));
+        }
+        for(CompletableFuture<HttpResponse<String>> lookup : lookups)
+            assertEquals(200, lookup.get().statusCode(), "Invalid response code");
+
+        client(patchRequest("/drones/COALESCE01", Map.of("batteryLevel", 60)));
+        HttpResponse<String> response = client(getRequest("/drones/COALESCE01"));
+        JsonObject drone = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertEquals(60, drone.get("batteryLevel").getAsInt(), "Lookup did not see the update");
+
+        client(deleteRequest("/drones/COALESCE01"));
+        assertEquals(404, client(getRequest("/drones/COALESCE01")).statusCode(), "Lookup did not see the deletion");
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones?ids= and POST:/drones/lookup/ should return the given drones in order")
+    @Order(24)
+    public void GETdrones_By_Ids_Should_Return_Drones_In_Order() throws Exception {
+
+        for(String serialNumber : List.of("LOOKUP01", "LOOKUP02"))
+            client(postRequest("/drones", Map.of(
+                "serialNumber", serialNumber,
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 200,
+                "batteryLevel", 80)));
+
+        HttpResponse<String> response = client(getRequest("/drones?ids=LOOKUP02,LOOKUP99,LOOKUP01"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+        JsonObject lookup = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        JsonArray drones = lookup.getAsJsonArray("data");
+        assertEquals(2, drones.size(), "Invalid amount of drones");
+        assertEquals("LOOKUP02", drones.get(0).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not in the given order");
+        assertEquals("LOOKUP01", drones.get(1).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not in the given order");
+        assertEquals(List.of("LOOKUP99"), DroneService.GSON.fromJson(lookup.get("missing"), List.class), "Missing drone was not reported");
+
+        response = client(postRequest("/drones/lookup/?include=load", Map.of("ids", List.of("LOOKUP01", "LOOKUP02", "LOOKUP01"))));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        lookup = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        drones = lookup.getAsJsonArray("data");
+        assertEquals(2, drones.size(), "Duplicated id was returned twice");
+        assertEquals("LOOKUP01", drones.get(0).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not in the given order");
+        assertTrue(drones.get(0).getAsJsonObject().has("load"), "Load was not included");
+        assertEquals(0, lookup.getAsJsonArray("missing").size(), "Existing drone was reported missing");
+
+        assertEquals(400, client(postRequest("/drones/lookup/", Map.of("serialNumbers", List.of()))).statusCode(),
+                     "Invalid response code for a lookup without ids");
+
+        client(deleteRequest("/drones/LOOKUP01"));
+        client(deleteRequest("/drones/LOOKUP02"));
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones with a filter should return the matching drones sorted")
+    @Order(25)
+    public void GETdrones_With_Filter_Should_Return_Matching_Drones_Sorted() throws Exception {
+
+        Map<String, String> models = Map.of("FILTER01", "LIGHTWEIGHT", "FILTER02", "MIDDLEWEIGHT", "FILTER03", "CRUISERWEIGHT");
+        Map<String, Integer> batteryLevels = Map.of("FILTER01", 30, "FILTER02", 90, "FILTER03", 60);
+        for(String serialNumber : List.of("FILTER01", "FILTER02", "FILTER03"))
+            client(postRequest("/drones", Map.of(
+                "serialNumber", serialNumber,
+                "model", models.get(serialNumber),
+                "state", "IDLE",
+                "weightLimit", 137,
+                "batteryLevel", batteryLevels.get(serialNumber))));
+
+        HttpResponse<String> response = client(getRequest("/drones?weightLimit=137&batteryLevel=gte:50&sort=-batteryLevel"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+        JsonArray drones = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+        assertEquals(2, drones.size(), "Invalid amount of drones");
+        assertEquals("FILTER02", drones.get(0).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not sorted");
+        assertEquals("FILTER03", drones.get(1).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not sorted");
+
+        // Same shape, other values
+        response = client(getRequest("/drones?weightLimit=137&batteryLevel=gte:20&sort=-batteryLevel"));
+        drones = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+        assertEquals(3, drones.size(), "Invalid amount of drones");
+        assertEquals("FILTER01", drones.get(2).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not sorted");
+
+        response = client(getRequest("/drones?weightLimit=137&model=in:lightweight,CRUISERWEIGHT&sort=model"));
+        drones = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+        assertEquals(2, drones.size(), "Invalid amount of drones");
+        assertEquals("FILTER03", drones.get(0).getAsJsonObject().get("serialNumber").getAsString(), "Drones are not sorted");
+
+        assertEquals(400, client(getRequest("/drones?serialNumber=FILTER01")).statusCode(), "Filter on a non-filterable field was accepted");
+        assertEquals(400, client(getRequest("/drones?state=gt:IDLE")).statusCode(), "Range on a non-ranged field was accepted");
+        assertEquals(400, client(getRequest("/drones?batteryLevel=lt:high")).statusCode(), "Invalid value was accepted");
+
+        for(String serialNumber : List.of("FILTER01", "FILTER02", "FILTER03"))
+            client(deleteRequest("/drones/" + serialNumber));
+
+    }
+
+    @Test
+    @DisplayName("Drone transitions should reject the drones changed after being read instead of failing")
+    @Order(26)
+    public void Transition_Should_Reject_Drones_Changed_After_Read() throws Exception {
+
+        for(String serialNumber : List.of("TRANSITIONRACE01", "TRANSITIONRACE02"))
+            client(postRequest("/drones", Map.of(
+                "serialNumber", serialNumber,
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 200,
+                "batteryLevel", 80)));
+
+        // Drains the battery of a drone right after it's read, as a concurrent write would
+        DroneRepository racing = new DroneRepository() {
+            @Override
+            public Map<String, Drone> findAll(Collection<String> ids) {
+                Map<String, Drone> found = super.findAll(ids);
+                try {
+                    Drone drained = getEngine().get("TRANSITIONRACE02");
+                    drained.setBatteryLevel(10);
+                    getEngine().update(drained);
+                } catch (SQLException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return found;
+            }
+        };
+
+        try {
+
+            TransitionResult result = racing.transition(List.of("TRANSITIONRACE01", "TRANSITIONRACE02"), Drone.State.IDLE,
+                                                        null, null, Drone.State.LOADING);
+            assertEquals(List.of("TRANSITIONRACE01"), result.getUpdated(), "Invalid drones moved");
+            assertEquals(1, result.getAffected(), "Invalid amount of drones moved");
+            assertTrue(result.getRejected().containsKey("TRANSITIONRACE02"), "Drone changed after being read was not rejected");
+
+            JsonObject drone = DroneService.GSON.fromJson(client(getRequest("/drones/TRANSITIONRACE02")).body(), JsonObject.class)
+                                                .getAsJsonObject("data");
+            assertEquals("IDLE", drone.get("state").getAsString(), "Drone with low battery was moved to LOADING");
+
+        } finally {
+            for(String serialNumber : List.of("TRANSITIONRACE01", "TRANSITIONRACE02"))
+                client(deleteRequest("/drones/" + serialNumber));
+        }
+
+    }
+
+    @Test
+    @DisplayName("Drone loads should be retrieved for more drones than a single IN list holds")
+    @Order(27)
+    public void ListByDrones_Should_Span_Several_Queries() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "MANYLOADS01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(postRequest("/medications", Map.of(
+            "code", "MANYLOADSMED01",
+            "name", "Spanned",
+            "weight", 50)));
+        client(postRequest("/drones/MANYLOADS01/items", Map.of("code", "MANYLOADSMED01")));
+
+        try {
+
+            // Placed past the first two lists
+            List<String> serialNumbers = new ArrayList<>();
+            for(int i = 0; i < OrmLiteStorageEngine.MAX_IN_PARAMETERS * 2 + 10; i++) serialNumbers.add("MISSING" + i);
+            serialNumbers.add("MANYLOADS01");
+
+            Map<String, List<Medication>> loads = DroneService.getInstance().getMedicationEndpoint().getRepository().listByDrones(serialNumbers);
+            assertEquals(1, loads.size(), "Invalid amount of loaded drones");
+            assertEquals("MANYLOADSMED01", loads.get("MANYLOADS01").get(0).getCode(), "Load of the last drone was not retrieved");
+
+        } finally {
+            client(deleteRequest("/drones/MANYLOADS01/items", Map.of("code", "MANYLOADSMED01")));
+            client(deleteRequest("/medications/MANYLOADSMED01"));
+            client(deleteRequest("/drones/MANYLOADS01"));
+        }
+
+    }
+
 }
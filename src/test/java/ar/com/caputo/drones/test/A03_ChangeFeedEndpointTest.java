@@ -0,0 +1,147 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.repo.RepositoryListener;
+import ar.com.caputo.drones.exception.RequestProcessingException;
+
+@TestInstance(Lifecycle.PER_CLASS)
+@TestMethodOrder(org.junit.jupiter.api.MethodOrderer.OrderAnnotation.class)
+public class A03_ChangeFeedEndpointTest extends EndpointTest {
+
+    private final String TEST_DRONE_SN = "CHANGEFEED01";
+
+    /**
+     * Sequence number of the last change recorded
+     * before the tests of this class started
+     */
+    private long head;
+
+    protected A03_ChangeFeedEndpointTest() throws Exception {
+        super();
+    }
+
+    @Test
+    @DisplayName("GET:/changes should reach the head of the feed")
+    @Order(1)
+    public void GETchanges_Should_Reach_The_Head_Of_The_Feed() throws Exception {
+
+        JsonObject page;
+        do {
+
+            HttpResponse<String> response = client(getRequest("/changes?limit=1000&since=" + head));
+            assertEquals(200, response.statusCode(), "Invalid response code");
+            assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+            page = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+            assertTrue(page.get("next").getAsLong() >= head, "Feed went backwards");
+            head = page.get("next").getAsLong();
+
+        } while(!page.getAsJsonArray("data").isEmpty());
+
+    }
+
+    @Test
+    @DisplayName("GET:/changes should list the changes after the given sequence")
+    @Order(2)
+    public void GETchanges_Should_List_Changes_After_Sequence() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", TEST_DRONE_SN,
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(patchRequest("/drones/" + TEST_DRONE_SN, Map.of("batteryLevel", 70)));
+        client(deleteRequest("/drones/" + TEST_DRONE_SN));
+
+        HttpResponse<String> response = client(getRequest("/changes?since=" + head));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+
+        JsonArray changes = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+        assertEquals(3, changes.size(), "Invalid amount of changes");
+
+        String[] operations = { "CREATED", "UPDATED", "DELETED" };
+        for(int i = 0; i < operations.length; i++) {
+            JsonObject change = changes.get(i).getAsJsonObject();
+            assertEquals("drone", change.get("entity").getAsString(), "Invalid entity");
+            assertEquals(TEST_DRONE_SN, change.get("entityId").getAsString(), "Invalid entity ID");
+            assertEquals(operations[i], change.get("operation").getAsString(), "Invalid operation");
+            assertTrue(change.get("seq").getAsLong() > head, "Change is not after the requested sequence");
+        }
+
+        response = client(getRequest("/changes?limit=1&since=" + head));
+        JsonObject page = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(1, page.getAsJsonArray("data").size(), "Limit was not applied");
+        assertEquals(changes.get(0).getAsJsonObject().get("seq").getAsLong(), page.get("next").getAsLong(), "Invalid next sequence");
+
+    }
+
+    @Test
+    @DisplayName("PATCH:/drones/sn should be rolled back if its change can't be recorded")
+    @Order(3)
+    public void PATCHdrones_Should_Roll_Back_Unrecorded_Change() throws Exception {
+
+        String serialNumber = "CHANGEFEED02";
+        DroneService.getInstance().getDroneEnpoint().getRepository().addTransactionalListener(new RepositoryListener<Drone, String>() {
+            @Override
+            public void updated(Drone entity, String previousId) {
+                if(previousId.equals(serialNumber)) throw new RequestProcessingException("Change could not be recorded");
+            }
+        });
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", serialNumber,
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+
+        try {
+
+            HttpResponse<String> response = client(patchRequest("/drones/" + serialNumber, Map.of("batteryLevel", 70)));
+            assertNotEquals(200, response.statusCode(), "Unrecorded update succeeded");
+
+            JsonObject drone = DroneService.GSON.fromJson(client(getRequest("/drones/" + serialNumber)).body(), JsonObject.class);
+            assertEquals(80, drone.getAsJsonObject("data").get("batteryLevel").getAsInt(), "Unrecorded update was written");
+
+            JsonArray changes = DroneService.GSON.fromJson(client(getRequest("/changes?since=" + head)).body(), JsonObject.class)
+                                              .getAsJsonArray("data");
+            assertTrue(changes.asList().stream().noneMatch(change -> change.getAsJsonObject().get("entityId").getAsString().equals(serialNumber)
+                                                                     && change.getAsJsonObject().get("operation").getAsString().equals("UPDATED")),
+                       "Rolled back update was recorded");
+
+        } finally {
+            client(deleteRequest("/drones/" + serialNumber));
+        }
+
+    }
+
+    @Test
+    @DisplayName("GET:/changes should fail due to invalid since")
+    @Order(4)
+    public void GETchanges_Should_Fail_Due_To_Invalid_Since() throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/changes?since=-1"));
+        assertEquals(400, response.statusCode(), "Invalid response code");
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A04_FleetEndpointTest extends EndpointTest {
+
+    protected A04_FleetEndpointTest() throws Exception {
+        super();
+    }
+
+    private JsonObject getSummary() throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/fleet/summary"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+        return DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+
+    }
+
+    @Test
+    @DisplayName("GET:/fleet/summary should follow drone and medication writes")
+    public void GETfleetSummary_Should_Follow_Writes() throws Exception {
+
+        JsonObject before = getSummary();
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "FLEET01",
+            "model", "HEAVYWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 500,
+            "batteryLevel", 90)));
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "FLEET02",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 10)));
+        client(postRequest("/medications", Map.of(
+            "code", "FLEETMED01",
+            "name", "Fleet-Test",
+            "weight", 120)));
+        client(postRequest("/drones/FLEET01/items", Map.of("code", "FLEETMED01")));
+
+        JsonObject after = getSummary();
+        assertEquals(before.get("drones").getAsInt() + 2, after.get("drones").getAsInt(), "Invalid amount of drones");
+        assertEquals(before.get("lowBattery").getAsInt() + 1, after.get("lowBattery").getAsInt(), "Invalid amount of low battery drones");
+        assertEquals(before.get("loadedMedications").getAsInt() + 1, after.get("loadedMedications").getAsInt(), "Invalid amount of loaded medications");
+        assertEquals(before.get("totalLoadWeight").getAsLong() + 120, after.get("totalLoadWeight").getAsLong(), "Invalid load weight");
+        assertEquals(before.getAsJsonObject("byModel").get("HEAVYWEIGHT").getAsInt() + 1,
+                     after.getAsJsonObject("byModel").get("HEAVYWEIGHT").getAsInt(), "Invalid amount of drones per model");
+
+        client(deleteRequest("/drones/FLEET01/items", Map.of("code", "FLEETMED01")));
+        client(deleteRequest("/drones/FLEET02"));
+
+        after = getSummary();
+        assertEquals(before.get("drones").getAsInt() + 1, after.get("drones").getAsInt(), "Invalid amount of drones");
+        assertEquals(before.get("lowBattery").getAsInt(), after.get("lowBattery").getAsInt(), "Invalid amount of low battery drones");
+        assertEquals(before.get("totalLoadWeight").getAsLong(), after.get("totalLoadWeight").getAsLong(), "Invalid load weight");
+
+        client(deleteRequest("/medications/FLEETMED01"));
+        client(deleteRequest("/drones/FLEET01"));
+        assertEquals(before, getSummary(), "Summary was not restored");
+
+    }
+
+}
@@ -0,0 +1,208 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.repo.RepositoryListener;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A05_BatchEndpointTest extends EndpointTest {
+
+    protected A05_BatchEndpointTest() throws Exception {
+        super();
+    }
+
+    private JsonObject batch(List<Map<String, Object>> operations, int expectedStatus) throws Exception {
+
+        HttpResponse<String> response = client(postRequest("/batch", Map.of("operations", operations)));
+        assertEquals(expectedStatus, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+        return DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+
+    }
+
+    private int statusOf(JsonObject batch, int operation) {
+        return batch.getAsJsonArray("results").get(operation).getAsJsonObject().get("status").getAsInt();
+    }
+
+    @Test
+    @DisplayName("POST:/batch should run every operation in order")
+    public void POSTbatch_Should_Run_Every_Operation() throws Exception {
+
+        JsonObject result = batch(List.of(
+            Map.of("method", "POST", "path", "/drones", "body", Map.of(
+                "serialNumber", "BATCH01",
+                "model", "HEAVYWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 500,
+                "batteryLevel", 90)),
+            Map.of("method", "POST", "path", "/medications", "body", Map.of(
+                "code", "BATCHMED01",
+                "name", "Batch-Test",
+                "weight", 120)),
+            Map.of("method", "POST", "path", "/drones/BATCH01/items", "body", Map.of("code", "BATCHMED01")),
+            Map.of("method", "PATCH", "path", "/drones/BATCH01", "body", Map.of("batteryLevel", 70)),
+            Map.of("method", "GET", "path", "/drones/BATCH01/items")), 200);
+
+        assertTrue(result.get("committed").getAsBoolean(), "Batch was not committed");
+        assertEquals(201, statusOf(result, 0), "Drone was not created");
+        assertEquals(201, statusOf(result, 1), "Medication was not created");
+        assertEquals(200, statusOf(result, 2), "Medication was not loaded");
+        assertEquals(200, statusOf(result, 3), "Drone was not updated");
+        JsonArray load = result.getAsJsonArray("results").get(4).getAsJsonObject().getAsJsonObject("body").getAsJsonArray("data");
+        assertEquals(1, load.size(), "Invalid drone load");
+
+        HttpResponse<String> response = client(getRequest("/drones/BATCH01"));
+        assertEquals(200, response.statusCode(), "Drone was not persisted");
+        JsonObject drone = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertEquals(70, drone.get("batteryLevel").getAsInt(), "Battery level was not persisted");
+
+        result = batch(List.of(
+            Map.of("method", "DELETE", "path", "/drones/BATCH01/items", "body", Map.of("code", "BATCHMED01")),
+            Map.of("method", "DELETE", "path", "/medications/BATCHMED01"),
+            Map.of("method", "DELETE", "path", "/drones/BATCH01")), 200);
+
+        assertTrue(result.get("committed").getAsBoolean(), "Batch was not committed");
+        assertEquals(404, client(getRequest("/drones/BATCH01")).statusCode(), "Drone was not deleted");
+        assertEquals(404, client(getRequest("/medications/BATCHMED01")).statusCode(), "Medication was not deleted");
+
+    }
+
+    @Test
+    @DisplayName("POST:/batch should roll back every operation if one fails")
+    public void POSTbatch_Should_Roll_Back_On_Failure() throws Exception {
+
+        JsonObject summary = DroneService.GSON.fromJson(client(getRequest("/fleet/summary")).body(), JsonObject.class);
+
+        JsonObject result = batch(List.of(
+            Map.of("method", "POST", "path", "/drones", "body", Map.of(
+                "serialNumber", "BATCH02",
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 200,
+                "batteryLevel", 90)),
+            Map.of("method", "GET", "path", "/drones/BATCH99"),
+            Map.of("method", "DELETE", "path", "/drones/BATCH02")), 409);
+
+        assertFalse(result.get("committed").getAsBoolean(), "Batch was committed");
+        assertEquals(201, statusOf(result, 0), "Drone was not created");
+        assertEquals(404, statusOf(result, 1), "Missing drone was found");
+        assertEquals(424, statusOf(result, 2), "Operation after the failure was run");
+
+        assertEquals(404, client(getRequest("/drones/BATCH02")).statusCode(), "Drone creation was not rolled back");
+        assertEquals(summary, DroneService.GSON.fromJson(client(getRequest("/fleet/summary")).body(), JsonObject.class),
+                     "Fleet summary was not restored");
+
+    }
+
+    @Test
+    @DisplayName("POST:/batch should neither roll back the writes of other requests nor expose its own before committing")
+    public void POSTbatch_Should_Be_Isolated_From_Other_Requests() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "BATCH03",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 90)));
+
+        // Holds the batch open once its first operation is written
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DroneService.getInstance().getDroneEnpoint().getRepository().addTransactionalListener(new RepositoryListener<Drone, String>() {
+            @Override
+            public void created(Drone entity) {
+                if(!entity.getSerialNumber().equals("BATCH04")) return;
+                written.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+
+            CompletableFuture<JsonObject> batch = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return batch(List.of(
+                        Map.of("method", "POST", "path", "/drones", "body", Map.of(
+                            "serialNumber", "BATCH05",
+                            "model", "LIGHTWEIGHT",
+                            "state", "IDLE",
+                            "weightLimit", 200,
+                            "batteryLevel", 90)),
+                        Map.of("method", "POST", "path", "/drones", "body", Map.of(
+                            "serialNumber", "BATCH04",
+                            "model", "LIGHTWEIGHT",
+                            "state", "IDLE",
+                            "weightLimit", 200,
+                            "batteryLevel", 90)),
+                        Map.of("method", "GET", "path", "/drones/BATCH99")), 409);
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            assertTrue(written.await(5, TimeUnit.SECONDS), "Batch did not start");
+
+            JsonObject search = DroneService.GSON.fromJson(client(getRequest("/search?q=batch05")).body(), JsonObject.class);
+            assertEquals(0, search.getAsJsonArray("data").size(), "Uncommitted write was indexed");
+
+            CompletableFuture<HttpResponse<String>> patch = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client(patchRequest("/drones/BATCH03", Map.of("batteryLevel", 40)));
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            Thread.sleep(200);
+            release.countDown();
+
+            assertFalse(batch.get(5, TimeUnit.SECONDS).get("committed").getAsBoolean(), "Batch was committed");
+            assertEquals(200, patch.get(5, TimeUnit.SECONDS).statusCode(), "Concurrent update failed");
+
+            JsonObject drone = DroneService.GSON.fromJson(client(getRequest("/drones/BATCH03")).body(), JsonObject.class).getAsJsonObject("data");
+            assertEquals(40, drone.get("batteryLevel").getAsInt(), "Concurrent update was rolled back along with the batch");
+            assertEquals(404, client(getRequest("/drones/BATCH04")).statusCode(), "Drone creation was not rolled back");
+            assertEquals(404, client(getRequest("/drones/BATCH05")).statusCode(), "Drone creation was not rolled back");
+
+        } finally {
+            release.countDown();
+            client(deleteRequest("/drones/BATCH03"));
+        }
+
+    }
+
+    @Test
+    @DisplayName("POST:/batch should reject malformed operations")
+    public void POSTbatch_Should_Reject_Malformed_Operations() throws Exception {
+
+        HttpResponse<String> response = client(postRequest("/batch", Map.of("operations", List.of(
+            Map.of("method", "FETCH", "path", "/drones")))));
+        assertEquals(400, response.statusCode(), "Invalid response code for an unknown method");
+
+        response = client(postRequest("/batch", Map.of("requests", List.of())));
+        assertEquals(400, response.statusCode(), "Invalid response code for missing operations");
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.admission.AdmissionControl;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A06_AdmissionControlTest extends EndpointTest {
+
+    protected A06_AdmissionControlTest() throws Exception {
+        super();
+    }
+
+    @Test
+    @DisplayName("POST:/drones/bulk/ should be rate limited per client")
+    public void POSTdronesBulk_Should_Be_Rate_Limited() throws Exception {
+
+        // Rejected by the endpoint itself, so nothing is written
+        Map<String, Object> invalidBulk = Map.of("bulk", List.of(Map.of("serialNumber", "ADMISSION01")));
+        // Default --bulkRate of 2 requests per second
+        int burst = 2 * AdmissionControl.BURST_SECONDS;
+
+        HttpResponse<String> limited = null;
+        for(int i = 0; i < burst + 5 && limited == null; i++) {
+            HttpResponse<String> response = client(postRequest("/drones/bulk/", invalidBulk));
+            if(response.statusCode() == 429) limited = response;
+            else assertEquals(400, response.statusCode(), "Invalid response code");
+        }
+
+        assertTrue(limited != null, "Bulk requests were not rate limited");
+        assertTrue(isValidContentType(limited), "Content is not JSON-encoded");
+        assertTrue(limited.headers().firstValue("Retry-After").isPresent(), "Missing Retry-After header");
+
+        assertEquals(200, client(getRequest("/drones")).statusCode(), "Reads were limited along with bulks");
+
+        HttpResponse<String> response = client(getRequest("/admin/admission"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        JsonObject metrics = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertTrue(metrics.getAsJsonObject("rateLimited").get("BULK").getAsLong() >= 1, "Shed request was not counted");
+        assertTrue(metrics.getAsJsonObject("admitted").get("BULK").getAsLong() >= burst, "Admitted requests were not counted");
+        assertEquals(0, metrics.get("inFlight").getAsInt(), "Requests were not released");
+
+    }
+
+}
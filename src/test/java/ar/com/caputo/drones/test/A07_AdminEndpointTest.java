@@ -0,0 +1,86 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A07_AdminEndpointTest extends EndpointTest {
+
+    protected A07_AdminEndpointTest() throws Exception {
+        super();
+    }
+
+    @Test
+    @DisplayName("GET:/admin/explain should show every hot query is served by an index")
+    public void GETadminExplain_Should_Show_Hot_Queries_Use_Indexes() throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/admin/explain"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonArray plans = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+        assumeFalse(plans.isEmpty(), "Storage is not backed by SQL");
+        assertTrue(plans.size() >= 4, "Hot queries were not registered");
+
+        for(JsonElement element : plans) {
+            JsonObject plan = element.getAsJsonObject();
+            String name = plan.get("name").getAsString();
+            assertFalse(plan.has("error"), "Query " + name + " could not be explained");
+            assertFalse(plan.get("tableScan").getAsBoolean(), "Query " + name + " scans the whole table");
+        }
+
+    }
+
+    @Test
+    @DisplayName("GET:/admin/sql should aggregate the statements run by their normalized text")
+    public void GETadminSql_Should_Aggregate_Normalized_Statements() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "SQLTIMING01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(getRequest("/drones?ids=SQLTIMING01,SQLTIMING02"));
+
+        HttpResponse<String> response = client(getRequest("/admin/sql"));
+        client(deleteRequest("/drones/SQLTIMING01"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject timings = DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+        assertTrue(timings.has("slowThresholdMillis"), "Slow statement threshold is missing");
+        assertTrue(timings.has("slowStatements"), "Slow statements are missing");
+
+        JsonArray statements = timings.getAsJsonArray("statements");
+        assumeFalse(statements.isEmpty(), "Storage is not backed by SQL");
+
+        boolean collapsedList = false;
+        for(JsonElement element : statements) {
+            JsonObject statement = element.getAsJsonObject();
+            String sql = statement.get("sql").getAsString();
+            assertFalse(sql.contains("SQLTIMING"), "Statement was not normalized: " + sql);
+            assertTrue(statement.get("count").getAsLong() > 0, "Statement was never run: " + sql);
+            collapsedList |= sql.contains("?...");
+        }
+        assertTrue(collapsedList, "Lists of values were not collapsed");
+
+    }
+
+}
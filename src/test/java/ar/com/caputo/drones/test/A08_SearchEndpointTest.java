@@ -0,0 +1,76 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A08_SearchEndpointTest extends EndpointTest {
+
+    protected A08_SearchEndpointTest() throws Exception {
+        super();
+    }
+
+    private JsonArray search(String query) throws Exception {
+
+        HttpResponse<String> response = client(getRequest("/search?" + query));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+        return DroneService.GSON.fromJson(response.body(), JsonObject.class).getAsJsonArray("data");
+
+    }
+
+    @Test
+    @DisplayName("GET:/search should find drones and medications by prefix")
+    public void GETsearch_Should_Find_By_Prefix() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "SRCHDRONE01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 200,
+            "batteryLevel", 80)));
+        client(postRequest("/medications", Map.of(
+            "code", "SRCHMED01",
+            "name", "Searchable-Remedy",
+            "weight", 20)));
+
+        JsonArray matches = search("q=srch");
+        assertEquals(2, matches.size(), "Invalid amount of matches");
+        assertEquals("drone", matches.get(0).getAsJsonObject().get("type").getAsString(), "Matches are not sorted");
+        assertEquals("SRCHDRONE01", matches.get(0).getAsJsonObject().get("id").getAsString(), "Drone was not found");
+        assertEquals("SRCHMED01", matches.get(1).getAsJsonObject().get("id").getAsString(), "Medication was not found");
+
+        assertEquals(1, search("q=srch&type=medication").size(), "Matches were not narrowed by type");
+        assertEquals(1, search("q=srch&limit=1").size(), "Matches were not limited");
+
+        matches = search("q=remedy");
+        assertEquals(1, matches.size(), "Medication was not found by a word of its name");
+        assertEquals("name", matches.get(0).getAsJsonObject().get("field").getAsString(), "Invalid matched field");
+
+        client(patchRequest("/medications/SRCHMED01", Map.of("name", "Renamed")));
+        assertEquals(0, search("q=remedy").size(), "Index was not updated");
+        assertEquals(1, search("q=renamed").size(), "Index was not updated");
+
+        client(deleteRequest("/drones/SRCHDRONE01"));
+        client(deleteRequest("/medications/SRCHMED01"));
+        assertEquals(0, search("q=srch").size(), "Deleted entities were found");
+
+        assertEquals(400, client(getRequest("/search?q=")).statusCode(), "Blank query was accepted");
+        assertEquals(400, client(getRequest("/search?q=srch&type=pilot")).statusCode(), "Unknown type was accepted");
+
+    }
+
+}
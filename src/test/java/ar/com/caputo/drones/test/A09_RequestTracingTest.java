@@ -0,0 +1,64 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.tracing.RequestTracing;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A09_RequestTracingTest extends EndpointTest {
+
+    protected A09_RequestTracingTest() throws Exception {
+        super();
+    }
+
+    @Test
+    @DisplayName("POST:/drones should echo the correlation ID and report its stage timings")
+    public void POSTdrones_Should_Report_Stage_Timings() throws Exception {
+
+        HttpRequest request = HttpRequest.newBuilder(postRequest("/drones", Map.of(
+                "serialNumber", "TRACING01",
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 200,
+                "batteryLevel", 80)), (name, value) -> true)
+            .header(RequestTracing.CORRELATION_HEADER, "tracing-test-01")
+            .build();
+
+        HttpResponse<String> response = client(request);
+        client(deleteRequest("/drones/TRACING01"));
+        assertEquals(201, response.statusCode(), "Invalid response code");
+        assertEquals("tracing-test-01", response.headers().firstValue(RequestTracing.CORRELATION_HEADER).orElse(null),
+                     "Correlation ID was not echoed");
+
+        String serverTiming = response.headers().firstValue(RequestTracing.SERVER_TIMING_HEADER).orElse("");
+        for(String stage : new String[]{"parse;dur=", "validate;dur=", "serialize;dur=", "total;dur="})
+            assertTrue(serverTiming.contains(stage), "Missing " + stage + " on " + serverTiming);
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones/:id should generate a correlation ID when the given one is malformed")
+    public void GETdronesId_Should_Generate_Correlation_Id() throws Exception {
+
+        HttpRequest request = HttpRequest.newBuilder(getRequest("/drones/TRACING02"), (name, value) -> true)
+            .header(RequestTracing.CORRELATION_HEADER, "not a valid id")
+            .build();
+
+        String correlationId = client(request).headers().firstValue(RequestTracing.CORRELATION_HEADER).orElse("");
+        assertFalse(correlationId.isBlank(), "Correlation ID was not generated");
+        assertFalse(correlationId.equals("not a valid id"), "Malformed correlation ID was echoed");
+
+    }
+
+}
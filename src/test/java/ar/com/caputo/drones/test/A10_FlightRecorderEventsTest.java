@@ -0,0 +1,109 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A10_FlightRecorderEventsTest extends EndpointTest {
+
+    protected A10_FlightRecorderEventsTest() throws Exception {
+        super();
+    }
+
+    @Test
+    @DisplayName("POST:/drones/sn/items should record its load decision and repository operations")
+    public void POSTdronesItems_Should_Record_Events() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "JFREVENTS01",
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 100,
+            "batteryLevel", 80)));
+        client(postRequest("/medications", Map.of(
+            "code", "JFRMED01",
+            "name", "Recorded",
+            "weight", 150)));
+
+        Path dump = Files.createTempFile("drones", ".jfr");
+        List<RecordedEvent> events;
+        try(Recording recording = new Recording()) {
+
+            recording.enable("ar.com.caputo.drones.LoadDecision");
+            recording.enable("ar.com.caputo.drones.RepositoryOperation");
+            recording.start();
+            assertEquals(422, client(postRequest("/drones/JFREVENTS01/items", Map.of("code", "JFRMED01"))).statusCode(),
+                         "Invalid response code");
+            recording.stop();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+
+        } finally {
+            Files.deleteIfExists(dump);
+            client(deleteRequest("/drones/JFREVENTS01"));
+            client(deleteRequest("/medications/JFRMED01"));
+        }
+
+        RecordedEvent decision = events.stream()
+            .filter(event -> event.getEventType().getName().equals("ar.com.caputo.drones.LoadDecision"))
+            .findFirst().orElseThrow(() -> new AssertionError("Load decision was not recorded"));
+        assertEquals("JFREVENTS01", decision.getString("drone"), "Invalid drone");
+        assertEquals("JFRMED01", decision.getString("medication"), "Invalid medication");
+        assertEquals("exceeds weight limit", decision.getString("outcome"), "Invalid outcome");
+
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("ar.com.caputo.drones.RepositoryOperation")
+                                                     && event.getString("entityType").equals("Drone")
+                                                     && event.getString("operation").equals("get")
+                                                     && event.getInt("rows") == 1),
+                   "Drone read was not recorded");
+
+    }
+
+    @Test
+    @DisplayName("GET:/medications should record its scan")
+    public void GETmedications_Should_Record_Scan() throws Exception {
+
+        client(postRequest("/medications", Map.of(
+            "code", "JFRMED02",
+            "name", "Listed",
+            "weight", 20)));
+
+        Path dump = Files.createTempFile("drones", ".jfr");
+        List<RecordedEvent> events;
+        try(Recording recording = new Recording()) {
+
+            recording.enable("ar.com.caputo.drones.RepositoryOperation");
+            recording.start();
+            assertEquals(200, client(getRequest("/medications")).statusCode(), "Invalid response code");
+            recording.stop();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+
+        } finally {
+            Files.deleteIfExists(dump);
+            client(deleteRequest("/medications/JFRMED02"));
+        }
+
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("ar.com.caputo.drones.RepositoryOperation")
+                                                     && event.getString("entityType").equals("Medication")
+                                                     && event.getString("operation").equals("scan")
+                                                     && event.getInt("rows") >= 1),
+                   "Medication scan was not recorded");
+
+    }
+
+}
@@ -0,0 +1,172 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.repo.DroneRepository;
+import ar.com.caputo.drones.exception.RequestProcessingException;
+import ar.com.caputo.drones.rest.RestfulEndpoint;
+import spark.Spark;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A11_StreamedListingTest extends EndpointTest {
+
+    private static final int FETCH_SIZE = 2;
+    private static final int DRONES = 5;
+
+    /**
+     * Sizes of the chunks streamed by {@code /streamed}
+     */
+    private static final List<Integer> CHUNK_SIZES = new CopyOnWriteArrayList<>();
+
+    /**
+     * Chunk the scans of {@code /streamed} fail on, {@code -1} for none
+     */
+    private static volatile int failingChunk = -1;
+
+    protected A11_StreamedListingTest() throws Exception {
+        super();
+    }
+
+    /**
+     * Lists drones as {@code /drones} does, through a
+     * repository whose scans can be made to fail
+     */
+    private static class StreamedEndpoint extends RestfulEndpoint<Drone> {
+
+        StreamedEndpoint() {
+            super("/streamed", new DroneRepository() {
+                @Override
+                public void scan(int chunkSize, Consumer<List<Drone>> chunkConsumer) {
+                    int[] chunks = new int[1];
+                    super.scan(chunkSize, chunk -> {
+                        if(chunks[0]++ == failingChunk) throw new RequestProcessingException("Scan failed on chunk " + failingChunk);
+                        CHUNK_SIZES.add(chunk.size());
+                        chunkConsumer.accept(chunk);
+                    });
+                }
+            });
+        }
+
+        @Override
+        protected boolean payloadCanFulfilModel(JsonObject payload) {
+            return false;
+        }
+
+        @Override
+        public void addObject() {}
+
+        @Override
+        public void bulkAdd() {}
+
+    }
+
+    @BeforeAll
+    public void restartWithFetchSize() throws Exception {
+
+        // Restarts the service started by setup()
+        Spark.stop();
+        start("-fs:" + FETCH_SIZE);
+        new StreamedEndpoint();
+
+        for(int i = 0; i < DRONES; i++)
+            client(postRequest("/drones", Map.of(
+                "serialNumber", "STREAMED0" + i,
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 100,
+                "batteryLevel", 80)));
+
+    }
+
+    @AfterAll
+    public void deleteDrones() throws Exception {
+        for(int i = 0; i < DRONES; i++) client(deleteRequest("/drones/STREAMED0" + i));
+    }
+
+    @BeforeEach
+    public void resetScans() {
+        CHUNK_SIZES.clear();
+        failingChunk = -1;
+    }
+
+    private static List<String> serialNumbers(JsonObject listing) {
+        List<String> serialNumbers = new ArrayList<>();
+        for(JsonElement drone : listing.getAsJsonArray("data"))
+            serialNumbers.add(drone.getAsJsonObject().get("serialNumber").getAsString());
+        return serialNumbers;
+    }
+
+    @Test
+    @DisplayName("GET:/drones should stream every drone in chunks of the given fetch size")
+    public void GETdrones_Should_Stream_In_Chunks_Of_Fetch_Size() throws Exception {
+
+        assertEquals(FETCH_SIZE, DroneService.getInstance().getFetchSize(), "Fetch size flag was not applied");
+
+        HttpResponse<String> response = client(getRequest("/streamed"));
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        assertTrue(isValidContentType(response), "Content is not JSON-encoded");
+
+        JsonObject listing = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertFalse(listing.has("error"), "Complete listing was flagged as failed");
+        for(int i = 0; i < DRONES; i++)
+            assertTrue(serialNumbers(listing).contains("STREAMED0" + i), "Drone STREAMED0" + i + " was not listed");
+
+        assertTrue(CHUNK_SIZES.size() >= (DRONES + FETCH_SIZE - 1) / FETCH_SIZE, "Drones were not read in chunks");
+        assertTrue(CHUNK_SIZES.stream().allMatch(size -> size <= FETCH_SIZE), "Chunks exceed the fetch size: " + CHUNK_SIZES);
+        assertEquals(listing.getAsJsonArray("data").size(), CHUNK_SIZES.stream().mapToInt(Integer::intValue).sum(),
+                     "Streamed drones do not match the scanned ones");
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones should answer with 500 if the scan fails before the first chunk is sent")
+    public void GETdrones_Should_Fail_Before_First_Chunk() throws Exception {
+
+        failingChunk = 0;
+        HttpResponse<String> response = client(getRequest("/streamed"));
+
+        assertEquals(500, response.statusCode(), "Invalid response code");
+        assertEquals("Scan failed on chunk 0",
+                     DroneService.GSON.fromJson(response.body(), JsonObject.class).get("data").getAsString(),
+                     "Invalid error");
+
+    }
+
+    @Test
+    @DisplayName("GET:/drones should end with an error member if the scan fails after the first chunk is sent")
+    public void GETdrones_Should_Flag_Truncated_Listing() throws Exception {
+
+        failingChunk = 1;
+        HttpResponse<String> response = client(getRequest("/streamed"));
+
+        assertEquals(200, response.statusCode(), "Invalid response code");
+        JsonObject listing = DroneService.GSON.fromJson(response.body(), JsonObject.class);
+        assertEquals(List.of(FETCH_SIZE), CHUNK_SIZES, "Invalid chunks streamed");
+        assertEquals(FETCH_SIZE, listing.getAsJsonArray("data").size(), "Invalid amount of drones streamed");
+        assertEquals("Scan failed on chunk 1", listing.get("error").getAsString(), "Truncated listing was not flagged");
+
+    }
+
+}
@@ -0,0 +1,204 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.model.Drone;
+import ar.com.caputo.drones.database.model.Medication;
+import ar.com.caputo.drones.database.repo.RepositoryListener;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot.BatteryLevels;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A12_FleetSnapshotTest extends EndpointTest {
+
+    protected A12_FleetSnapshotTest() throws Exception {
+        super();
+    }
+
+    private static Drone drone(String serialNumber, String state, int weightLimit, int batteryLevel) {
+        return new Drone(serialNumber, "MIDDLEWEIGHT", state, weightLimit, batteryLevel);
+    }
+
+    private static Map<String, Integer> levelsOf(FleetSnapshot snapshot) {
+
+        BatteryLevels levels = snapshot.batteryLevels();
+        Map<String, Integer> bySerialNumber = new HashMap<>();
+        for(int i = 0; i < levels.size(); i++) bySerialNumber.put(levels.serialNumber(i), levels.level(i));
+        return bySerialNumber;
+
+    }
+
+    @Test
+    @DisplayName("Fleet snapshot should keep its columns aligned while growing and removing rows")
+    public void FleetSnapshot_Should_Keep_Columns_Aligned() {
+
+        FleetSnapshot snapshot = new FleetSnapshot();
+        RepositoryListener<Drone, String> drones = snapshot.droneListener();
+
+        // Goes past the initial capacity of the columns
+        Map<String, Integer> expected = new HashMap<>();
+        for(int i = 0; i < 150; i++) {
+            String serialNumber = "COLUMN" + i;
+            drones.created(drone(serialNumber, "IDLE", 200, i % 101));
+            expected.put(serialNumber, i % 101);
+        }
+
+        // Removed rows are replaced by the last one, so the
+        // moved rows must still hold their own values
+        for(int i = 0; i < 150; i += 3) {
+            drones.deleted("COLUMN" + i);
+            expected.remove("COLUMN" + i);
+        }
+        drones.deleted("COLUMN149");
+        expected.remove("COLUMN149");
+
+        drones.updated(drone("COLUMN1", "LOADING", 200, 90), "COLUMN1");
+        expected.put("COLUMN1", 90);
+        drones.updated(drone("RENAMED2", "IDLE", 200, 2), "COLUMN2");
+        expected.remove("COLUMN2");
+        expected.put("RENAMED2", 2);
+
+        assertEquals(expected.size(), snapshot.size(), "Invalid amount of drones");
+        assertEquals(expected, levelsOf(snapshot), "Battery levels do not match their drones");
+
+        FleetSnapshot.Summary summary = snapshot.summary();
+        assertEquals(expected.size(), summary.getDrones(), "Invalid amount of drones on the summary");
+        assertEquals(expected.size(), summary.getByModel().get("MIDDLEWEIGHT"), "Invalid amount of drones per model");
+        assertEquals(1, summary.getByState().get("LOADING"), "Invalid amount of drones per state");
+        assertEquals(expected.values().stream().filter(level -> level < 25).count(), summary.getLowBattery(),
+                     "Invalid amount of low battery drones");
+
+        List<String> available = snapshot.available().stream().map(Drone::id).collect(Collectors.toList());
+        assertEquals(expected.entrySet().stream().filter(entry -> entry.getValue() > 25).count(), available.size(),
+                     "Invalid amount of available drones");
+        assertTrue(available.stream().allMatch(serialNumber -> expected.get(serialNumber) > 25),
+                   "Unavailable drones were returned");
+
+    }
+
+    @Test
+    @DisplayName("Fleet snapshot should order capable drones by their remaining capacity")
+    public void FleetSnapshot_Should_Index_Remaining_Capacity() {
+
+        FleetSnapshot snapshot = new FleetSnapshot();
+        RepositoryListener<Drone, String> drones = snapshot.droneListener();
+        RepositoryListener<Medication, String> medications = snapshot.medicationListener();
+
+        Drone small = drone("CAPACITY01", "IDLE", 100, 80);
+        Drone large = drone("CAPACITY02", "IDLE", 400, 80);
+        drones.created(small);
+        drones.created(large);
+        drones.created(drone("CAPACITY03", "IDLE", 500, 10));
+
+        assertEquals(List.of("CAPACITY01", "CAPACITY02"),
+                     snapshot.capable(100, 10).stream().map(Drone::id).collect(Collectors.toList()),
+                     "Drones were not ordered by remaining capacity");
+
+        medications.created(Medication.restore("CAPACITYMED01", "Capacity", 350, null, large));
+        assertEquals(List.of("CAPACITY02", "CAPACITY01"),
+                     snapshot.capable(10, 10).stream().map(Drone::id).collect(Collectors.toList()),
+                     "Capacity index did not follow the load");
+        assertEquals(List.of("CAPACITY01"),
+                     snapshot.capable(60, 10).stream().map(Drone::id).collect(Collectors.toList()),
+                     "Loaded drone can still carry more than its remaining capacity");
+
+        medications.updated(Medication.restore("CAPACITYMED01", "Capacity", 50, null, large), "CAPACITYMED01");
+        assertEquals(50, snapshot.summary().getTotalLoadWeight(), "Load weight did not follow the medication");
+        medications.deleted("CAPACITYMED01");
+        assertEquals(0, snapshot.summary().getTotalLoadWeight(), "Load weight was not released");
+        assertEquals(0, snapshot.summary().getLoadedMedications(), "Medication was not unloaded");
+
+    }
+
+    @Test
+    @DisplayName("Fleet snapshot should move the load of a drone along with its serial number")
+    public void FleetSnapshot_Should_Move_Load_On_Rename() {
+
+        FleetSnapshot snapshot = new FleetSnapshot();
+        RepositoryListener<Drone, String> drones = snapshot.droneListener();
+        RepositoryListener<Medication, String> medications = snapshot.medicationListener();
+
+        Drone drone = drone("RENAME01", "IDLE", 300, 80);
+        drones.created(drone);
+        medications.created(Medication.restore("RENAMEMED01", "Rename", 200, null, drone));
+
+        Drone renamed = drone("RENAME02", "IDLE", 300, 80);
+        drones.updated(renamed, "RENAME01");
+        assertEquals(200, snapshot.summary().getTotalLoadWeight(), "Load weight was not kept on rename");
+        assertTrue(snapshot.capable(150, 10).isEmpty(), "Load was not moved to the new serial number");
+
+        medications.updated(Medication.restore("RENAMEMED01", "Rename", 50, null, renamed), "RENAMEMED01");
+        assertEquals(List.of("RENAME02"),
+                     snapshot.capable(250, 10).stream().map(Drone::id).collect(Collectors.toList()),
+                     "Load weight did not follow the medication on the renamed drone");
+        medications.deleted("RENAMEMED01");
+        assertEquals(0, snapshot.summary().getTotalLoadWeight(), "Load weight was not released");
+        assertEquals(List.of("RENAME02"),
+                     snapshot.capable(300, 10).stream().map(Drone::id).collect(Collectors.toList()),
+                     "Load was not released from the renamed drone");
+
+    }
+
+    @Test
+    @DisplayName("Fleet snapshot should be rebuilt from the database, discarding any drift")
+    public void FleetSnapshot_Should_Rebuild_From_Database() throws Exception {
+
+        client(postRequest("/drones", Map.of(
+            "serialNumber", "REBUILD01",
+            "model", "HEAVYWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 500,
+            "batteryLevel", 90)));
+        client(postRequest("/medications", Map.of(
+            "code", "REBUILDMED01",
+            "name", "Rebuild",
+            "weight", 120)));
+        client(postRequest("/drones/REBUILD01/items", Map.of("code", "REBUILDMED01")));
+
+        try {
+
+            FleetSnapshot rebuilt = new FleetSnapshot();
+            rebuilt.droneListener().created(drone("PHANTOM01", "IDLE", 200, 90));
+            assertTrue(rebuilt.reconcile(DroneService.getInstance().getDroneEnpoint().getRepository(),
+                                         DroneService.getInstance().getMedicationEndpoint().getRepository()),
+                       "Drift was not detected");
+
+            assertEquals(DroneService.getInstance().getFleetSnapshot().summary(), rebuilt.summary(),
+                         "Rebuilt summary does not match the live one");
+            assertFalse(levelsOf(rebuilt).containsKey("PHANTOM01"), "Drift was not discarded");
+            assertEquals(90, levelsOf(rebuilt).get("REBUILD01"), "Invalid battery level");
+            assertFalse(rebuilt.capable(400, 1000).stream().anyMatch(drone -> drone.id().equals("REBUILD01")),
+                        "Load was not read along with the drones");
+
+            assertFalse(rebuilt.reconcile(DroneService.getInstance().getDroneEnpoint().getRepository(),
+                                          DroneService.getInstance().getMedicationEndpoint().getRepository()),
+                        "Drift was detected on an up to date snapshot");
+
+            // Notification of a write the rebuild already read
+            Medication loaded = DroneService.getInstance().getMedicationEndpoint().getRepository().get("REBUILDMED01");
+            rebuilt.medicationListener().created(loaded);
+            assertEquals(DroneService.getInstance().getFleetSnapshot().summary(), rebuilt.summary(),
+                         "Write read by the rebuild was applied twice");
+
+        } finally {
+            client(deleteRequest("/drones/REBUILD01/items", Map.of("code", "REBUILDMED01")));
+            client(deleteRequest("/medications/REBUILDMED01"));
+            client(deleteRequest("/drones/REBUILD01"));
+        }
+
+    }
+
+}
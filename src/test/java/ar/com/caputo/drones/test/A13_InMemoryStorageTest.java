@@ -0,0 +1,187 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.google.gson.JsonArray;
+
+import ar.com.caputo.drones.database.engine.InMemoryStorageEngine;
+import ar.com.caputo.drones.database.engine.InMemoryStore;
+import ar.com.caputo.drones.database.engine.WriteAheadLog;
+import ar.com.caputo.drones.database.model.Drone;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A13_InMemoryStorageTest {
+
+    private Path directory;
+    private Path wal;
+
+    @BeforeEach
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("drones-wal");
+        wal = directory.resolve("drones.wal");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws Exception {
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        }
+    }
+
+    private static Drone drone(String serialNumber, int batteryLevel) {
+        return new Drone(serialNumber, "LIGHTWEIGHT", "IDLE", 200, batteryLevel);
+    }
+
+    @Test
+    @DisplayName("Memory storage should recover its committed writes after a restart")
+    public void MemoryStorage_Should_Recover_After_Restart() throws Exception {
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            drones.insert(drone("WAL01", 80));
+            drones.insert(drone("WAL02", 70));
+            drones.insert(drone("WAL03", 60));
+            drones.update(drone("WAL01", 40));
+            drones.delete("WAL02");
+        }
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            assertEquals(drone("WAL01", 40), drones.get("WAL01"), "Update was not recovered");
+            assertNull(drones.get("WAL02"), "Deletion was not recovered");
+            assertEquals(drone("WAL03", 60), drones.get("WAL03"), "Insertion was not recovered");
+        }
+
+        // Recovered logs are compacted to a single commit
+        assertEquals(1, Files.readAllLines(wal).size(), "Log was not compacted");
+
+    }
+
+    @Test
+    @DisplayName("Memory storage should discard a torn write at the end of its log")
+    public void MemoryStorage_Should_Discard_Torn_Tail() throws Exception {
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            new InMemoryStorageEngine<Drone, String>(store, Drone.class).insert(drone("TORN01", 80));
+        }
+
+        // A commit the process died while writing
+        Files.write(wal, "[{\"table\":\"drone\",\"op\":\"put\",\"id\":\"TORN02\",\"row\":{\"serial".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            assertEquals(drone("TORN01", 80), drones.get("TORN01"), "Committed write was lost");
+            assertNull(drones.get("TORN02"), "Torn write was applied");
+            drones.insert(drone("TORN03", 50));
+        }
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            assertEquals(drone("TORN03", 50), drones.get("TORN03"), "Write after the torn one was lost");
+        }
+        assertFalse(Files.readString(wal).contains("TORN02"), "Torn write was kept on the log");
+
+    }
+
+    @Test
+    @DisplayName("Write-ahead log should drop the part written of a failed append")
+    public void WriteAheadLog_Should_Truncate_Failed_Append() throws Exception {
+
+        // Fails halfway through its next write
+        boolean[] failNext = {false};
+        try(WriteAheadLog log = new WriteAheadLog(wal) {
+            @Override
+            protected void write(ByteBuffer buffer) throws IOException {
+                if(!failNext[0]) {
+                    super.write(buffer);
+                    return;
+                }
+                failNext[0] = false;
+                super.write(buffer.limit(buffer.position() + buffer.remaining() / 2));
+                throw new IOException("Disk full");
+            }
+        }) {
+
+            log.append(commit("WAL01"));
+            failNext[0] = true;
+            assertThrows(IOException.class, () -> log.append(commit("WAL02")), "Failed append was not reported");
+            log.append(commit("WAL03"));
+
+        }
+
+        List<JsonArray> replayed = new ArrayList<>();
+        try(WriteAheadLog log = new WriteAheadLog(wal)) {
+            log.replay(replayed::add);
+        }
+        assertEquals(List.of(commit("WAL01"), commit("WAL03")), replayed, "Failed append was kept on the log");
+
+    }
+
+    private static JsonArray commit(String value) {
+        JsonArray commit = new JsonArray();
+        commit.add(value);
+        return commit;
+    }
+
+    @Test
+    @DisplayName("Memory storage should refuse to start from a log corrupted before its end")
+    public void MemoryStorage_Should_Refuse_Corrupted_Log() throws Exception {
+
+        Files.writeString(wal, "[{\"table\":\"drone\",\"op\n[]\n");
+        assertThrows(IOException.class, () -> new InMemoryStore(wal), "Corrupted log was accepted");
+
+    }
+
+    @Test
+    @DisplayName("Memory storage should neither apply nor log a rolled back transaction")
+    public void MemoryStorage_Should_Roll_Back() throws Exception {
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            drones.insert(drone("ROLLBACK01", 80));
+
+            assertThrows(SQLException.class, () -> store.callInTransaction(() -> {
+                drones.update(drone("ROLLBACK01", 10));
+                drones.insert(drone("ROLLBACK02", 90));
+                assertEquals(10, drones.get("ROLLBACK01").getBatteryLevel(), "Transaction does not see its own writes");
+                throw new SQLException("Rolled back");
+            }));
+
+            assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was applied");
+            assertNull(drones.get("ROLLBACK02"), "Rolled back insertion was applied");
+
+        }
+
+        try(InMemoryStore store = new InMemoryStore(wal)) {
+            InMemoryStorageEngine<Drone, String> drones = new InMemoryStorageEngine<>(store, Drone.class);
+            assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was logged");
+            assertNull(drones.get("ROLLBACK02"), "Rolled back insertion was logged");
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+
+import ar.com.caputo.drones.database.engine.SnapshotStorageEngine;
+import ar.com.caputo.drones.database.engine.SnapshotStore;
+import ar.com.caputo.drones.database.model.Drone;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A14_SnapshotStorageTest {
+
+    private static final String DB_NAME = "snapshotTest";
+
+    private Path directory;
+
+    /**
+     * In-memory database, replaced by an empty one on every
+     * {@link #restart()} as if the process had been restarted
+     */
+    private String url;
+    private JdbcConnectionSource source;
+    private SnapshotStore store;
+    private SnapshotStorageEngine<Drone, String> drones;
+
+    @BeforeEach
+    public void start() throws Exception {
+        directory = Files.createTempDirectory("drones-snapshot");
+        open();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+
+        close();
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        }
+
+    }
+
+    private void open() throws Exception {
+
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        store = new SnapshotStore(url, directory, DB_NAME);
+        source = new JdbcConnectionSource(url, "sa", "");
+        drones = new SnapshotStorageEngine<>(source, store, Drone.class);
+
+    }
+
+    private void close() throws Exception {
+
+        store.close();
+        // The next database is a new one, so this one is only emptied
+        source.getReadWriteConnection(null).executeStatement("DROP ALL OBJECTS", -1);
+        source.close();
+
+    }
+
+    private void restart() throws Exception {
+        close();
+        open();
+    }
+
+    private List<Path> changeLogs() throws Exception {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(DB_NAME + ".changes.")).sorted().toList();
+        }
+    }
+
+    private static Drone drone(String serialNumber, int batteryLevel) {
+        return new Drone(serialNumber, "LIGHTWEIGHT", "IDLE", 200, batteryLevel);
+    }
+
+    @Test
+    @DisplayName("h2mem storage should recover from its snapshot and the changes written after it")
+    public void SnapshotStorage_Should_Recover_After_Restart() throws Exception {
+
+        drones.insert(drone("SNAP01", 80));
+        drones.insert(drone("SNAP02", 70));
+        store.snapshot();
+
+        drones.update(drone("SNAP01", 40));
+        drones.delete("SNAP02");
+        drones.insert(drone("SNAP03", 60));
+        assertEquals(1, changeLogs().size(), "Change logs covered by the snapshot were kept");
+
+        restart();
+
+        assertEquals(drone("SNAP01", 40), drones.get("SNAP01"), "Update after the snapshot was not recovered");
+        assertNull(drones.get("SNAP02"), "Deletion after the snapshot was not recovered");
+        assertEquals(drone("SNAP03", 60), drones.get("SNAP03"), "Insertion after the snapshot was not recovered");
+
+    }
+
+    @Test
+    @DisplayName("h2mem storage should discard a torn write at the end of its change log")
+    public void SnapshotStorage_Should_Discard_Torn_Tail() throws Exception {
+
+        drones.insert(drone("TORN01", 80));
+        Path changes = changeLogs().get(changeLogs().size() - 1);
+        Files.write(changes, "[{\"table\":\"drone\",\"op\":\"put\",\"id\":\"TORN02\",\"row\":{\"serial".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+        restart();
+
+        assertEquals(drone("TORN01", 80), drones.get("TORN01"), "Committed write was lost");
+        assertNull(drones.get("TORN02"), "Torn write was applied");
+        assertTrue(Files.readString(changes).endsWith("\n"), "Torn write was kept on the change log");
+
+    }
+
+    @Test
+    @DisplayName("h2mem storage should neither apply nor log a rolled back transaction")
+    public void SnapshotStorage_Should_Roll_Back() throws Exception {
+
+        drones.insert(drone("ROLLBACK01", 80));
+
+        assertThrows(SQLException.class, () -> drones.callInTransaction(() -> {
+            drones.update(drone("ROLLBACK01", 10));
+            drones.insert(drone("ROLLBACK02", 90));
+            throw new SQLException("Rolled back");
+        }));
+
+        assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was applied");
+        assertNull(drones.get("ROLLBACK02"), "Rolled back insertion was applied");
+
+        restart();
+
+        assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was logged");
+        assertNull(drones.get("ROLLBACK02"), "Rolled back insertion was logged");
+
+    }
+
+}
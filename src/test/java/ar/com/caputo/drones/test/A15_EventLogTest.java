@@ -0,0 +1,157 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.database.engine.InMemoryStorageEngine;
+import ar.com.caputo.drones.database.engine.InMemoryStore;
+import ar.com.caputo.drones.database.event.EventLog;
+import ar.com.caputo.drones.database.event.EventSourcedStorageEngine;
+import ar.com.caputo.drones.database.model.Drone;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A15_EventLogTest {
+
+    private Path directory;
+
+    /**
+     * Tables the events are projected to, replaced by empty
+     * ones on every {@link #replay()} so only the log is kept
+     */
+    private InMemoryStore store;
+    private EventLog log;
+    private EventSourcedStorageEngine<Drone, String> drones;
+
+    @BeforeEach
+    public void start() throws Exception {
+        directory = Files.createTempDirectory("drones-events");
+        open();
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+
+        close();
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        }
+
+    }
+
+    private void open() throws Exception {
+
+        Path tables = Files.createDirectories(directory.resolve("tables"));
+        store = new InMemoryStore(Files.createTempFile(tables, "drones", ".wal"));
+        log = new EventLog(Files.createDirectories(directory.resolve("events")));
+        drones = new EventSourcedStorageEngine<>(new InMemoryStorageEngine<>(store, Drone.class), log, Drone.class);
+
+    }
+
+    private void close() throws Exception {
+        log.close();
+        store.close();
+    }
+
+    /**
+     * Reopens the log over empty tables and rebuilds them from it
+     */
+    private void replay() throws Exception {
+        close();
+        open();
+        drones.rebuild();
+    }
+
+    private List<String> commits() throws Exception {
+        try(Stream<Path> files = Files.list(directory.resolve("events"))) {
+            return files.flatMap(file -> {
+                try {
+                    return Files.readAllLines(file).stream();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }).toList();
+        }
+    }
+
+    private static Drone drone(String serialNumber, int batteryLevel) {
+        return new Drone(serialNumber, "LIGHTWEIGHT", "IDLE", 200, batteryLevel);
+    }
+
+    @Test
+    @DisplayName("Event log should rebuild the tables from the writes it recorded")
+    public void EventLog_Should_Replay_Writes() throws Exception {
+
+        drones.insert(drone("EVENT01", 80));
+        drones.insertBatch(List.of(drone("EVENT02", 70), drone("EVENT03", 60)));
+        drones.update(drone("EVENT01", 40));
+        drones.delete("EVENT02");
+
+        int commits = commits().size();
+        drones.updateColumn(List.of("EVENT01", "EVENT03"), "state", Drone.State.LOADING);
+        assertEquals(commits + 1, commits().size(), "Updated drones were not appended as a single commit");
+
+        replay();
+
+        Drone first = drone("EVENT01", 40);
+        first.setState("LOADING");
+        Drone third = drone("EVENT03", 60);
+        third.setState("LOADING");
+        assertEquals(first, drones.get("EVENT01"), "Updates were not replayed");
+        assertNull(drones.get("EVENT02"), "Deletion was not replayed");
+        assertEquals(third, drones.get("EVENT03"), "Batch insertion was not replayed");
+
+    }
+
+    @Test
+    @DisplayName("Event log should not record the writes of a rolled back transaction")
+    public void EventLog_Should_Not_Replay_Rolled_Back_Writes() throws Exception {
+
+        drones.insert(drone("ROLLBACK01", 80));
+        long lastSequence = log.getLastSequence();
+
+        assertThrows(SQLException.class, () -> drones.callInTransaction(() -> {
+            drones.update(drone("ROLLBACK01", 10));
+            drones.insert(drone("ROLLBACK02", 90));
+            throw new SQLException("Rolled back");
+        }));
+
+        assertEquals(lastSequence, log.getLastSequence(), "Rolled back writes were appended");
+        assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was applied");
+
+        replay();
+
+        assertEquals(drone("ROLLBACK01", 80), drones.get("ROLLBACK01"), "Rolled back update was replayed");
+        assertNull(drones.get("ROLLBACK02"), "Rolled back insertion was replayed");
+
+    }
+
+    @Test
+    @DisplayName("Event log should roll back the writes it could not record")
+    public void EventLog_Should_Roll_Back_Unrecorded_Writes() throws Exception {
+
+        log.close();
+
+        assertThrows(SQLException.class, () -> drones.insert(drone("UNRECORDED01", 80)), "Write was not refused");
+        assertNull(drones.get("UNRECORDED01"), "Unrecorded write was applied");
+
+        // Reopened so stop() can close it again
+        log = new EventLog(directory.resolve("events"));
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.database.snapshot.FleetSnapshot;
+import ar.com.caputo.drones.task.BatteryLevelLogTask;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A16_BatteryAuditTaskTest extends EndpointTest {
+
+    private static final int DRONES = 10;
+
+    protected A16_BatteryAuditTaskTest() throws Exception {
+        super();
+    }
+
+    /**
+     * Audit task recording the drones handed to each shard,
+     * whose shards can be held until {@link #gate} opens
+     */
+    private static class ObservedTask extends BatteryLevelLogTask {
+
+        private final Map<Integer, List<String>> assigned = new ConcurrentHashMap<>();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final CountDownLatch gate;
+
+        ObservedTask(int shards, boolean held) {
+            super(shards);
+            this.gate = new CountDownLatch(held ? 1 : 0);
+        }
+
+        @Override
+        protected int process(int shard, long tick, List<String> candidates, FleetSnapshot.BatteryLevels levels, int[] rows) {
+
+            List<String> serialNumbers = new ArrayList<>(rows.length);
+            for(int row : rows) serialNumbers.add(levels.serialNumber(row));
+            assigned.put(shard, serialNumbers);
+
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            int logged = super.process(shard, tick, candidates, levels, rows);
+            processed.incrementAndGet();
+            return logged;
+
+        }
+
+        void tickNow() {
+            tick();
+        }
+
+    }
+
+    @BeforeAll
+    public void createDrones() throws Exception {
+        for(int i = 0; i < DRONES; i++)
+            client(postRequest("/drones", Map.of(
+                "serialNumber", "AUDITTASK0" + i,
+                "model", "LIGHTWEIGHT",
+                "state", "IDLE",
+                "weightLimit", 100,
+                "batteryLevel", 50 + i)));
+    }
+
+    @AfterAll
+    public void deleteDrones() throws Exception {
+        for(int i = 0; i < DRONES; i++) client(deleteRequest("/drones/AUDITTASK0" + i));
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!condition.getAsBoolean()) {
+            if(System.currentTimeMillis() > deadline) fail(message);
+            Thread.sleep(10);
+        }
+
+    }
+
+    private static long metric(BatteryLevelLogTask task, String name) {
+        return ((Number) task.getMetrics().get(name)).longValue();
+    }
+
+    private static boolean running(BatteryLevelLogTask task) {
+        return (boolean) task.getMetrics().get("running");
+    }
+
+    private static void awaitTicks(BatteryLevelLogTask task, long ticks) throws InterruptedException {
+        await(() -> metric(task, "ticks") >= ticks && !running(task), "Tick " + ticks + " was not processed");
+    }
+
+    @Test
+    @DisplayName("Battery audit should hand every drone to the shard of its serial number hash")
+    public void BatteryAudit_Should_Assign_Drones_To_Shards() throws Exception {
+
+        int shards = 3;
+        ObservedTask task = new ObservedTask(shards, false);
+        try {
+
+            task.init();
+            awaitTicks(task, 1);
+
+            FleetSnapshot.BatteryLevels levels = DroneService.getInstance().getFleetSnapshot().batteryLevels();
+            assertEquals(shards, task.assigned.size(), "Not every shard was processed");
+            assertEquals(levels.size(), task.assigned.values().stream().mapToInt(List::size).sum(),
+                         "Drones were not handed to exactly one shard");
+
+            for(int row = 0; row < levels.size(); row++) {
+                String serialNumber = levels.serialNumber(row);
+                assertTrue(task.assigned.get(Math.floorMod(serialNumber.hashCode(), shards)).contains(serialNumber),
+                           "Drone " + serialNumber + " was not handed to the shard of its hash");
+            }
+            assertEquals(levels.size(), metric(task, "lastLoggedDrones"), "Not every drone was logged");
+
+        } finally {
+            task.shutdown();
+        }
+
+    }
+
+    @Test
+    @DisplayName("Battery audit should skip a tick while the previous one is still running")
+    public void BatteryAudit_Should_Skip_Overlapping_Tick() throws Exception {
+
+        ObservedTask task = new ObservedTask(2, true);
+        try {
+
+            task.init();
+            await(() -> metric(task, "ticks") == 1 && running(task), "First tick did not start");
+
+            task.tickNow();
+            assertEquals(1, metric(task, "skippedTicks"), "Overlapping tick was not skipped");
+            assertTrue(running(task), "Skipped tick ended the running one");
+
+            task.gate.countDown();
+            awaitTicks(task, 2);
+            task.tickNow();
+            awaitTicks(task, 3);
+
+            assertEquals(1, metric(task, "skippedTicks"), "Tick after the running one ended was skipped");
+            assertEquals(4, task.processed.get(), "Shards of the processed ticks were not run");
+
+        } finally {
+            task.gate.countDown();
+            task.shutdown();
+        }
+
+    }
+
+    @Test
+    @DisplayName("Battery audit should measure how late its ticks start")
+    public void BatteryAudit_Should_Measure_Lag() throws Exception {
+
+        long delayMillis = 300;
+        ObservedTask task = new ObservedTask(1, false);
+        try {
+
+            // Keeps the scheduler busy past the first tick
+            DroneService.getInstance().getScheduler().submit(() -> {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            task.init();
+            awaitTicks(task, 1);
+
+            long lagMillis = metric(task, "lastLagMillis");
+            assertTrue(lagMillis >= delayMillis - 50, "Lag of a late tick was not measured: " + lagMillis);
+            assertEquals(lagMillis, metric(task, "maxLagMillis"), "Invalid maximum lag");
+
+            // Runs way ahead of the next scheduled tick
+            task.tickNow();
+            awaitTicks(task, 2);
+            assertEquals(0, metric(task, "lastLagMillis"), "Early tick was measured as late");
+            assertEquals(lagMillis, metric(task, "maxLagMillis"), "Maximum lag was lost");
+
+        } finally {
+            task.shutdown();
+        }
+
+    }
+
+    @Test
+    @DisplayName("Battery audit should wait for the running shards before shutting down")
+    public void BatteryAudit_Should_Wait_For_Shards_On_Shutdown() throws Exception {
+
+        ObservedTask task = new ObservedTask(2, true);
+        task.init();
+        await(() -> running(task), "Tick did not start");
+
+        Thread opener = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            task.gate.countDown();
+        });
+        opener.start();
+
+        task.shutdown();
+        assertEquals(2, task.processed.get(), "Shutdown did not wait for the running shards");
+        assertFalse(running(task), "Tick was still running after shutting down");
+
+    }
+
+}
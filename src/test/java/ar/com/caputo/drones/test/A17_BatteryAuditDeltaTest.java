@@ -0,0 +1,132 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.DroneService;
+import ar.com.caputo.drones.task.BatteryLevelLogTask;
+import spark.Spark;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A17_BatteryAuditDeltaTest extends EndpointTest {
+
+    private static final int DELTA = 5;
+    private static final int HEARTBEAT = 3;
+
+    protected A17_BatteryAuditDeltaTest() throws Exception {
+        super();
+    }
+
+    /**
+     * Audit task whose ticks can be run on demand
+     */
+    private static class ManualTask extends BatteryLevelLogTask {
+
+        ManualTask() {
+            super(2);
+        }
+
+        void tickNow() {
+            tick();
+        }
+
+    }
+
+    @BeforeAll
+    public void restartWithDelta() throws Exception {
+
+        // Restarts the service started by setup()
+        Spark.stop();
+        start("-ad:" + DELTA, "-ah:" + HEARTBEAT);
+
+        createDrone("AUDITDELTA01", 50);
+        createDrone("AUDITDELTA02", 80);
+
+    }
+
+    @AfterAll
+    public void deleteDrones() throws Exception {
+        for(int i = 1; i <= 3; i++) client(deleteRequest("/drones/AUDITDELTA0" + i));
+    }
+
+    private void createDrone(String serialNumber, int batteryLevel) throws Exception {
+        client(postRequest("/drones", Map.of(
+            "serialNumber", serialNumber,
+            "model", "LIGHTWEIGHT",
+            "state", "IDLE",
+            "weightLimit", 100,
+            "batteryLevel", batteryLevel)));
+    }
+
+    private void setBatteryLevel(String serialNumber, int batteryLevel) throws Exception {
+        assertEquals(200, client(patchRequest("/drones/" + serialNumber, Map.of("batteryLevel", batteryLevel))).statusCode(),
+                     "Battery level could not be set");
+    }
+
+    private static long metric(BatteryLevelLogTask task, String name) {
+        return ((Number) task.getMetrics().get(name)).longValue();
+    }
+
+    private static void awaitTicks(BatteryLevelLogTask task, long ticks) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(metric(task, "ticks") < ticks || (boolean) task.getMetrics().get("running")) {
+            if(System.currentTimeMillis() > deadline) fail("Tick " + ticks + " was not processed");
+            Thread.sleep(10);
+        }
+
+    }
+
+    @Test
+    @DisplayName("Battery audit should only log the levels that moved past the delta or missed a heartbeat")
+    public void BatteryAudit_Should_Log_Deltas_And_Heartbeats() throws Exception {
+
+        ManualTask task = new ManualTask();
+        try {
+
+            // Tick 0 logs every drone, none was logged before
+            task.init();
+            awaitTicks(task, 1);
+            int fleet = DroneService.getInstance().getFleetSnapshot().size();
+            assertEquals(fleet, metric(task, "lastLoggedDrones"), "Drones never logged were skipped");
+
+            // Within the delta, past the delta and a drone never seen
+            setBatteryLevel("AUDITDELTA01", 50 + DELTA - 2);
+            setBatteryLevel("AUDITDELTA02", 80 - DELTA - 5);
+            createDrone("AUDITDELTA03", 60);
+            task.tickNow();
+            awaitTicks(task, 2);
+            assertEquals(2, metric(task, "lastLoggedDrones"), "Invalid amount of drones logged on tick 1");
+            assertEquals(fleet - 1, metric(task, "lastUnchangedDrones"), "Invalid amount of drones skipped on tick 1");
+
+            // Moved past the delta since its last log, not since the last tick
+            setBatteryLevel("AUDITDELTA01", 50 + DELTA + 1);
+            task.tickNow();
+            awaitTicks(task, 3);
+            assertEquals(1, metric(task, "lastLoggedDrones"), "Drift past the delta was not logged on tick 2");
+
+            // Drones last logged on tick 0 reach the heartbeat
+            task.tickNow();
+            awaitTicks(task, 4);
+            assertEquals(fleet - 2, metric(task, "lastLoggedDrones"), "Heartbeat was not logged on tick 3");
+
+            task.tickNow();
+            awaitTicks(task, 5);
+            assertEquals(2, metric(task, "lastLoggedDrones"), "Heartbeat was not logged on tick 4");
+
+        } finally {
+            task.shutdown();
+        }
+
+    }
+
+}
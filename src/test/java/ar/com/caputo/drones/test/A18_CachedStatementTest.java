@@ -0,0 +1,166 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import ar.com.caputo.drones.database.engine.CachedStatement;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A18_CachedStatementTest {
+
+    private String url;
+    private SwitchedConnectionSource source;
+
+    /**
+     * Source handing out whichever connection it was last given,
+     * keeping every statement prepared on them
+     */
+    private static class SwitchedConnectionSource extends JdbcConnectionSource {
+
+        private Connection current;
+        private final Map<Connection, Connection> tracked = new IdentityHashMap<>();
+        private final List<PreparedStatement> prepared = new ArrayList<>();
+
+        SwitchedConnectionSource(String url) throws SQLException {
+            super(url, "sa", "");
+        }
+
+        @Override
+        public DatabaseConnection getReadWriteConnection(String tableName) {
+            return new JdbcDatabaseConnection(tracked.computeIfAbsent(current, this::track));
+        }
+
+        private Connection track(Connection connection) {
+
+            Connection[] proxy = new Connection[1];
+            proxy[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (self, method, args) -> {
+
+                Object result = invoke(method, connection, args);
+                if(!(result instanceof PreparedStatement)) return result;
+
+                PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (statementSelf, statementMethod, statementArgs) -> statementMethod.getName().equals("getConnection")
+                                                                       ? proxy[0]
+                                                                       : invoke(statementMethod, result, statementArgs));
+                prepared.add(statement);
+                return statement;
+
+            });
+            return proxy[0];
+
+        }
+
+        private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+    }
+
+    @BeforeEach
+    public void open() throws Exception {
+
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        source = new SwitchedConnectionSource(url);
+        source.current = connect();
+        try(Statement statement = source.current.createStatement()) {
+            statement.execute("CREATE TABLE cached (id INT PRIMARY KEY)");
+        }
+
+    }
+
+    @AfterEach
+    public void close() throws Exception {
+
+        try(Statement statement = source.current.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        source.current.close();
+        source.close();
+
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    private static long sessionOf(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement(); ResultSet session = statement.executeQuery("SELECT SESSION_ID()")) {
+            session.next();
+            return session.getLong(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Cached statement should be prepared again on the new connection of its source")
+    public void CachedStatement_Should_Prepare_On_New_Connection() throws Exception {
+
+        CachedStatement session = new CachedStatement(source, "cached", "SELECT SESSION_ID()", false);
+        Connection first = source.current;
+        assertEquals(sessionOf(first), session.queryForLong(), "Statement was not run on the connection of its source");
+
+        Connection second = connect();
+        source.current = second;
+        try {
+            assertEquals(sessionOf(second), session.queryForLong(), "Statement was run on the previous connection");
+            assertTrue(source.prepared.get(0).isClosed(), "Statement prepared on the previous connection was left open");
+        } finally {
+            source.current = first;
+            second.close();
+        }
+
+        assertEquals(sessionOf(first), session.queryForLong(), "Statement was not prepared again on the first connection");
+
+    }
+
+    @Test
+    @DisplayName("Cached statement should be prepared again once its connection is closed")
+    public void CachedStatement_Should_Prepare_After_Connection_Closed() throws Exception {
+
+        CachedStatement insert = new CachedStatement(source, "cached", "INSERT INTO cached (id) VALUES (?)", false);
+        CachedStatement count = new CachedStatement(source, "cached", "SELECT COUNT(*) FROM cached", false);
+        assertEquals(1, insert.update(1), "Row was not inserted");
+        assertEquals(1, count.queryForLong(), "Row was not counted");
+        long previousSession = sessionOf(source.current);
+
+        source.current.close();
+        source.current = connect();
+        assertNotEquals(previousSession, sessionOf(source.current), "Connection was not replaced");
+
+        assertEquals(1, insert.update(2), "Row was not inserted after the connection was replaced");
+        assertEquals(2, count.queryForLong(), "Rows were not counted after the connection was replaced");
+
+    }
+
+}
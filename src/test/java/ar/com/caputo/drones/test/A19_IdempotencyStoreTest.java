@@ -0,0 +1,79 @@
+package ar.com.caputo.drones.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import ar.com.caputo.drones.rest.IdempotencyStore;
+import ar.com.caputo.drones.rest.IdempotencyStore.StoredResponse;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class A19_IdempotencyStoreTest {
+
+    private static final long TTL_MILLIS = 500;
+
+    private static StoredResponse ok() {
+        return new StoredResponse(200, "{}");
+    }
+
+    @Test
+    @DisplayName("Idempotency store should drop expired responses completed after a live one was started")
+    public void IdempotencyStore_Should_Evict_Expired_Behind_Live() throws Exception {
+
+        IdempotencyStore store = new IdempotencyStore(TTL_MILLIS, 10);
+
+        // Started first and completed last
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<StoredResponse> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.execute("SLOW", "slow", () -> {
+                    started.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return ok();
+                });
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS), "Slow request did not start");
+
+        store.execute("FAST", "fast", A19_IdempotencyStoreTest::ok);
+        Thread.sleep(TTL_MILLIS * 3 / 5);
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+
+        // Only the fast response expired by now
+        Thread.sleep(TTL_MILLIS * 3 / 5);
+        store.execute("LAST", "last", A19_IdempotencyStoreTest::ok);
+        assertEquals(2, store.size(), "Expired response kept behind a live one");
+
+    }
+
+    @Test
+    @DisplayName("Idempotency store should drop the oldest completed responses over its capacity")
+    public void IdempotencyStore_Should_Evict_Over_Capacity() throws Exception {
+
+        IdempotencyStore store = new IdempotencyStore(60_000, 2);
+        for(int i = 0; i < 5; i++) store.execute("KEY" + i, "request" + i, A19_IdempotencyStoreTest::ok);
+
+        assertEquals(3, store.size(), "Responses over the capacity were kept");
+
+        int[] runs = {0};
+        store.execute("KEY4", "request4", () -> {
+            runs[0]++;
+            return ok();
+        });
+        assertEquals(0, runs[0], "Newest response was dropped");
+
+    }
+
+}
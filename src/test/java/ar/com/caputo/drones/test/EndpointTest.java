@@ -10,6 +10,7 @@ import java.net.http.HttpRequest.Builder;
 import java.net.http.HttpResponse.BodyHandler;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -57,6 +58,15 @@ public class EndpointTest {
      */
     @BeforeAll
     public static void setup() {
+        start();
+    }
+
+    /**
+     * Sets up the service as {@link #setup()} does, passing
+     * it the given arguments on top of the default ones
+     * @param arguments as given to {@link DroneService#main}
+     */
+    protected static void start(String... arguments) {
         
         Spark.awaitStop();
         // Waits .5 seconds to allow Spark's Jetty server
@@ -66,7 +76,13 @@ public class EndpointTest {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        DroneService.main(new String[]{"-h:0.0.0.0", "-p:" + API_PORT, "-db:dronesTest"});
+        // Fetch size and audit settings are given since the service outlives test classes starting it with others
+        String[] defaults = new String[]{"-h:0.0.0.0", "-p:" + API_PORT, "-db:dronesTest", "-fs:500", "-ad:-1", "-ah:15"};
+        String[] all = Arrays.copyOf(defaults, defaults.length + arguments.length);
+        System.arraycopy(arguments, 0, all, defaults.length, arguments.length);
+        DroneService.main(all);
+        // Restarted services are not listening yet when main returns
+        Spark.awaitInitialization();
         API = "http://localhost:" + API_PORT + DroneService.getInstance().API_URL;
 
     }
@@ -121,6 +137,25 @@ public class EndpointTest {
     
     }
 
+    /**
+     * Build a POST request for the given target
+     * with a specific payload and idempotency key
+     * @param TARGET
+     * @param PAYLOAD
+     * @param IDEMPOTENCY_KEY
+     * @return an {@link HttpRequest} object for {@code POST}
+     */
+    protected final HttpRequest postRequest(final String TARGET, final Object PAYLOAD, final String IDEMPOTENCY_KEY) {
+
+        return requestBuilder(TARGET)
+                .POST(HttpRequest.BodyPublishers.ofString(DroneService.GSON.toJson(PAYLOAD)))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .header("Idempotency-Key", IDEMPOTENCY_KEY)
+                .build();
+
+    }
+
     /**
      * Build a DELETE request to the given target
      * @param TARGET
@@ -134,6 +169,22 @@ public class EndpointTest {
                 .build();
     } 
 
+    /**
+     * Build a DELETE request for the given target
+     * with a specific payload
+     * @param TARGET
+     * @param PAYLOAD
+     * @return an {@link HttpRequest} object for {@code DELETE}
+     */
+    protected final HttpRequest deleteRequest(final String TARGET, final Object PAYLOAD) {
+
+        return requestBuilder(TARGET)
+                .method("DELETE", HttpRequest.BodyPublishers.ofString(DroneService.GSON.toJson(PAYLOAD)))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .build();
+    }
+
     /**
      * Build a patch request for the given target
      * with a specific payload